@@ -0,0 +1,53 @@
+package com.easycache.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with 1, 2, 4... threads, up to the number of available processors, along with the GC profiler
+ * (which reports the bytes allocated per operation). The results of each thread count are saved as JSON in the current
+ * directory (<code>results-&lt;threads&gt;.json</code>), to be compared against the results of a baseline.
+ * <p>
+ * The only (optional) argument is a regular expression selecting the benchmarks to run. Every benchmark runs by
+ * default.
+ * @author frederico.pantuzza
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*";
+        for (int threads : threadCounts(Runtime.getRuntime().availableProcessors())) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("results-" + threads + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+
+    /**
+     * @param maximum Maximum number of threads
+     * @return The powers of two lower than the maximum, followed by the maximum itself
+     */
+    private static List<Integer> threadCounts(int maximum) {
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < maximum; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(maximum);
+        return threadCounts;
+    }
+}
@@ -0,0 +1,67 @@
+package com.easycache.benchmarks;
+
+import com.easycache.core.Cache;
+import com.easycache.core.LongKeyCache;
+import com.easycache.core.ReferenceStrength;
+
+/**
+ * Creates the caches measured by the benchmarks.
+ * @author frederico.pantuzza
+ */
+final class Caches {
+
+    /** Number of distinct keys requested by the benchmarks. */
+    static final int POPULATION = 1 << 14;
+
+    private Caches() {
+    }
+
+    /**
+     * Creates and starts a cache whose loader returns the key itself, so that only the cache is measured. Entities are
+     * held strongly, so that the garbage collector never removes them, and no cleanup thread runs in the background.
+     * @param maximumSize Maximum number of entities
+     * @param concurrencyLevel Number of segments
+     * @return The started cache
+     */
+    static Cache<Long, Long> newCache(long maximumSize, int concurrencyLevel) {
+        Cache<Long, Long> cache = new Cache<>(key -> key, (entity, cacheObject, cacheMetadata) -> true);
+        cache.setCleanupInterval(null);
+        cache.setMaximumSize(maximumSize);
+        cache.setValueStrength(ReferenceStrength.STRONG);
+        cache.setConcurrencyLevel(concurrencyLevel);
+        cache.start();
+        return cache;
+    }
+
+    /**
+     * Same as {@link #newCache(long, int)}, but already holding every key of the {@link #POPULATION}.
+     * @param concurrencyLevel Number of segments
+     * @return The started cache
+     * @throws Exception If the cache could not be populated
+     */
+    static Cache<Long, Long> newPopulatedCache(int concurrencyLevel) throws Exception {
+        Cache<Long, Long> cache = newCache(POPULATION, concurrencyLevel);
+        for (long key = 0L; key < POPULATION; key++) {
+            cache.get(key);
+        }
+        return cache;
+    }
+
+    /**
+     * Same as {@link #newPopulatedCache(int)}, but a {@link LongKeyCache}, which has no maximum size.
+     * @param concurrencyLevel Number of segments
+     * @return The started cache
+     * @throws Exception If the cache could not be populated
+     */
+    static LongKeyCache<Long> newPopulatedLongKeyCache(int concurrencyLevel) throws Exception {
+        LongKeyCache<Long> cache = new LongKeyCache<>(key -> key, (entity, cacheObject, cacheMetadata) -> true);
+        cache.setCleanupInterval(null);
+        cache.setValueStrength(ReferenceStrength.STRONG);
+        cache.setConcurrencyLevel(concurrencyLevel);
+        cache.start();
+        for (long key = 0L; key < POPULATION; key++) {
+            cache.get(key);
+        }
+        return cache;
+    }
+}
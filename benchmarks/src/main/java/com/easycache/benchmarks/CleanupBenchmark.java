@@ -0,0 +1,73 @@
+package com.easycache.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.easycache.core.Cache;
+
+/**
+ * Duration of a full {@link Cache#cleanup()} of a populated cache, alone and while other threads read from the cache,
+ * along with the latency of those reads. The maintainer keeps every entity, so the cache is the same on every cleanup.
+ * @author frederico.pantuzza
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CleanupBenchmark {
+
+    @Param({ "UNIFORM", "ZIPFIAN" })
+    private Distribution distribution;
+
+    @Param({ "1", "16" })
+    private int concurrencyLevel;
+
+    private long[] keys;
+    private Cache<Long, Long> cache;
+
+    @Setup
+    public void setup() throws Exception {
+        this.keys = this.distribution.keys(Caches.POPULATION, 42L);
+        this.cache = Caches.newPopulatedCache(this.concurrencyLevel);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.cache.stop();
+    }
+
+    @Benchmark
+    public void cleanup() {
+        this.cache.cleanup();
+    }
+
+    @Benchmark
+    @Group("underLoad")
+    @GroupThreads(1)
+    public void cleanupUnderLoad() {
+        this.cache.cleanup();
+    }
+
+    @Benchmark
+    @Group("underLoad")
+    @GroupThreads(3)
+    public Long getUnderLoad(KeyCursor cursor) throws Exception {
+        return this.cache.get(cursor.next(this.keys));
+    }
+}
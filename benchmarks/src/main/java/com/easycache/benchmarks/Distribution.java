@@ -0,0 +1,61 @@
+package com.easycache.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Distribution of the keys requested by the benchmarks. Keys are generated up front, so that generating them is not
+ * measured.
+ * @author frederico.pantuzza
+ */
+public enum Distribution {
+
+    /** Every key is equally likely. */
+    UNIFORM {
+        @Override
+        long[] keys(int population, long seed) {
+            Random random = new Random(seed);
+            long[] keys = new long[KEY_COUNT];
+            for (int i = 0; i < KEY_COUNT; i++) {
+                keys[i] = random.nextInt(population);
+            }
+            return keys;
+        }
+    },
+
+    /** A few keys are requested much more often than the others (Zipf's law), as in most real workloads. */
+    ZIPFIAN {
+        @Override
+        long[] keys(int population, long seed) {
+            /* Cumulative weight of each key, the key k weighing 1/(k+1)^s. */
+            double[] cumulative = new double[population];
+            double total = 0.0d;
+            for (int k = 0; k < population; k++) {
+                total += 1.0d / Math.pow(k + 1, ZIPF_EXPONENT);
+                cumulative[k] = total;
+            }
+
+            Random random = new Random(seed);
+            long[] keys = new long[KEY_COUNT];
+            for (int i = 0; i < KEY_COUNT; i++) {
+                int k = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                keys[i] = k >= 0 ? k : Math.min(-k - 1, population - 1);
+            }
+            return keys;
+        }
+    };
+
+    /** Number of keys generated. Power of two, so that threads can cycle through them with a mask. */
+    static final int KEY_COUNT = 1 << 16;
+
+    /** Exponent of the Zipfian distribution (the same one used by YCSB). */
+    private static final double ZIPF_EXPONENT = 0.99d;
+
+    /**
+     * Generates the keys requested by a benchmark.
+     * @param population Number of distinct keys, from <code>0</code> to <code>population - 1</code>
+     * @param seed Seed of the generator, so that every run requests the same keys
+     * @return {@link #KEY_COUNT} keys
+     */
+    abstract long[] keys(int population, long seed);
+}
@@ -0,0 +1,74 @@
+package com.easycache.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.easycache.core.Cache;
+import com.easycache.core.LongKeyCache;
+
+/**
+ * Latency of {@link Cache#get(Object)} on hits (every requested key is cached) and on misses (every requested key is
+ * new, so it is loaded, inserted and makes the cache evict another one), and of {@link LongKeyCache#get(long)} on hits.
+ * @author frederico.pantuzza
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetBenchmark {
+
+    @Param({ "UNIFORM", "ZIPFIAN" })
+    private Distribution distribution;
+
+    @Param({ "1", "16" })
+    private int concurrencyLevel;
+
+    private long[] keys;
+    private Cache<Long, Long> hitCache;
+    private Cache<Long, Long> missCache;
+    private LongKeyCache<Long> longKeyHitCache;
+
+    @Setup
+    public void setup() throws Exception {
+        this.keys = this.distribution.keys(Caches.POPULATION, 42L);
+        this.hitCache = Caches.newPopulatedCache(this.concurrencyLevel);
+        this.missCache = Caches.newCache(Caches.POPULATION, this.concurrencyLevel);
+        this.longKeyHitCache = Caches.newPopulatedLongKeyCache(this.concurrencyLevel);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.hitCache.stop();
+        this.missCache.stop();
+        this.longKeyHitCache.stop();
+    }
+
+    @Benchmark
+    public Long hit(KeyCursor cursor) throws Exception {
+        return this.hitCache.get(cursor.next(this.keys));
+    }
+
+    @Benchmark
+    public Long longKeyHit(KeyCursor cursor) throws Exception {
+        return this.longKeyHitCache.get(cursor.next(this.keys));
+    }
+
+    @Benchmark
+    public Long miss(KeyCursor cursor) throws Exception {
+        return this.missCache.get(cursor.nextMiss());
+    }
+}
@@ -0,0 +1,44 @@
+package com.easycache.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Position of each benchmark thread in the generated keys. Threads start at random positions, so that they do not
+ * request the same keys in lockstep.
+ * @author frederico.pantuzza
+ */
+@State(Scope.Thread)
+public class KeyCursor {
+
+    private int index;
+
+    /** Next key that was never requested, for benchmarks of cache misses. */
+    private long missKey;
+
+    @Setup
+    public void setup() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        this.index = random.nextInt(Distribution.KEY_COUNT);
+        /* Far from the generated keys and from the other threads' keys. */
+        this.missKey = (random.nextInt(1 << 20) + 1L) << 32;
+    }
+
+    /**
+     * @param keys Keys generated by a {@link Distribution}
+     * @return The next key to request
+     */
+    long next(long[] keys) {
+        return keys[this.index++ & (Distribution.KEY_COUNT - 1)];
+    }
+
+    /**
+     * @return A key that was never requested before
+     */
+    long nextMiss() {
+        return this.missKey++;
+    }
+}
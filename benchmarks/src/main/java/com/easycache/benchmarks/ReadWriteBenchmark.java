@@ -0,0 +1,69 @@
+package com.easycache.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.easycache.core.Cache;
+
+/**
+ * Throughput of a mixed workload: three readers calling {@link Cache#get(Object)} for each writer calling
+ * {@link Cache#refresh(Object)}, on a cache holding every requested key. Run it with several thread counts (see
+ * {@link BenchmarkRunner}) to see how reads and writes scale under contention.
+ * @author frederico.pantuzza
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadWriteBenchmark {
+
+    @Param({ "UNIFORM", "ZIPFIAN" })
+    private Distribution distribution;
+
+    @Param({ "1", "16" })
+    private int concurrencyLevel;
+
+    private long[] keys;
+    private Cache<Long, Long> cache;
+
+    @Setup
+    public void setup() throws Exception {
+        this.keys = this.distribution.keys(Caches.POPULATION, 42L);
+        this.cache = Caches.newPopulatedCache(this.concurrencyLevel);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.cache.stop();
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public Long read(KeyCursor cursor) throws Exception {
+        return this.cache.get(cursor.next(this.keys));
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public Long write(KeyCursor cursor) throws Exception {
+        return this.cache.refresh(cursor.next(this.keys));
+    }
+}
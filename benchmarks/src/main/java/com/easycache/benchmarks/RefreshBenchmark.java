@@ -0,0 +1,56 @@
+package com.easycache.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.easycache.core.Cache;
+
+/**
+ * Latency of {@link Cache#refresh(Object)} of cached keys, which reloads and updates them under the segment's lock.
+ * @author frederico.pantuzza
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RefreshBenchmark {
+
+    @Param({ "UNIFORM", "ZIPFIAN" })
+    private Distribution distribution;
+
+    @Param({ "1", "16" })
+    private int concurrencyLevel;
+
+    private long[] keys;
+    private Cache<Long, Long> cache;
+
+    @Setup
+    public void setup() throws Exception {
+        this.keys = this.distribution.keys(Caches.POPULATION, 42L);
+        this.cache = Caches.newPopulatedCache(this.concurrencyLevel);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.cache.stop();
+    }
+
+    @Benchmark
+    public Long refresh(KeyCursor cursor) throws Exception {
+        return this.cache.refresh(cursor.next(this.keys));
+    }
+}
@@ -0,0 +1,400 @@
+package com.easycache.core;
+
+import java.lang.ref.ReferenceQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.easycache.core.Cache.CacheMissBehaviour;
+import com.googlecode.concurentlocks.ReadWriteUpdateLock;
+import com.googlecode.concurentlocks.ReentrantReadWriteUpdateLock;
+
+/**
+ * Configuration and life cycle shared by {@link Cache} and {@link LongKeyCache}: the contracts that manage the
+ * entities, the settings that both support, the loads in progress and the threads started along with the cache. Only
+ * extended within this package.
+ * @param <K> Type of the entity's key
+ * @param <T> Type of the cache entity
+ * @author frederico.pantuzza
+ */
+public abstract class AbstractCache<K, T> implements CacheMetadata {
+
+    /** Default value for {@link #cleanupInterval}. */
+    private static final long DEFAULT_CLEANUP_INTERVAL = TimeUnit.SECONDS.toMillis(30L);
+    /** Default value for {@link #cacheMissBehaviour}. */
+    private static final CacheMissBehaviour DEFAULT_CACHE_MISS_BEHAVIOUR = CacheMissBehaviour.LOAD_WHENEVER_NOT_AVAILABLE_BEFORE;
+    /** Default value for {@link #concurrencyLevel}. */
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 1;
+    /** Default value for {@link #valueStrength}. */
+    private static final ReferenceStrength DEFAULT_VALUE_STRENGTH = ReferenceStrength.SOFT;
+    /** Maximum value for {@link #concurrencyLevel}. */
+    private static final int MAXIMUM_CONCURRENCY_LEVEL = 1 << 16;
+
+    /** Where the references to the collected entities (and keys) are queued. */
+    final ReferenceQueue<T> referenceQueue = new ReferenceQueue<>();
+
+    /**
+     * Loads currently in progress, by the key that identifies the entity in the cache's segments. Concurrent loads of
+     * the same key share the same future.
+     */
+    final ConcurrentMap<Object, CompletableFuture<T>> loadsInProgress = new ConcurrentHashMap<>();
+
+    /**
+     * The lock that will be used to synchronize this cache's configuration, start and stop. The entities are
+     * synchronized by the lock of their segment.
+     */
+    final ReadWriteUpdateLock lock = new ReentrantReadWriteUpdateLock();
+
+    /** The object's factory. */
+    final CacheObjectFactory<T> cacheObjectFactory;
+
+    /** The object's maintainer. */
+    final CacheObjectMaintainer<K, T> cacheObjectMaintainer;
+
+    /** The object's loader. Might also be a (blocking) {@link CacheLoader}. */
+    final AsyncCacheLoader<K, T> cacheLoader;
+
+    /**
+     * Interval (in milliseconds) between automatic calls to {@link #cleanup()}. <code>null</code> if calls should not
+     * be done automatically.
+     */
+    Long cleanupInterval = DEFAULT_CLEANUP_INTERVAL;
+
+    /**
+     * Maximum number of entities evaluated by each slice of a cleanup. The lock is released between slices, so that a
+     * cleanup never blocks the other operations for too long. <code>null</code> if all the entities should be evaluated
+     * at once.
+     */
+    Integer cleanupSliceSize;
+
+    /** @see CacheMissBehaviour */
+    CacheMissBehaviour cacheMissBehaviour = DEFAULT_CACHE_MISS_BEHAVIOUR;
+
+    /**
+     * Number of independent segments of the cache, each one with its own map and lock, rounded up to a power of two. A
+     * {@link Cache} with a maximum size (or weight) splits it evenly among them, and only creates as many segments as
+     * fit in it (rounded down to a power of two).
+     */
+    int concurrencyLevel = DEFAULT_CONCURRENCY_LEVEL;
+
+    /**
+     * Strength of the references to the cached entities. With {@link ReferenceStrength#STRONG} references, entities are
+     * only removed by the cache itself and no reference is queued, so it is best used along with a maximum size or an
+     * expiry of a {@link Cache}.
+     */
+    ReferenceStrength valueStrength = DEFAULT_VALUE_STRENGTH;
+
+    Thread cleanupThread;
+    Thread referencesCleanupThread;
+
+    volatile boolean running;
+
+    /**
+     * Constructor.
+     * @param cacheObjectFactory (mandatory) See {@link #cacheObjectFactory}
+     * @param cacheLoader (mandatory) See {@link #cacheLoader}
+     * @param cacheObjectMaintainer (mandatory) See {@link #cacheObjectMaintainer}
+     * @throws IllegalArgumentException If any of the mandatory parameters is <code>null</code>
+     */
+    AbstractCache(CacheObjectFactory<T> cacheObjectFactory, AsyncCacheLoader<K, T> cacheLoader,
+            CacheObjectMaintainer<K, T> cacheObjectMaintainer) throws IllegalArgumentException {
+        if (cacheObjectFactory == null || cacheLoader == null || cacheObjectMaintainer == null) {
+            throw new IllegalArgumentException(
+                    "Neither cacheObjectFactory, cacheLoader nor cacheObjectMaintainer can be null");
+        }
+        this.cacheObjectFactory = cacheObjectFactory;
+        this.cacheLoader = cacheLoader;
+        this.cacheObjectMaintainer = cacheObjectMaintainer;
+    }
+
+    /**
+     * @return The {@link #cleanupInterval}
+     */
+    public Long getCleanupInterval() {
+        return this.cleanupInterval;
+    }
+
+    /**
+     * Sets the {@link #cleanupInterval}.
+     * <p>
+     * Can only be called when the cache is not running.
+     * @param cleanupInterval New value for {@link #cleanupInterval}. Must be greater than zero
+     * @throws IllegalArgumentException If <code>cleanupInterval</code> is less or equal to zero
+     */
+    public void setCleanupInterval(Long cleanupInterval) throws IllegalArgumentException {
+        this.lock.writeLock().lock();
+        try {
+            checkNotRunning();
+
+            if (cleanupInterval != null && cleanupInterval <= 0) {
+                throw new IllegalArgumentException("cleanupInterval must either be null or greater than zero");
+            }
+            this.cleanupInterval = cleanupInterval;
+
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The {@link #cleanupSliceSize}
+     */
+    public Integer getCleanupSliceSize() {
+        return this.cleanupSliceSize;
+    }
+
+    /**
+     * Sets the {@link #cleanupSliceSize}.
+     * <p>
+     * Can only be called when the cache is not running.
+     * @param cleanupSliceSize New value for {@link #cleanupSliceSize}. Must be greater than zero
+     * @throws IllegalArgumentException If <code>cleanupSliceSize</code> is less or equal to zero
+     */
+    public void setCleanupSliceSize(Integer cleanupSliceSize) throws IllegalArgumentException {
+        this.lock.writeLock().lock();
+        try {
+            checkNotRunning();
+
+            if (cleanupSliceSize != null && cleanupSliceSize <= 0) {
+                throw new IllegalArgumentException("cleanupSliceSize must either be null or greater than zero");
+            }
+            this.cleanupSliceSize = cleanupSliceSize;
+
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The {@link #cacheMissBehaviour}
+     */
+    public CacheMissBehaviour getCacheMissBehaviour() {
+        return this.cacheMissBehaviour;
+    }
+
+    /**
+     * Sets the {@link #cacheMissBehaviour}.
+     * <p>
+     * Can only be called when the cache is not running.
+     * @param cacheMissBehaviour New value for {@link #cacheMissBehaviour}. Must not be <code>null</code>
+     * @throws IllegalArgumentException If <code>cacheMissBehaviour</code> is <code>null</code>
+     */
+    public void setCacheMissBehaviour(CacheMissBehaviour cacheMissBehaviour) throws IllegalArgumentException {
+        this.lock.writeLock().lock();
+        try {
+            checkNotRunning();
+
+            if (cacheMissBehaviour == null) {
+                throw new IllegalArgumentException("cacheMissBehaviour must not be null");
+            }
+            this.cacheMissBehaviour = cacheMissBehaviour;
+
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The {@link #concurrencyLevel}
+     */
+    public int getConcurrencyLevel() {
+        return this.concurrencyLevel;
+    }
+
+    /**
+     * Sets the {@link #concurrencyLevel}.
+     * <p>
+     * Can only be called when the cache is not running.
+     * @param concurrencyLevel New value for {@link #concurrencyLevel}. Must be greater than zero and will be rounded up
+     *            to a power of two
+     * @throws IllegalArgumentException If <code>concurrencyLevel</code> is less or equal to zero or greater than
+     *             {@value #MAXIMUM_CONCURRENCY_LEVEL}
+     */
+    public void setConcurrencyLevel(int concurrencyLevel) throws IllegalArgumentException {
+        this.lock.writeLock().lock();
+        try {
+            checkNotRunning();
+
+            if (concurrencyLevel <= 0 || concurrencyLevel > MAXIMUM_CONCURRENCY_LEVEL) {
+                throw new IllegalArgumentException(
+                        "concurrencyLevel must be greater than zero and up to " + MAXIMUM_CONCURRENCY_LEVEL);
+            }
+            this.concurrencyLevel = concurrencyLevel == 1 ? 1 : Integer.highestOneBit(concurrencyLevel - 1) << 1;
+
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The {@link #valueStrength}
+     */
+    public ReferenceStrength getValueStrength() {
+        return this.valueStrength;
+    }
+
+    /**
+     * Sets the {@link #valueStrength}.
+     * <p>
+     * Can only be called when the cache is not running.
+     * @param valueStrength New value for {@link #valueStrength}. Must not be <code>null</code>
+     * @throws IllegalArgumentException If <code>valueStrength</code> is <code>null</code>
+     */
+    public void setValueStrength(ReferenceStrength valueStrength) throws IllegalArgumentException {
+        this.lock.writeLock().lock();
+        try {
+            checkNotRunning();
+
+            if (valueStrength == null) {
+                throw new IllegalArgumentException("valueStrength must not be null");
+            }
+            this.valueStrength = valueStrength;
+
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Starts this cache activity, along with the threads it needs.
+     * @throws IllegalStateException If the cache is already running
+     */
+    public abstract void start() throws IllegalStateException;
+
+    /**
+     * Stops this cache activity, removing every entity. It is guaranteed that after exiting this method, no operation
+     * will be executed by any of the threads started by the cache.
+     * @throws IllegalStateException If the cache is not running
+     */
+    public abstract void stop() throws IllegalStateException;
+
+    /**
+     * Remove all the entities that are no longer maintained by the cache (or that were collected by the GC).
+     * @see CacheObjectMaintainer
+     */
+    public abstract void cleanup();
+
+    @Override
+    public int size() {
+        return (int) Math.min(estimatedSize(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Starts a thread of this cache, which runs a task over and over until it is interrupted by {@link #stop()}.
+     * @param name Name of the thread
+     * @param priority Priority of the thread
+     * @param task The task. It should throw an {@link InterruptedException} if it finds out that the thread was
+     *            interrupted
+     * @return The started thread
+     */
+    final Thread startThread(String name, int priority, InterruptibleTask task) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!Thread.interrupted()) {
+                        task.run();
+                    }
+                } catch (InterruptedException e) {
+                    /* Allow thread to exit. */
+                }
+            }
+        }, name);
+        thread.setPriority(priority);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Interrupts the {@link #cleanupThread} and the {@link #referencesCleanupThread}, if they were started. Once
+     * interrupted, we are positive that the threads will stop. However, we can't call join because the caller is
+     * holding the lock.
+     */
+    final void interruptThreads() {
+        if (this.cleanupThread != null) {
+            this.cleanupThread.interrupt();
+            this.cleanupThread = null;
+        }
+        if (this.referencesCleanupThread != null) {
+            this.referencesCleanupThread.interrupt();
+            this.referencesCleanupThread = null;
+        }
+    }
+
+    /**
+     * @return The maximum number of entities evaluated by each slice of a cleanup
+     * @see #cleanupSliceSize
+     */
+    final int getCleanupSliceLimit() {
+        return this.cleanupSliceSize != null ? this.cleanupSliceSize : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Determines whether an entity must be loaded when it could not be retrieved from the cache.
+     * @param cacheObject The {@link CacheObject} found for the key. <code>null</code> if there was none
+     * @return <code>true</code> if the entity must be loaded, according to the {@link #cacheMissBehaviour}
+     */
+    final boolean mustLoadOnMiss(CacheObject<T> cacheObject) {
+        switch (this.cacheMissBehaviour) {
+        case LOAD_WHENEVER_NOT_AVAILABLE:
+            return true;
+        case LOAD_WHENEVER_NOT_AVAILABLE_BEFORE:
+            return cacheObject == null;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Waits for a load to finish.
+     * @param load The load
+     * @return The loaded entity
+     * @throws Exception The same error thrown by the load, if any
+     */
+    static <T> T waitForLoad(CompletableFuture<T> load) throws Exception {
+        try {
+            return load.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @throws IllegalStateException If the cache is NOT running
+     */
+    final void checkRunning() {
+        if (!this.running) {
+            throw new IllegalStateException("Cache is not running.");
+        }
+    }
+
+    /**
+     * @throws IllegalStateException If the cache is running
+     */
+    final void checkNotRunning() {
+        if (this.running) {
+            throw new IllegalStateException("Cache is already running.");
+        }
+    }
+
+    /**
+     * Task run over and over by a thread of the cache.
+     */
+    @FunctionalInterface
+    interface InterruptibleTask {
+
+        /**
+         * Runs the task once.
+         * @throws InterruptedException If the thread was interrupted
+         */
+        void run() throws InterruptedException;
+    }
+}
@@ -0,0 +1,27 @@
+package com.easycache.core;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking loader of entities that should be inserted in the cache.
+ * <p>
+ * Use this contract when the entities come from a non-blocking source, so that no thread is held while waiting for
+ * them. Blocking sources should implement {@link CacheLoader} instead.
+ * @param <K> Type of the entity's key stored by the cache
+ * @param <T> Type of the entity stored by the cache
+ * @author frederico.pantuzza
+ */
+@FunctionalInterface
+public interface AsyncCacheLoader<K, T> {
+
+    /**
+     * Starts loading an entity to be inserted in cache.
+     * @param key Entity's key
+     * @param executor The cache's {@link Executor}, which may be used to run the load
+     * @return A {@link CompletionStage} completed with the loaded entity (or <code>null</code> if it does not exist),
+     *         or completed exceptionally if an unexpected error occurred during the loading. This error may be
+     *         propagated outside the cache
+     */
+    CompletionStage<T> asyncLoad(K key, Executor executor);
+}
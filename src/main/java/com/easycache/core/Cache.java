@@ -1,13 +1,39 @@
 package com.easycache.core;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
 
 import com.easycache.core.defaults.DefaultCacheObject;
 import com.easycache.core.defaults.DefaultCacheObjectFactory;
@@ -19,7 +45,9 @@ import com.googlecode.concurentlocks.ReentrantReadWriteUpdateLock;
  * <p>
  * All entities are added to the cache by a {@link CacheLoader}, which is triggered whenever
  * {@link Cache#refresh(Object)} is called. This method might be called directly or inside {@link Cache#get(Object)}
- * method, depending on the configured {@link CacheMissBehaviour}.
+ * method, depending on the configured {@link CacheMissBehaviour}. Non-blocking sources may be plugged with an
+ * {@link AsyncCacheLoader} instead, and non-blocking callers may use {@link #getAsync(Object)} and
+ * {@link #refreshAsync(Object)}, which run the loads on the cache's {@link #executor}.
  * <p>
  * Once loaded into cache, the entity will be referred by an {@link CacheObject} (with a {@link SoftReference}). This is
  * the class that is actually managed by the cache. Besides the stored entity, it may contain metadata relevant to the
@@ -28,64 +56,202 @@ import com.googlecode.concurentlocks.ReentrantReadWriteUpdateLock;
  * may want to use another type of {@link CacheObject}, just set your own {@link CacheObjectFactory} when constructing
  * the cache.
  * <p>
- * An entity may be removed from the cache in two different ways. One happens when {@link Cache#cleanup()} is called. In
- * this case, the defined {@link CacheObjectMaintainer} will be triggered for every cached entity to decide whether it
- * stays on cache or not. This method may be periodically called by an clean up thread automatically created by the
- * cache, if {@link #cleanupInterval} is defined, or you may want to call it manually at any time.
+ * If a {@link #maximumSize} (or a {@link #maximumWeight}) is defined, the cache also evicts entities as soon as new
+ * ones make it exceed its capacity. The evicted entities are chosen by a W-TinyLFU policy, which considers both how
+ * recently and how frequently they were accessed, so the capacity is enforced without depending on the garbage
+ * collector.
  * <p>
- * The other way is by the garbage collector. Since this cache does not hold any strong references to the cached
- * objects, the GC may decide to collect them at any time. When this happens, the {@link CacheObject} that was holding
- * the reference to the collected object will be removed from the cache by a special thread called
- * "References cache cleanup". Notice that even before it gets removed, the object will not be retrievable by the cache
- * (since it was collected). If you want to prevent an entity to be collected when cached, simply create a strong
- * reference to it. You could use this to, for example, guarantee that the most recently used objects will never be
- * removed.
+ * Besides that, an entity may be removed from the cache in two different ways. One happens when
+ * {@link Cache#cleanup()} is called. In this case, the defined {@link CacheObjectMaintainer} will be triggered for
+ * every cached entity to decide whether it stays on cache or not. This method may be periodically called by an clean
+ * up thread automatically created by the cache, if {@link #cleanupInterval} is defined, or you may want to call it
+ * manually at any time.
+ * <p>
+ * The other way is by the garbage collector. By default, this cache does not hold any strong references to the cached
+ * objects (see {@link #valueStrength}), so the GC may decide to collect them at any time. When this happens, the
+ * {@link CacheObject} that was holding the reference to the collected object will be removed from the cache by a
+ * special thread called "References cache cleanup". Notice that even before it gets removed, the object will not be
+ * retrievable by the cache (since it was collected). If you want to prevent an entity to be collected when cached,
+ * simply create a strong reference to it. You could use this to, for example, guarantee that the most recently used
+ * objects will never be removed. A bounded cache may also hold its entities strongly instead, leaving the GC out of
+ * it. The keys may be held weakly as well (see {@link #weakKeys}).
+ * <p>
+ * Cache hits are served without taking any lock, so they scale with the number of reader threads. They do not
+ * allocate any object either (unless the cache has {@link #weakKeys}), and read the time from the {@link CacheClock}.
+ * Entities are loaded outside of any lock as well, with at most one load in progress per key: concurrent misses for the
+ * same key wait for a single call to the {@link CacheLoader}, while misses for different keys are loaded in parallel.
+ * Keys must not be <code>null</code>.
+ * <p>
+ * A bounded cache may also have an off-heap tier (see {@link #offHeapCapacity}). The entities evicted because of the
+ * capacity are then serialized out of the heap (once the segment's lock is released) instead of being dropped, and
+ * promoted back to the heap by the next {@link #get(Object)} that misses them, without calling the {@link CacheLoader}.
+ * <p>
+ * The entities may also survive a restart: if a {@link #snapshotFile} is defined, {@link #stop()} saves them there, and
+ * {@link #start()} maps the file back, so that each entity is restored (along with the metadata of its
+ * {@link CacheObject}) by the first {@link #get(Object)} that misses it, instead of being loaded again.
+ * <p>
+ * A {@link RemovalListener} may be told about every entity removed (or replaced) by the cache. The removals are
+ * delivered asynchronously, in batches, so that the listener never runs while the cache holds a lock.
+ * <p>
+ * Statistics (hits, misses, loads and evictions) may be recorded as well, see {@link #setRecordStats(boolean)} and
+ * {@link #stats()}.
+ * <p>
+ * If a {@link #refreshAfterWrite} is defined, entities that were loaded for too long are reloaded ahead of their
+ * removal: the first hit after the delay still returns the current entity straight away, but starts a single reload in
+ * the background, on the {@link #executor}. Hot entities then never make their callers wait for the loader.
+ * <p>
+ * Writes, expirations and cleanups are synchronized by a write lock. If a {@link #concurrencyLevel} is defined, the
+ * keys are spread among that many independent segments, each one with its own map, lock, eviction policy and cleanup
+ * state, so that writers of keys in different segments do not contend and a cleanup in progress in one segment never
+ * delays the others.
+ * <p>
+ * With an {@link #invalidationBus}, the entities invalidated in this cache are invalidated in the caches of the other
+ * nodes as well, and the other way around.
  * @param <K> Type of the unique identifier for the cache entities
  * @param <T> Type of the cache entity
  * @author frederico.pantuzza
  */
-public class Cache<K, T> implements CacheMetadata {
+public class Cache<K, T> extends AbstractCache<K, T> {
+
+    /** Default value for {@link #executor}. */
+    private static final Executor DEFAULT_EXECUTOR = newDefaultExecutor();
+    /** Interval (in milliseconds) between the automatic removals of expired entities. */
+    private static final long EXPIRATION_INTERVAL = TimeUnit.SECONDS.toMillis(1L);
+    /** Maximum number of removals delivered at once to the {@link #removalListener}. */
+    private static final int REMOVAL_BATCH_SIZE = 1024;
+    /** Default value for {@link #invalidationWindow}. */
+    private static final long DEFAULT_INVALIDATION_WINDOW = 10L;
+    /** Maximum number of keys published at once to the {@link #invalidationBus}. */
+    private static final int INVALIDATION_BATCH_SIZE = 1024;
+
+    /**
+     * The segments that hold this cache's entities, by the hash of their keys. Created when the cache starts, and only
+     * read after checking that it is {@link #running}, which publishes them to the other threads.
+     */
+    private List<Segment> segments = Collections.emptyList();
+
+    /** <code>true</code> if the {@link #cacheLoader} is a {@link CacheLoader} that supports batch loads. */
+    private final boolean batchLoads;
+
+    /** Maximum number of entities in the cache. <code>null</code> if the cache is unbounded. */
+    private Long maximumSize;
+
+    /**
+     * Maximum total weight of the entities in the cache, as calculated by the {@link #weigher}. <code>null</code> if
+     * the cache is unbounded or bounded by {@link #maximumSize}.
+     */
+    private Long maximumWeight;
+
+    /** Calculates the weight of each entity. Only defined along with {@link #maximumWeight}. */
+    private Weigher<K, T> weigher;
+
+    /** Determines when each entity expires. <code>null</code> if entities never expire. */
+    private volatile Expiry<K, T> expiry;
+
+    /**
+     * Time (in milliseconds) after an entity is loaded, or refreshed, when it is reloaded in the background by the next
+     * hit. The hit itself returns the current entity. <code>null</code> if entities are not reloaded ahead.
+     */
+    private Long refreshAfterWrite;
+
+    /**
+     * <code>true</code> if the keys are weakly referenced, so that an entity is removed once its key is no longer
+     * strongly referenced outside of the cache. Weak keys are compared by identity (<code>==</code>) instead of
+     * {@link Object#equals(Object)}.
+     */
+    private boolean weakKeys;
+
+    /**
+     * {@link Executor} where the asynchronous loads are run. Defaults to virtual threads when they are available (JDK
+     * 21+) and to a shared pool of daemon threads otherwise.
+     */
+    private Executor executor = DEFAULT_EXECUTOR;
+
+    /** Records the statistics of the cache. <code>null</code> if they are not recorded. */
+    private StatsCounter statsCounter;
+
+    /**
+     * Listener of the removed (and replaced) entities, called on the {@link #executor}. <code>null</code> if there is
+     * none.
+     */
+    private RemovalListener<K, T> removalListener;
+
+    /** Removals waiting to be delivered to the {@link #removalListener}. */
+    private final Queue<RemovalNotification<K, T>> pendingRemovals = new ConcurrentLinkedQueue<>();
+
+    /** <code>true</code> while a delivery of the {@link #pendingRemovals} is scheduled or running. */
+    private final AtomicBoolean removalDeliveryScheduled = new AtomicBoolean();
+
+    /** Name of the cache in the {@link #metricsExporter}. */
+    private String metricsName;
 
-    /** Default value for {@link #cleanupInterval}. */
-    private static final long DEFAULT_CLEANUP_INTERVAL = TimeUnit.SECONDS.toMillis(30L);
-    /** Default value for {@link #cacheMissBehaviour}. */
-    private static final CacheMissBehaviour DEFAULT_CACHE_MISS_BEHAVIOUR = CacheMissBehaviour.LOAD_WHENEVER_NOT_AVAILABLE_BEFORE;
+    /** Publishes the metrics of the cache while it runs. <code>null</code> if they are not published. */
+    private MetricsExporter metricsExporter;
 
-    /** {@link Map} that holds this cache's entities. */
-    private final Map<K, CacheObject<T>> entitiesMap = new HashMap<>();
+    /**
+     * Second level of the cache, usually shared with the caches of other nodes, consulted before the
+     * {@link #cacheLoader}. The entities loaded by the loader are put in it. <code>null</code> if there is none.
+     */
+    private CacheStore<K, T> cacheStore;
+
+    /**
+     * Where the invalidations of this cache are published to the caches of other nodes, and from where theirs are
+     * received. <code>null</code> if there is none.
+     */
+    private InvalidationBus<K> invalidationBus;
 
     /**
-     * {@link Map} that holds the reference to the cached entities and their respective keys. It is used to identify the
-     * {@link CacheObject}s which the entity have already been collected.
+     * Time (in milliseconds) during which the invalidations are gathered before being published together to the
+     * {@link #invalidationBus}.
      */
-    private final Map<Reference<T>, K> keysByEntityReferenceMap = new HashMap<>();
-    private final ReferenceQueue<T> referenceQueue = new ReferenceQueue<>();
+    private long invalidationWindow = DEFAULT_INVALIDATION_WINDOW;
+
+    /** Invalidations waiting to be published to the {@link #invalidationBus}. */
+    private final BlockingQueue<K> pendingInvalidations = new LinkedBlockingQueue<>();
 
-    /** The lock that will be used to synchronize this cache operations. */
-    private final ReadWriteUpdateLock lock = new ReentrantReadWriteUpdateLock();
+    /** Applies the invalidations received from the {@link #invalidationBus}. */
+    private final InvalidationBus.Subscriber<K> invalidationSubscriber = this::invalidateLocally;
+
+    /**
+     * Maximum number of bytes stored in the off-heap tier, where the entities evicted because of the
+     * {@link #maximumSize} (or the {@link #maximumWeight}) are moved. The tier evicts its own entities in the order
+     * they were moved there. <code>null</code> if there is no off-heap tier.
+     */
+    private Long offHeapCapacity;
 
-    /** The object's factory. */
-    private final CacheObjectFactory<T> cacheObjectFactory;
+    /** Serializes the keys moved to the off-heap tier. Only defined along with {@link #offHeapCapacity}. */
+    private Serializer<K> offHeapKeySerializer;
 
-    /** The object's maintainer. */
-    private final CacheObjectMaintainer<K, T> cacheObjectMaintainer;
+    /** Serializes the entities moved to the off-heap tier. Only defined along with {@link #offHeapCapacity}. */
+    private Serializer<T> serializer;
 
-    /** The object's loader. */
-    private final CacheLoader<K, T> cacheLoader;
+    /** The off-heap tier. Only created when the cache starts with an {@link #offHeapCapacity}. */
+    private OffHeapStore offHeapStore;
 
     /**
-     * Interval (in milliseconds) between automatic calls to {@link #cleanup()}. <code>null</code> if calls should not
-     * be done automatically.
+     * File where the entities are saved when the cache stops, and restored from when it starts again. The entities
+     * expired or collected by the GC (as well as the ones in the off-heap tier) are not saved. <code>null</code> if no
+     * snapshot is kept.
      */
-    private Long cleanupInterval = DEFAULT_CLEANUP_INTERVAL;
+    private Path snapshotFile;
+
+    /** Serializes the keys saved in the snapshot. Only defined along with {@link #snapshotFile}. */
+    private Serializer<K> snapshotKeySerializer;
 
-    /** @see CacheMissBehaviour */
-    private CacheMissBehaviour cacheMissBehaviour = DEFAULT_CACHE_MISS_BEHAVIOUR;
+    /** Serializes the entities saved in the snapshot. Only defined along with {@link #snapshotFile}. */
+    private Serializer<T> snapshotSerializer;
 
-    private Thread cleanupThread;
-    private Thread referencesCleanupThread;
+    /** The snapshot opened when the cache started, holding the entities not restored yet. */
+    private Snapshot snapshot;
+
+    /**
+     * Held while the snapshot is written, which {@link #stop()} does once the other locks are released, so that the
+     * cache does not open the snapshot file again before.
+     */
+    private final Lock snapshotLock = new ReentrantLock();
 
-    private boolean running;
+    private Thread expirationThread;
+    private Thread invalidationThread;
 
     /**
      * Same as {@link #Cache(CacheObjectFactory, CacheLoader, CacheObjectMaintainer)}, but uses the
@@ -109,38 +275,62 @@ public class Cache<K, T> implements CacheMetadata {
      */
     public Cache(CacheObjectFactory<T> cacheObjectFactory, CacheLoader<K, T> cacheLoader,
             CacheObjectMaintainer<K, T> cacheObjectMaintainer) throws IllegalArgumentException {
-        if (cacheObjectFactory == null || cacheLoader == null || cacheObjectMaintainer == null) {
-            throw new IllegalArgumentException(
-                    "Neither cacheObjectFactory, cacheLoader nor cacheObjectMaintainer can be null");
-        }
-        this.cacheObjectFactory = cacheObjectFactory;
-        this.cacheLoader = cacheLoader;
-        this.cacheObjectMaintainer = cacheObjectMaintainer;
+        this(cacheObjectFactory, (AsyncCacheLoader<K, T>) cacheLoader, cacheObjectMaintainer);
+    }
+
+    /**
+     * Same as {@link #Cache(CacheObjectFactory, AsyncCacheLoader, CacheObjectMaintainer)}, but uses the
+     * {@link DefaultCacheObjectFactory}.
+     * @param cacheLoader (mandatory) See {@link #cacheLoader}
+     * @param cacheObjectMaintainer (mandatory) See {@link #cacheObjectMaintainer}
+     * @throws IllegalArgumentException If any of the mandatory parameters is <code>null</code>
+     * @see CacheObjectMaintainer
+     */
+    public Cache(AsyncCacheLoader<K, T> cacheLoader, CacheObjectMaintainer<K, T> cacheObjectMaintainer) {
+        this(new DefaultCacheObjectFactory<>(), cacheLoader, cacheObjectMaintainer);
+    }
+
+    /**
+     * Constructor.
+     * @param cacheObjectFactory (mandatory) See {@link #cacheObjectFactory}
+     * @param cacheLoader (mandatory) See {@link #cacheLoader}
+     * @param cacheObjectMaintainer (mandatory) See {@link #cacheObjectMaintainer}
+     * @throws IllegalArgumentException If any of the mandatory parameters is <code>null</code>
+     * @see CacheObjectMaintainer
+     */
+    public Cache(CacheObjectFactory<T> cacheObjectFactory, AsyncCacheLoader<K, T> cacheLoader,
+            CacheObjectMaintainer<K, T> cacheObjectMaintainer) throws IllegalArgumentException {
+        super(cacheObjectFactory, cacheLoader, cacheObjectMaintainer);
+        this.batchLoads = cacheLoader instanceof CacheLoader && ((CacheLoader<?, ?>) cacheLoader).supportsLoadAll();
     }
 
     /**
-     * @return The {@link #cleanupInterval}
+     * @return The {@link #maximumSize}
      */
-    public Long getCleanupInterval() {
-        return this.cleanupInterval;
+    public Long getMaximumSize() {
+        return this.maximumSize;
     }
 
     /**
-     * Sets the {@link #cleanupInterval}.
+     * Sets the {@link #maximumSize}.
      * <p>
      * Can only be called when the cache is not running.
-     * @param cleanupInterval New value for {@link #cleanupInterval}. Must be greater than zero
-     * @throws IllegalArgumentException If <code>cleanupInterval</code> is less or equal to zero
+     * @param maximumSize New value for {@link #maximumSize}. Must be greater than zero
+     * @throws IllegalArgumentException If <code>maximumSize</code> is less or equal to zero
+     * @throws IllegalStateException If {@link #maximumWeight} is already defined
      */
-    public void setCleanupInterval(Long cleanupInterval) throws IllegalArgumentException {
+    public void setMaximumSize(Long maximumSize) throws IllegalArgumentException, IllegalStateException {
         this.lock.writeLock().lock();
         try {
             checkNotRunning();
 
-            if (cleanupInterval != null && cleanupInterval <= 0) {
-                throw new IllegalArgumentException("cleanupInterval must either be null or greater than zero");
+            if (maximumSize != null && maximumSize <= 0) {
+                throw new IllegalArgumentException("maximumSize must either be null or greater than zero");
+            }
+            if (maximumSize != null && this.maximumWeight != null) {
+                throw new IllegalStateException("maximumSize can not be defined along with maximumWeight");
             }
-            this.cleanupInterval = cleanupInterval;
+            this.maximumSize = maximumSize;
 
         } finally {
             this.lock.writeLock().unlock();
@@ -148,28 +338,46 @@ public class Cache<K, T> implements CacheMetadata {
     }
 
     /**
-     * @return The {@link #cacheMissBehaviour}
+     * @return The {@link #maximumWeight}
      */
-    public CacheMissBehaviour getCacheMissBehaviour() {
-        return this.cacheMissBehaviour;
+    public Long getMaximumWeight() {
+        return this.maximumWeight;
     }
 
     /**
-     * Sets the {@link #cacheMissBehaviour}.
+     * @return The {@link #weigher}
+     */
+    public Weigher<K, T> getWeigher() {
+        return this.weigher;
+    }
+
+    /**
+     * Sets the {@link #maximumWeight} and the {@link #weigher}.
      * <p>
      * Can only be called when the cache is not running.
-     * @param cacheMissBehaviour New value for {@link #cacheMissBehaviour}. Must not be <code>null</code>
-     * @throws IllegalArgumentException If <code>cacheMissBehaviour</code> is <code>null</code>
+     * @param maximumWeight New value for {@link #maximumWeight}. Must be greater than zero
+     * @param weigher New value for {@link #weigher}. Must be <code>null</code> only if <code>maximumWeight</code> is
+     * @throws IllegalArgumentException If <code>maximumWeight</code> is less or equal to zero or if only one of the
+     *             parameters is <code>null</code>
+     * @throws IllegalStateException If {@link #maximumSize} is already defined
      */
-    public void setCacheMissBehaviour(CacheMissBehaviour cacheMissBehaviour) throws IllegalArgumentException {
+    public void setMaximumWeight(Long maximumWeight, Weigher<K, T> weigher)
+            throws IllegalArgumentException, IllegalStateException {
         this.lock.writeLock().lock();
         try {
             checkNotRunning();
 
-            if (cacheMissBehaviour == null) {
-                throw new IllegalArgumentException("cacheMissBehaviour must not be null");
+            if (maximumWeight != null && maximumWeight <= 0) {
+                throw new IllegalArgumentException("maximumWeight must either be null or greater than zero");
             }
-            this.cacheMissBehaviour = cacheMissBehaviour;
+            if ((maximumWeight == null) != (weigher == null)) {
+                throw new IllegalArgumentException("maximumWeight and weigher must be either both null or not");
+            }
+            if (maximumWeight != null && this.maximumSize != null) {
+                throw new IllegalStateException("maximumWeight can not be defined along with maximumSize");
+            }
+            this.maximumWeight = maximumWeight;
+            this.weigher = weigher;
 
         } finally {
             this.lock.writeLock().unlock();
@@ -177,78 +385,55 @@ public class Cache<K, T> implements CacheMetadata {
     }
 
     /**
-     * Starts this cache activity.
+     * @return The {@link #expiry}
+     */
+    public Expiry<K, T> getExpiry() {
+        return this.expiry;
+    }
+
+    /**
+     * Sets the {@link #expiry}.
      * <p>
-     * When called, this method may start at most two threads. One will be started only if {@link #cleanupInterval} is
-     * defined and call {@link #cleanup()} periodically. The other will always be started to clean any useless
-     * references left by the garbage collector. Both threads will stop whenever {@link #stop()} is called.
+     * Can only be called when the cache is not running.
+     * @param expiry New value for {@link #expiry}. <code>null</code> if entities should never expire
+     * @see Expiry#afterWrite(long)
+     * @see Expiry#afterAccess(long)
      */
-    public void start() {
+    public void setExpiry(Expiry<K, T> expiry) {
         this.lock.writeLock().lock();
         try {
             checkNotRunning();
-            this.running = true;
 
-            /* Starts a cleanup thread, if required. */
-            if (this.cleanupInterval != null) {
-                this.cleanupThread = new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            while (!Thread.interrupted()) {
-                                Cache.this.lock.writeLock().lock();
-                                try {
-                                    /* It could have been interrupted while waiting for the lock. */
-                                    if (Thread.interrupted()) {
-                                        break;
-                                    }
-
-                                    doCleanup();
-                                } finally {
-                                    Cache.this.lock.writeLock().unlock();
-                                }
+            this.expiry = expiry;
 
-                                assert Cache.this.cleanupInterval != null;
-                                Thread.sleep(Cache.this.cleanupInterval);
-                            }
-                        } catch (InterruptedException e) {
-                            /* Allow thread to exit. */
-                        }
-                    }
-                }, "Cache cleanup");
-                this.cleanupThread.setPriority(Thread.MIN_PRIORITY);
-                this.cleanupThread.start();
-            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
 
-            /* Starts a reference cleanup thread (always). */
-            this.referencesCleanupThread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        while (!Thread.interrupted()) {
-                            Reference<? extends T> removed = Cache.this.referenceQueue.remove();
+    /**
+     * @return The {@link #refreshAfterWrite}
+     */
+    public Long getRefreshAfterWrite() {
+        return this.refreshAfterWrite;
+    }
 
-                            Cache.this.lock.writeLock().lock();
-                            try {
-                                /* It could have been interrupted while waiting for the lock. */
-                                if (Thread.interrupted()) {
-                                    break;
-                                }
+    /**
+     * Sets the {@link #refreshAfterWrite}.
+     * <p>
+     * Can only be called when the cache is not running.
+     * @param refreshAfterWrite New value for {@link #refreshAfterWrite}. Must be greater than zero
+     * @throws IllegalArgumentException If <code>refreshAfterWrite</code> is less or equal to zero
+     */
+    public void setRefreshAfterWrite(Long refreshAfterWrite) throws IllegalArgumentException {
+        this.lock.writeLock().lock();
+        try {
+            checkNotRunning();
 
-                                K key = Cache.this.keysByEntityReferenceMap.get(removed);
-                                if (key != null) {
-                                    Cache.this.entitiesMap.remove(key);
-                                }
-                            } finally {
-                                Cache.this.lock.writeLock().unlock();
-                            }
-                        }
-                    } catch (InterruptedException e) {
-                        /* Allow thread to exit. */
-                    }
-                }
-            }, "References cache cleanup");
-            this.referencesCleanupThread.start();
+            if (refreshAfterWrite != null && refreshAfterWrite <= 0) {
+                throw new IllegalArgumentException("refreshAfterWrite must either be null or greater than zero");
+            }
+            this.refreshAfterWrite = refreshAfterWrite;
 
         } finally {
             this.lock.writeLock().unlock();
@@ -256,27 +441,57 @@ public class Cache<K, T> implements CacheMetadata {
     }
 
     /**
-     * Stops this cache activity.
+     * @return The {@link #offHeapCapacity}
+     */
+    public Long getOffHeapCapacity() {
+        return this.offHeapCapacity;
+    }
+
+    /**
+     * @return The {@link #offHeapKeySerializer}
+     */
+    public Serializer<K> getOffHeapKeySerializer() {
+        return this.offHeapKeySerializer;
+    }
+
+    /**
+     * @return The {@link #serializer}
+     */
+    public Serializer<T> getSerializer() {
+        return this.serializer;
+    }
+
+    /**
+     * Sets the {@link #offHeapCapacity}, the {@link #offHeapKeySerializer} and the {@link #serializer}. The off-heap
+     * tier also requires a {@link #maximumSize} or a {@link #maximumWeight}, since only the evicted entities are moved
+     * there, and can not be used along with {@link #weakKeys}, since promoted keys would be compared by equality.
      * <p>
-     * Whatever extra thread started by this cache implementation will not be waited to stop here in order to simplify
-     * the lock operations. Anyway, it is guaranteed that after exiting this method, no operation will be executed by
-     * any of the created threads.
+     * Can only be called when the cache is not running.
+     * @param offHeapCapacity New value for {@link #offHeapCapacity}. Must be greater than zero
+     * @param keySerializer New value for {@link #offHeapKeySerializer}. Must be <code>null</code> only if
+     *            <code>offHeapCapacity</code> is
+     * @param serializer New value for {@link #serializer}. Must be <code>null</code> only if
+     *            <code>offHeapCapacity</code> is
+     * @throws IllegalArgumentException If <code>offHeapCapacity</code> is less or equal to zero or if only some of the
+     *             parameters are <code>null</code>
      */
-    public void stop() {
+    public void setOffHeapTier(Long offHeapCapacity, Serializer<K> keySerializer, Serializer<T> serializer)
+            throws IllegalArgumentException {
         this.lock.writeLock().lock();
         try {
-            checkRunning();
-            this.running = false;
-
-            /*
-             * Once interrupted, we are positive that the threads will stop. However, we can't call join because we are
-             * holding the lock.
-             */
-            this.cleanupThread.interrupt();
-            this.referencesCleanupThread.interrupt();
+            checkNotRunning();
 
-            this.keysByEntityReferenceMap.clear();
-            this.entitiesMap.clear();
+            if (offHeapCapacity != null && offHeapCapacity <= 0) {
+                throw new IllegalArgumentException("offHeapCapacity must either be null or greater than zero");
+            }
+            if ((offHeapCapacity == null) != (keySerializer == null)
+                    || (offHeapCapacity == null) != (serializer == null)) {
+                throw new IllegalArgumentException(
+                        "offHeapCapacity, keySerializer and serializer must be either all null or not");
+            }
+            this.offHeapCapacity = offHeapCapacity;
+            this.offHeapKeySerializer = keySerializer;
+            this.serializer = serializer;
 
         } finally {
             this.lock.writeLock().unlock();
@@ -284,75 +499,82 @@ public class Cache<K, T> implements CacheMetadata {
     }
 
     /**
-     * Gets an entity from the cache by its key.
-     * @param key Key of the desired entity
-     * @return The retrieved entity
-     * @throws Exception If there was an error when loading a new entity
-     * @see CacheLoader
-     * @see CacheMissBehaviour
+     * @return The {@link #snapshotFile}
      */
-    public T get(K key) throws Exception {
-        this.lock.updateLock().lock();
-        try {
-            checkRunning();
+    public Path getSnapshotFile() {
+        return this.snapshotFile;
+    }
 
-            CacheObject<T> cacheObject = this.entitiesMap.get(key);
-            if (cacheObject != null) {
-                T entity = cacheObject.getEntity(true);
-                if (entity != null) {
-                    /*
-                     * Guarantees that only maintained entities are returned. Otherwise, it will be removed on the next
-                     * cleanup.
-                     */
-                    if (this.cacheObjectMaintainer.isMaintainedByCache(entity, cacheObject, this)) {
-                        return entity;
-                    }
+    /**
+     * @return The {@link #snapshotKeySerializer}
+     */
+    public Serializer<K> getSnapshotKeySerializer() {
+        return this.snapshotKeySerializer;
+    }
 
-                } else if (this.cacheMissBehaviour == CacheMissBehaviour.LOAD_WHENEVER_NOT_AVAILABLE) {
-                    /* It might have been garbage collected. */
-                    return refresh(key);
-                }
+    /**
+     * @return The {@link #snapshotSerializer}
+     */
+    public Serializer<T> getSnapshotSerializer() {
+        return this.snapshotSerializer;
+    }
+
+    /**
+     * Sets the {@link #snapshotFile}, the {@link #snapshotKeySerializer} and the {@link #snapshotSerializer}. A
+     * snapshot can not be kept along with {@link #weakKeys}, since restored keys would be new instances.
+     * <p>
+     * Can only be called when the cache is not running.
+     * @param snapshotFile New value for {@link #snapshotFile}
+     * @param keySerializer New value for {@link #snapshotKeySerializer}. Must be <code>null</code> only if
+     *            <code>snapshotFile</code> is
+     * @param serializer New value for {@link #snapshotSerializer}. Must be <code>null</code> only if
+     *            <code>snapshotFile</code> is
+     * @throws IllegalArgumentException If only some of the parameters are <code>null</code>
+     */
+    public void setSnapshot(Path snapshotFile, Serializer<K> keySerializer, Serializer<T> serializer)
+            throws IllegalArgumentException {
+        this.lock.writeLock().lock();
+        try {
+            checkNotRunning();
 
-            } else if (this.cacheMissBehaviour == CacheMissBehaviour.LOAD_WHENEVER_NOT_AVAILABLE
-                    || this.cacheMissBehaviour == CacheMissBehaviour.LOAD_WHENEVER_NOT_AVAILABLE_BEFORE) {
-                return refresh(key);
+            if ((snapshotFile == null) != (keySerializer == null) || (snapshotFile == null) != (serializer == null)) {
+                throw new IllegalArgumentException("snapshotFile and its serializers must be either all null or not");
             }
-            return null;
+            this.snapshotFile = snapshotFile;
+            this.snapshotKeySerializer = keySerializer;
+            this.snapshotSerializer = serializer;
 
         } finally {
-            this.lock.updateLock().unlock();
+            this.lock.writeLock().unlock();
         }
     }
 
     /**
-     * Refresh an entity (or insert it, if not on cache already).
-     * @param key Key of the entity to refresh
-     * @return The refreshed entity
-     * @throws Exception If there was an error when loading a new entity
-     * @see CacheLoader
+     * @return <code>true</code> if the cache records statistics
+     * @see #stats()
      */
-    public T refresh(K key) throws Exception {
-        // TODO is it necessary to lock here? Couldn't be the write lock cause the operation can take too long (and it
-        // isn't necessary, actually).
-        T loadedEntity = this.cacheLoader.load(key);
+    public boolean isRecordStats() {
+        return this.statsCounter != null;
+    }
 
+    /**
+     * Enables (or disables) the statistics. When disabled, recording them costs a single <code>null</code> check per
+     * operation. Once enabled, they are kept even if the cache is restarted, and reset only by disabling them.
+     * <p>
+     * Can only be called when the cache is not running.
+     * @param recordStats <code>true</code> if the cache must record statistics
+     * @see #stats()
+     */
+    public void setRecordStats(boolean recordStats) {
         this.lock.writeLock().lock();
         try {
-            checkRunning();
-
-            if (this.entitiesMap.containsKey(key)) {
-                CacheObject<T> c = this.entitiesMap.get(key);
-
-                this.keysByEntityReferenceMap.remove(c.getEntityReference());
-                Reference<T> newReference = c.setEntity(loadedEntity);
-                this.keysByEntityReferenceMap.put(newReference, key);
+            checkNotRunning();
 
-            } else {
-                CacheObject<T> c = this.cacheObjectFactory.newCacheObject(loadedEntity, this.referenceQueue);
-                this.entitiesMap.put(key, c);
-                this.keysByEntityReferenceMap.put(c.getEntityReference(), key);
+            if (!recordStats) {
+                this.statsCounter = null;
+            } else if (this.statsCounter == null) {
+                this.statsCounter = new StatsCounter();
             }
-            return loadedEntity;
 
         } finally {
             this.lock.writeLock().unlock();
@@ -360,67 +582,2291 @@ public class Cache<K, T> implements CacheMetadata {
     }
 
     /**
-     * Remove all the entities that are no longer maintained by the cache.
-     * @see CacheObjectMaintainer
+     * @return The {@link #executor}
      */
-    public void cleanup() {
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Sets the {@link #executor}.
+     * <p>
+     * Can only be called when the cache is not running.
+     * @param executor New value for {@link #executor}. Must not be <code>null</code>
+     * @throws IllegalArgumentException If <code>executor</code> is <code>null</code>
+     */
+    public void setExecutor(Executor executor) throws IllegalArgumentException {
         this.lock.writeLock().lock();
         try {
-            checkRunning();
+            checkNotRunning();
+
+            if (executor == null) {
+                throw new IllegalArgumentException("executor must not be null");
+            }
+            this.executor = executor;
 
-            doCleanup();
         } finally {
             this.lock.writeLock().unlock();
         }
     }
 
-    @Override
-    public int size() {
+    /**
+     * @return The {@link #weakKeys}
+     */
+    public boolean isWeakKeys() {
+        return this.weakKeys;
+    }
+
+    /**
+     * Sets the {@link #weakKeys}.
+     * <p>
+     * Can only be called when the cache is not running.
+     * @param weakKeys New value for {@link #weakKeys}
+     */
+    public void setWeakKeys(boolean weakKeys) {
         this.lock.writeLock().lock();
         try {
-            checkRunning();
+            checkNotRunning();
+
+            this.weakKeys = weakKeys;
 
-            doCleanup();
-            return this.entitiesMap.size();
         } finally {
             this.lock.writeLock().unlock();
         }
     }
 
     /**
-     * Remove the entities that are no longer maintained by the cache.
+     * Starts this cache activity.
      * <p>
-     * You may only call this method when holding a write-lock.
-     * @see CacheObjectMaintainer
+     * When called, this method may start at most four threads. One will be started only if {@link #cleanupInterval}
+     * is defined and call {@link #cleanup()} periodically. Another will be started only if {@link #expiry} is defined
+     * and remove the expired entities every {@value #EXPIRATION_INTERVAL} milliseconds. Another will be started unless
+     * both entities and keys are strongly referenced, to clean any useless references left by the garbage collector.
+     * The last will be started only if {@link #invalidationBus} is defined, to publish the invalidations. All threads
+     * will stop whenever {@link #stop()} is called.
+     * <p>
+     * If a {@link #snapshotFile} exists, it is mapped, but the entities are only restored when first requested, through
+     * the index saved along with them. So a large snapshot does not keep the cache from starting. A snapshot that can
+     * not be read is ignored, and the cache simply starts empty.
+     * @throws IllegalStateException If the cache is already running, if it has an {@link #offHeapCapacity} but neither
+     *             a {@link #maximumSize} nor a {@link #maximumWeight}, or if it has either an {@link #offHeapCapacity}
+     *             or a {@link #snapshotFile} along with {@link #weakKeys}
+     * @throws RuntimeException If the {@link #invalidationBus} fails to subscribe the cache or the
+     *             {@link #metricsExporter} fails to register it, in which case the cache is left stopped
      */
-    private void doCleanup() {
-        /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+    public void start() throws IllegalStateException {
+        this.lock.writeLock().lock();
+        try {
+            checkNotRunning();
 
-        for (Iterator<Entry<K, CacheObject<T>>> it = this.entitiesMap.entrySet().iterator(); it.hasNext();) {
-            CacheObject<T> c = it.next().getValue();
+            Long maximum = this.maximumSize != null ? this.maximumSize : this.maximumWeight;
+            if (this.offHeapCapacity != null) {
+                if (maximum == null) {
+                    throw new IllegalStateException("offHeapCapacity requires either maximumSize or maximumWeight");
+                }
+                if (this.weakKeys) {
+                    throw new IllegalStateException("offHeapCapacity can not be used along with weakKeys");
+                }
+            }
+            if (this.snapshotFile != null && this.weakKeys) {
+                throw new IllegalStateException("snapshotFile can not be used along with weakKeys");
+            }
 
-            T entity = c.getEntity(false);
-            if (entity == null || !this.cacheObjectMaintainer.isMaintainedByCache(entity, c, this)) {
-                it.remove();
+            if (this.offHeapCapacity != null) {
+                this.offHeapStore = new OffHeapStore(this.offHeapCapacity);
             }
-        }
-    }
+            if (this.snapshotFile != null) {
+                /* Waits for the snapshot that the previous stop may still be writing. */
+                this.snapshotLock.lock();
+                try {
+                    this.snapshot = Snapshot.open(this.snapshotFile, this.snapshotKeySerializer, this.executor);
+                } catch (IOException e) {
+                    /* Unreadable snapshot: starts empty. */
+                    this.snapshot = null;
+                } finally {
+                    this.snapshotLock.unlock();
+                }
+            }
+            long currentTime = CacheClock.currentTimeMillis();
+            /* Every segment must be able to hold something, so there are never more segments than the maximum. */
+            int segmentCount = this.concurrencyLevel;
+            if (maximum != null && maximum < segmentCount) {
+                segmentCount = (int) Long.highestOneBit(maximum);
+            }
+            final List<Segment> segments = new ArrayList<>(segmentCount);
+            for (int i = 0; i < segmentCount; i++) {
+                Long segmentMaximum = null;
+                if (maximum != null) {
+                    /* Splits the maximum evenly. */
+                    long remainder = maximum % segmentCount;
+                    segmentMaximum = maximum / segmentCount + (i < remainder ? 1L : 0L);
+                }
+                segments.add(new Segment(segmentMaximum, this.expiry != null ? currentTime : null));
+            }
+            boolean subscribed = false;
+            try {
+                if (this.invalidationBus != null) {
+                    this.invalidationBus.subscribe(this.invalidationSubscriber);
+                    subscribed = true;
+                }
+                this.segments = segments;
+                this.running = true;
 
-    /**
-     * @throws IllegalStateException If the cache is NOT running
-     */
-    private void checkRunning() {
-        if (!this.running) {
-            throw new IllegalStateException("Cache is not running.");
-        }
-    }
+                /* The exporter may already read the metrics, so the cache is registered once running. */
+                if (this.metricsExporter != null) {
+                    this.metricsExporter.register(this.metricsName, this);
+                }
+            } catch (RuntimeException e) {
+                this.running = false;
+                if (subscribed) {
+                    this.invalidationBus.unsubscribe(this.invalidationSubscriber);
+                }
+                if (this.offHeapStore != null) {
+                    this.offHeapStore.clear();
+                    this.offHeapStore = null;
+                }
+                if (this.snapshot != null) {
+                    this.snapshot.close();
+                    this.snapshot = null;
+                }
+                throw e;
+            }
 
-    /**
-     * @throws IllegalStateException If the cache is running
-     */
-    private void checkNotRunning() {
-        if (this.running) {
-            throw new IllegalStateException("Cache is already running.");
+            /* Starts a cleanup thread, if required. */
+            if (this.cleanupInterval != null) {
+                this.cleanupThread = startThread("Cache cleanup", Thread.MIN_PRIORITY, () -> {
+                    long cleanupStartTime = statsTime();
+                    long lockTime = 0L;
+
+                    /* Segments are cleaned up one at a time, releasing their locks between slices. */
+                    for (Segment segment : segments) {
+                        boolean finished = false;
+                        while (!finished) {
+                            segment.lockForWrite();
+                            long lockStartTime = statsTime();
+                            try {
+                                /* It could have been interrupted while waiting for the lock. */
+                                if (Thread.interrupted()) {
+                                    throw new InterruptedException();
+                                }
+
+                                finished = segment.doCleanupSlice(getCleanupSliceLimit());
+                            } finally {
+                                lockTime += statsTime() - lockStartTime;
+                                segment.unlockForWrite();
+                            }
+                        }
+                    }
+                    recordCleanup(cleanupStartTime, lockTime);
+
+                    assert Cache.this.cleanupInterval != null;
+                    Thread.sleep(Cache.this.cleanupInterval);
+                });
+            }
+
+            /* Starts an expiration thread, if required. */
+            if (this.expiry != null) {
+                this.expirationThread = startThread("Cache expiration", Thread.MIN_PRIORITY, () -> {
+                    for (Segment segment : segments) {
+                        segment.lockForWrite();
+                        try {
+                            /* It could have been interrupted while waiting for the lock. */
+                            if (Thread.interrupted()) {
+                                throw new InterruptedException();
+                            }
+
+                            segment.doExpire();
+                        } finally {
+                            segment.unlockForWrite();
+                        }
+                    }
+
+                    Thread.sleep(EXPIRATION_INTERVAL);
+                });
+            }
+
+            /* Starts a reference cleanup thread, unless nothing is weakly (or softly) referenced. */
+            if (this.valueStrength != ReferenceStrength.STRONG || this.weakKeys) {
+                this.referencesCleanupThread = startThread("References cache cleanup", Thread.NORM_PRIORITY, () -> {
+                    Reference<?> removed = Cache.this.referenceQueue.remove();
+
+                    Object key;
+                    if (removed instanceof WeakKey) {
+                        /* A collected key is the key of its own entry. */
+                        key = removed;
+                    } else {
+                        /* The reference knows its cache object, which knows its key. */
+                        key = ((EntityReference<?>) removed).getCacheObject().getKey();
+                        if (key == null) {
+                            /* Collected before being inserted: left for the cleanup. */
+                            return;
+                        }
+                    }
+
+                    Segment segment = segmentFor(key);
+                    segment.lockForWrite();
+                    try {
+                        /* It could have been interrupted while waiting for the lock. */
+                        if (Thread.interrupted()) {
+                            throw new InterruptedException();
+                        }
+
+                        segment.removeCollected(key, removed);
+                    } finally {
+                        segment.unlockForWrite();
+                    }
+                });
+            }
+
+            /* Starts an invalidation thread, if required. */
+            if (this.invalidationBus != null) {
+                final InvalidationBus<K> invalidationBus = this.invalidationBus;
+                this.invalidationThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        K key = null;
+                        try {
+                            while (!Thread.interrupted()) {
+                                key = Cache.this.pendingInvalidations.take();
+
+                                /* Gathers the invalidations of the window, so that they are published together. */
+                                Thread.sleep(Cache.this.invalidationWindow);
+                                publishInvalidations(invalidationBus, key);
+                                key = null;
+                            }
+                        } catch (InterruptedException e) {
+                            /* Allow thread to exit, but not before publishing the invalidation already taken. */
+                            if (key != null) {
+                                publishInvalidations(invalidationBus, key);
+                            }
+                        }
+                    }
+                }, "Cache invalidation");
+                this.invalidationThread.start();
+            }
+
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops this cache activity.
+     * <p>
+     * Whatever extra thread started by this cache implementation will not be waited to stop here in order to simplify
+     * the lock operations. Anyway, it is guaranteed that after exiting this method, no operation will be executed by
+     * any of the created threads.
+     * <p>
+     * If a {@link #snapshotFile} is defined, the entities are saved there along with the ones of the previous snapshot
+     * that were not restored yet. They are only collected while holding the locks, and serialized once released.
+     * <p>
+     * The invalidations not published yet to the {@link #invalidationBus} are published before this method returns,
+     * once the locks are released. This is the only thread this method waits for.
+     * @throws UncheckedIOException If the snapshot could not be saved. The cache is stopped anyway
+     * @throws RuntimeException If the {@link #metricsExporter} fails to unregister the cache, which is then left
+     *             running
+     */
+    public void stop() throws UncheckedIOException {
+        IOException snapshotError = null;
+        Thread invalidationThread = null;
+        List<CacheObject<T>> savedObjects = null;
+        Snapshot previousSnapshot = null;
+        this.lock.writeLock().lock();
+        try {
+            checkRunning();
+
+            if (this.metricsExporter != null) {
+                this.metricsExporter.unregister(this.metricsName, this);
+            }
+
+            /* Waits for the operations in progress in every segment. */
+            for (Segment segment : this.segments) {
+                segment.lock.writeLock().lock();
+            }
+            this.running = false;
+
+            /*
+             * Once interrupted, we are positive that the threads will stop. However, we can't call join because we are
+             * holding the lock.
+             */
+            interruptThreads();
+            if (this.expirationThread != null) {
+                this.expirationThread.interrupt();
+                this.expirationThread = null;
+            }
+            if (this.invalidationThread != null) {
+                invalidationThread = this.invalidationThread;
+                invalidationThread.interrupt();
+                this.invalidationThread = null;
+            }
+            if (this.invalidationBus != null) {
+                this.invalidationBus.unsubscribe(this.invalidationSubscriber);
+            }
+
+            /* Only collected here: the entities are serialized once the locks are released. */
+            if (this.snapshotFile != null) {
+                savedObjects = new ArrayList<>();
+                for (Segment segment : this.segments) {
+                    segment.entities.forEach(savedObjects::add);
+                }
+                previousSnapshot = this.snapshot;
+                this.snapshot = null;
+                this.snapshotLock.lock();
+            }
+
+            for (Segment segment : this.segments) {
+                segment.clear();
+                segment.lock.writeLock().unlock();
+            }
+            if (this.offHeapStore != null) {
+                this.offHeapStore.clear();
+                this.offHeapStore = null;
+            }
+
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        if (savedObjects != null) {
+            try {
+                writeSnapshot(savedObjects, previousSnapshot);
+            } catch (IOException e) {
+                snapshotError = e;
+            } finally {
+                if (previousSnapshot != null) {
+                    previousSnapshot.close();
+                }
+                this.snapshotLock.unlock();
+            }
+        }
+
+        if (invalidationThread != null) {
+            /*
+             * Waits for the invalidation it may be publishing, and publishes the remaining ones. Without holding any
+             * lock, since the other caches lock their own segments to apply them.
+             */
+            boolean interrupted = false;
+            while (invalidationThread.isAlive()) {
+                try {
+                    invalidationThread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            publishInvalidations(this.invalidationBus, null);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (snapshotError != null) {
+            throw new UncheckedIOException("could not save the snapshot to " + this.snapshotFile, snapshotError);
+        }
+    }
+
+    /**
+     * Saves entities to the {@link #snapshotFile}, replacing the previous snapshot. The entities expired or collected
+     * by the GC meanwhile are not saved.
+     * <p>
+     * Must never be called while holding a lock of the cache, since every entity is serialized here.
+     * @param cacheObjects The {@link CacheObject}s holding the entities, which are no longer in the cache
+     * @param previousSnapshot The snapshot opened when the cache started, whose entities not restored yet are saved as
+     *            well. <code>null</code> if there is none
+     * @throws IOException If the snapshot could not be saved
+     */
+    @SuppressWarnings("unchecked")
+    private void writeSnapshot(List<CacheObject<T>> cacheObjects, Snapshot previousSnapshot) throws IOException {
+        long currentTime = CacheClock.currentTimeMillis();
+        try (Snapshot.Writer writer = new Snapshot.Writer(this.snapshotFile)) {
+            ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+            for (CacheObject<T> c : cacheObjects) {
+                T entity = c.getEntity(false);
+                if (entity == null || c.getExpirationTime() <= currentTime) {
+                    continue;
+                }
+
+                byte[] keyBytes;
+                byte[] entityBytes;
+                try {
+                    /* Keys are never weak here, so the map keys are the keys themselves. */
+                    keyBytes = this.snapshotKeySerializer.serialize((K) c.getKey());
+                    entityBytes = this.snapshotSerializer.serialize(entity);
+                } catch (RuntimeException e) {
+                    /* Not serializable: not saved. */
+                    continue;
+                }
+                metadata.reset();
+                c.writeMetadata(new DataOutputStream(metadata));
+                writer.write(keyBytes, c.getExpirationTime(), metadata.toByteArray(), entityBytes);
+            }
+            /* The entities not requested since the last start are kept for the next one. */
+            if (previousSnapshot != null) {
+                previousSnapshot.writeTo(writer, currentTime);
+            }
+            writer.commit();
+        }
+    }
+
+    /**
+     * Gets an entity from the cache by its key.
+     * @param key Key of the desired entity
+     * @return The retrieved entity
+     * @throws Exception If there was an error when loading a new entity
+     * @see CacheLoader
+     * @see CacheMissBehaviour
+     */
+    public T get(K key) throws Exception {
+        checkRunning();
+
+        /* Hit path: both the map and the cache object metadata are thread-safe, so no lock is needed. */
+        Object lookupKey = lookupKey(key);
+        Segment segment = segmentFor(lookupKey);
+        CacheObject<T> cacheObject = segment.getUnexpired(lookupKey);
+        if (cacheObject != null) {
+            T entity = cacheObject.getEntity(true);
+            if (entity != null) {
+                /*
+                 * Guarantees that only maintained entities are returned. Otherwise, it will be removed on the next
+                 * cleanup.
+                 */
+                if (this.cacheObjectMaintainer.isMaintainedByCache(entity, cacheObject, this)) {
+                    segment.afterHit(key, lookupKey, cacheObject, entity);
+                    return entity;
+                }
+                recordMiss();
+                return null;
+            }
+        }
+
+        recordMiss();
+        if (!mustLoadOnMiss(cacheObject)) {
+            return null;
+        }
+        return waitForLoad(load(key, true, false));
+    }
+
+    /**
+     * Same as {@link #get(Object)}, but never blocks the caller. If the entity must be loaded, the load runs on the
+     * {@link #executor}.
+     * @param key Key of the desired entity
+     * @return A {@link CompletableFuture} completed with the retrieved entity, or completed exceptionally if there was
+     *         an error when loading a new entity
+     * @see AsyncCacheLoader
+     * @see CacheMissBehaviour
+     */
+    public CompletableFuture<T> getAsync(K key) {
+        checkRunning();
+
+        Object lookupKey = lookupKey(key);
+        Segment segment = segmentFor(lookupKey);
+        CacheObject<T> cacheObject = segment.getUnexpired(lookupKey);
+        if (cacheObject != null) {
+            T entity = cacheObject.getEntity(true);
+            if (entity != null) {
+                if (this.cacheObjectMaintainer.isMaintainedByCache(entity, cacheObject, this)) {
+                    segment.afterHit(key, lookupKey, cacheObject, entity);
+                    return CompletableFuture.completedFuture(entity);
+                }
+                recordMiss();
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+
+        recordMiss();
+        if (!mustLoadOnMiss(cacheObject)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return load(key, true, true);
+    }
+
+    /**
+     * Gets several entities from the cache by their keys.
+     * <p>
+     * All the entities that must be loaded are loaded together, with a single call to {@link CacheLoader#loadAll(Set)}
+     * when the loader supports it, and inserted in the cache at once.
+     * @param keys Keys of the desired entities
+     * @return The retrieved entities by their keys. Keys for which no entity was retrieved are left out of the map
+     * @throws Exception If there was an error when loading the new entities
+     * @see CacheLoader
+     * @see CacheMissBehaviour
+     */
+    public Map<K, T> getAll(Collection<K> keys) throws Exception {
+        checkRunning();
+
+        Map<K, T> entities = new LinkedHashMap<>();
+        Set<K> keysToLoad = new LinkedHashSet<>();
+        for (K key : keys) {
+            Object lookupKey = lookupKey(key);
+            Segment segment = segmentFor(lookupKey);
+            CacheObject<T> cacheObject = segment.getUnexpired(lookupKey);
+            if (cacheObject != null) {
+                T entity = cacheObject.getEntity(true);
+                if (entity != null) {
+                    if (this.cacheObjectMaintainer.isMaintainedByCache(entity, cacheObject, this)) {
+                        segment.afterHit(key, lookupKey, cacheObject, entity);
+                        entities.put(key, entity);
+                    } else {
+                        recordMiss();
+                    }
+                    continue;
+                }
+            }
+
+            recordMiss();
+            if (mustLoadOnMiss(cacheObject)) {
+                keysToLoad.add(key);
+            }
+        }
+
+        if (!keysToLoad.isEmpty()) {
+            entities.putAll(loadAll(keysToLoad, true));
+        }
+        return entities;
+    }
+
+    /**
+     * Refresh an entity (or insert it, if not on cache already).
+     * <p>
+     * If there is already a load in progress for the same key, this method waits for it and returns its result instead
+     * of calling the {@link CacheLoader} again.
+     * @param key Key of the entity to refresh
+     * @return The refreshed entity
+     * @throws Exception If there was an error when loading a new entity
+     * @see CacheLoader
+     */
+    public T refresh(K key) throws Exception {
+        return waitForLoad(load(key, false, false));
+    }
+
+    /**
+     * Same as {@link #refresh(Object)}, but never blocks the caller. The load runs on the {@link #executor}.
+     * @param key Key of the entity to refresh
+     * @return A {@link CompletableFuture} completed with the refreshed entity, or completed exceptionally if there was
+     *         an error when loading a new entity
+     * @see AsyncCacheLoader
+     */
+    public CompletableFuture<T> refreshAsync(K key) {
+        return load(key, false, true);
+    }
+
+    /**
+     * Refresh several entities (or insert them, if not on cache already). They are loaded together, with a single call
+     * to {@link CacheLoader#loadAll(Set)} when the loader supports it, and inserted in the cache at once.
+     * @param keys Keys of the entities to refresh
+     * @return The refreshed entities by their keys. Keys for which no entity was loaded are left out of the map
+     * @throws Exception If there was an error when loading the new entities
+     * @see CacheLoader
+     */
+    public Map<K, T> refreshAll(Collection<K> keys) throws Exception {
+        return loadAll(new LinkedHashSet<>(keys), false);
+    }
+
+    /**
+     * Inserts (or replaces) an entity without calling the {@link #cacheLoader}, for example right after writing it to
+     * the database. The entity is handled as if it had just been loaded: it is put in the {@link #cacheStore} as well,
+     * and the caches of the other nodes are told to drop their copies through the {@link #invalidationBus}.
+     * @param key Key of the entity
+     * @param entity The entity
+     * @throws IllegalArgumentException If <code>entity</code> is <code>null</code> (see {@link #invalidate(Object)}
+     *             instead)
+     */
+    public void put(K key, T entity) throws IllegalArgumentException {
+        checkRunning();
+
+        if (entity == null) {
+            throw new IllegalArgumentException("entity can not be null");
+        }
+        insert(key, entity, Long.MAX_VALUE, null);
+        afterWrite(key, entity);
+    }
+
+    /**
+     * Atomically computes a new entity from the cached one, without calling the {@link #cacheLoader}. The function is
+     * called while holding the write-lock of the key's segment, so it must be short and must not use this cache.
+     * <p>
+     * The new entity is then handled as in {@link #put(Object, Object)}. If it is <code>null</code>, the entity is
+     * handled as in {@link #invalidate(Object)} instead.
+     * @param key Key of the entity
+     * @param remappingFunction Computes the new entity from the key and the cached entity, which is
+     *            <code>null</code> if there is none (entities moved to the off-heap tier or still in the snapshot are
+     *            not considered)
+     * @return The new entity. <code>null</code> if it was removed
+     */
+    public T compute(K key, BiFunction<? super K, ? super T, ? extends T> remappingFunction) {
+        checkRunning();
+
+        Object lookupKey = lookupKey(key);
+        Segment segment = segmentFor(lookupKey);
+        T entity;
+        segment.lockForWrite();
+        try {
+            checkRunning();
+
+            CacheObject<T> cacheObject = segment.getUnexpired(lookupKey);
+            T cachedEntity = cacheObject != null ? cacheObject.getEntity(false) : null;
+            if (cachedEntity != null
+                    && !this.cacheObjectMaintainer.isMaintainedByCache(cachedEntity, cacheObject, this)) {
+                /* Already on its way out: handled as if it were not on cache, same as get(). */
+                cachedEntity = null;
+            }
+
+            entity = remappingFunction.apply(key, cachedEntity);
+            if (entity != null) {
+                segment.doInsert(key, entity, Long.MAX_VALUE, null);
+            } else {
+                segment.doInvalidate(lookupKey);
+            }
+        } finally {
+            segment.unlockForWrite();
+        }
+        afterWrite(key, entity);
+        return entity;
+    }
+
+    /**
+     * Atomically inserts an entity or merges it with the cached one, without calling the {@link #cacheLoader}. Same as
+     * {@link #compute(Object, BiFunction)}, but the function is only called if there is a cached entity.
+     * @param key Key of the entity
+     * @param entity The entity to insert, or to merge with the cached one
+     * @param remappingFunction Computes the new entity from the cached entity and the given one
+     * @return The new entity. <code>null</code> if it was removed
+     * @throws IllegalArgumentException If <code>entity</code> is <code>null</code>
+     */
+    public T merge(K key, T entity, BiFunction<? super T, ? super T, ? extends T> remappingFunction)
+            throws IllegalArgumentException {
+        if (entity == null) {
+            throw new IllegalArgumentException("entity can not be null");
+        }
+        return compute(key, (k, cachedEntity) -> cachedEntity != null ? remappingFunction.apply(cachedEntity, entity)
+                : entity);
+    }
+
+    /**
+     * Invalidates an entity: it is removed from the cache (and from the {@link #cacheStore}), and the invalidation is
+     * published to the caches of the other nodes through the {@link #invalidationBus}. It is loaded again when next
+     * requested.
+     * @param key Key of the entity to invalidate
+     */
+    public void invalidate(K key) {
+        invalidateAll(Collections.singleton(key));
+    }
+
+    /**
+     * Same as {@link #invalidate(Object)}, but for several entities at once. The entities of each segment are removed
+     * with a single lock acquisition, and the invalidations are published together.
+     * @param keys Keys of the entities to invalidate
+     */
+    public void invalidateAll(Collection<K> keys) {
+        checkRunning();
+
+        invalidateLocally(keys);
+        CacheStore<K, T> cacheStore = this.cacheStore;
+        if (cacheStore != null) {
+            try {
+                cacheStore.invalidateAll(Collections.unmodifiableCollection(keys));
+            } catch (Exception e) {
+                /* The store is best-effort: it may keep serving the entities until they are loaded again. */
+            }
+        }
+        if (this.invalidationBus != null) {
+            this.pendingInvalidations.addAll(keys);
+        }
+    }
+
+    /**
+     * Removes every entity from the cache, including the ones in the off-heap tier and in the snapshot. Unlike
+     * {@link #invalidateAll(Collection)}, it only affects this cache: neither the {@link #cacheStore} nor the caches of
+     * the other nodes are touched.
+     */
+    public void invalidateAll() {
+        checkRunning();
+
+        for (Segment segment : this.segments) {
+            segment.lockForWrite();
+            try {
+                segment.doInvalidateAll();
+            } finally {
+                segment.unlockForWrite();
+            }
+        }
+        if (this.offHeapStore != null) {
+            this.offHeapStore.clear();
+        }
+        if (this.snapshot != null) {
+            this.snapshot.clear();
+        }
+    }
+
+    /**
+     * Puts a written entity in the {@link #cacheStore} and queues its invalidation for the caches of the other nodes.
+     * @param key Key of the entity
+     * @param entity The written entity. <code>null</code> if it was removed
+     */
+    private void afterWrite(K key, T entity) {
+        store(key, entity);
+        if (this.invalidationBus != null) {
+            this.pendingInvalidations.add(key);
+        }
+    }
+
+    /**
+     * Removes entities from this cache only, grouping them by segment so that each segment is locked once. Also
+     * applies the invalidations received from the {@link #invalidationBus}.
+     * @param keys Keys of the entities to remove
+     */
+    private void invalidateLocally(Collection<K> keys) {
+        if (!this.running) {
+            /* Received while stopping. */
+            return;
+        }
+
+        Map<Segment, List<Object>> lookupKeysBySegment = new LinkedHashMap<>();
+        for (K key : keys) {
+            Object lookupKey = lookupKey(key);
+            lookupKeysBySegment.computeIfAbsent(segmentFor(lookupKey), segment -> new ArrayList<>()).add(lookupKey);
+        }
+        for (Entry<Segment, List<Object>> lookupKeys : lookupKeysBySegment.entrySet()) {
+            Segment segment = lookupKeys.getKey();
+            segment.lockForWrite();
+            try {
+                for (Object lookupKey : lookupKeys.getValue()) {
+                    segment.doInvalidate(lookupKey);
+                }
+            } finally {
+                segment.unlockForWrite();
+            }
+        }
+    }
+
+    /**
+     * Publishes the {@link #pendingInvalidations} to the {@link #invalidationBus}, each key once, in batches of at
+     * most {@value #INVALIDATION_BATCH_SIZE} keys. Errors of the bus are ignored.
+     * @param invalidationBus The {@link #invalidationBus}
+     * @param firstKey A key already taken from the pending invalidations. May be <code>null</code>
+     */
+    private void publishInvalidations(InvalidationBus<K> invalidationBus, K firstKey) {
+        Set<K> keys = new LinkedHashSet<>();
+        K key = firstKey != null ? firstKey : this.pendingInvalidations.poll();
+        while (key != null) {
+            keys.add(key);
+            key = this.pendingInvalidations.poll();
+            if (key == null || keys.size() == INVALIDATION_BATCH_SIZE) {
+                try {
+                    invalidationBus.publish(this.invalidationSubscriber, Collections.unmodifiableSet(keys));
+                } catch (RuntimeException e) {
+                    /* Lost: the other nodes keep the entities until they are refreshed or removed. */
+                }
+                keys = new LinkedHashSet<>();
+            }
+        }
+    }
+
+    /**
+     * @param key A key
+     * @return The key to look it up in the maps: the key itself or, if the cache has {@link #weakKeys}, a lookup that
+     *         compares it by identity
+     * @see WeakKey
+     */
+    private Object lookupKey(K key) {
+        return this.weakKeys ? new WeakKey.Lookup<>(key) : key;
+    }
+
+    /**
+     * @param key The lookup key (or the key as stored in the map)
+     * @return The {@link Segment} that holds the key. The hash code is mixed before selecting it, so that the segments
+     *         and the maps inside them do not depend on the same bits of the hash code
+     */
+    private Segment segmentFor(Object key) {
+        List<Segment> segments = this.segments;
+        int hash = key.hashCode() * 0x9e3779b9;
+        return segments.get((hash >>> 16) & (segments.size() - 1));
+    }
+
+    /**
+     * @param currentTime The current time, in milliseconds
+     * @param duration A duration, in milliseconds
+     * @return The time when the duration ends, or {@link Long#MAX_VALUE} if it overflows
+     */
+    private static long expirationTime(long currentTime, long duration) {
+        return duration >= Long.MAX_VALUE - currentTime ? Long.MAX_VALUE : currentTime + Math.max(duration, 0L);
+    }
+
+    /**
+     * Loads an entity and inserts it in the cache, making sure that there is at most one load in progress per key.
+     * Concurrent callers for the same key share the same load, while loads for different keys run in parallel.
+     * <p>
+     * A blocking {@link CacheLoader} is called on the caller's thread, unless <code>async</code> is set.
+     * @param key Key of the entity to load
+     * @param reuseCached <code>true</code> if an entity inserted by another thread in the meantime may be returned
+     *            instead of loading it again
+     * @param async <code>true</code> if the caller must not be blocked by the load
+     * @return The {@link CompletableFuture} completed once the entity is loaded and inserted in the cache
+     */
+    private CompletableFuture<T> load(K key, boolean reuseCached, boolean async) {
+        Object lookupKey = lookupKey(key);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<T> loadInProgress = this.loadsInProgress.putIfAbsent(lookupKey, future);
+        if (loadInProgress != null) {
+            return loadInProgress;
+        }
+
+        long loadStartTime = statsTime();
+        try {
+            if (reuseCached) {
+                /* Another thread may have finished loading it right before we registered our load. */
+                CacheObject<T> cacheObject = segmentFor(lookupKey).getUnexpired(lookupKey);
+                T entity = cacheObject != null ? cacheObject.getEntity(false) : null;
+                if (entity != null && this.cacheObjectMaintainer.isMaintainedByCache(entity, cacheObject, this)) {
+                    this.loadsInProgress.remove(lookupKey, future);
+                    future.complete(entity);
+                    return future;
+                }
+
+                if (promote(key, lookupKey, future) || restore(key, lookupKey, future)) {
+                    return future;
+                }
+            }
+
+            loadStartTime = statsTime();
+            if (!async && this.cacheLoader instanceof CacheLoader) {
+                completeLoad(key, future, loadEntity(key, reuseCached), null, loadStartTime);
+            } else {
+                long startTime = loadStartTime;
+                asyncLoadEntity(key, reuseCached).whenComplete(
+                        (loadedEntity, error) -> completeLoad(key, future, loadedEntity, error, startTime));
+            }
+        } catch (Throwable e) {
+            completeLoad(key, future, null, e, loadStartTime);
+        }
+        return future;
+    }
+
+    /**
+     * Same as {@link #load(Object, boolean, boolean)}, but for several keys at once. Keys that are already being loaded
+     * by other threads are waited for, and the remaining ones are loaded in a single batch.
+     * <p>
+     * If the loader does not support batches, the keys are loaded in parallel on the {@link #executor} instead.
+     * @param keys Keys of the entities to load
+     * @param reuseCached <code>true</code> if entities inserted by other threads in the meantime may be returned
+     *            instead of loading them again
+     * @return The loaded entities by their keys. Keys for which no entity was loaded are left out of the map
+     * @throws Exception If there was an error when loading the entities
+     */
+    private Map<K, T> loadAll(Set<K> keys, boolean reuseCached) throws Exception {
+        Map<K, CompletableFuture<T>> loads = new LinkedHashMap<>();
+        Map<K, CompletableFuture<T>> ownLoads = new LinkedHashMap<>();
+        for (K key : keys) {
+            Object lookupKey = lookupKey(key);
+            CompletableFuture<T> future = new CompletableFuture<>();
+            CompletableFuture<T> loadInProgress = this.loadsInProgress.putIfAbsent(lookupKey, future);
+            if (loadInProgress != null) {
+                loads.put(key, loadInProgress);
+                continue;
+            }
+            loads.put(key, future);
+
+            if (reuseCached) {
+                /* Another thread may have finished loading it right before we registered our load. */
+                CacheObject<T> cacheObject = segmentFor(lookupKey).getUnexpired(lookupKey);
+                T entity = cacheObject != null ? cacheObject.getEntity(false) : null;
+                if (entity != null && this.cacheObjectMaintainer.isMaintainedByCache(entity, cacheObject, this)) {
+                    this.loadsInProgress.remove(lookupKey, future);
+                    future.complete(entity);
+                    continue;
+                }
+
+                if (promote(key, lookupKey, future) || restore(key, lookupKey, future)) {
+                    continue;
+                }
+            }
+            ownLoads.put(key, future);
+        }
+
+        if (reuseCached && this.cacheStore != null && !ownLoads.isEmpty()) {
+            /* The entities already loaded by other nodes are taken from the store, in a single batch. */
+            long loadStartTime = statsTime();
+            Map<K, CompletableFuture<T>> storedLoads = new LinkedHashMap<>();
+            Map<K, T> storedEntities = getStored(ownLoads.keySet());
+            for (Entry<K, T> storedEntity : storedEntities.entrySet()) {
+                CompletableFuture<T> future = ownLoads.get(storedEntity.getKey());
+                if (future != null && storedEntity.getValue() != null) {
+                    ownLoads.remove(storedEntity.getKey());
+                    storedLoads.put(storedEntity.getKey(), future);
+                }
+            }
+            if (!storedLoads.isEmpty()) {
+                completeLoads(storedLoads, storedEntities, null, loadStartTime);
+            }
+        }
+
+        if (!ownLoads.isEmpty()) {
+            if (this.batchLoads) {
+                long loadStartTime = statsTime();
+                try {
+                    completeLoads(ownLoads, loadEntities(ownLoads.keySet()), null, loadStartTime);
+                } catch (Throwable e) {
+                    completeLoads(ownLoads, null, e, loadStartTime);
+                }
+
+            } else {
+                /* Batches not supported, falls back to parallel loads. */
+                for (Entry<K, CompletableFuture<T>> ownLoad : ownLoads.entrySet()) {
+                    K key = ownLoad.getKey();
+                    CompletableFuture<T> future = ownLoad.getValue();
+                    long loadStartTime = statsTime();
+                    try {
+                        asyncLoadEntity(key, false).whenComplete(
+                                (loadedEntity, error) -> completeLoad(key, future, loadedEntity, error, loadStartTime));
+                    } catch (Throwable e) {
+                        completeLoad(key, future, null, e, loadStartTime);
+                    }
+                }
+            }
+        }
+
+        Map<K, T> entities = new LinkedHashMap<>();
+        for (Entry<K, CompletableFuture<T>> load : loads.entrySet()) {
+            T entity = waitForLoad(load.getValue());
+            if (entity != null) {
+                entities.put(load.getKey(), entity);
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Loads an entity with the blocking {@link CacheLoader}, unless it is found in the {@link #cacheStore}. The loaded
+     * entity is put in the store, so that the other nodes do not load it again.
+     * @param key Key of the entity to load
+     * @param useStored <code>true</code> if the entity in the store may be returned instead of loading it. Refreshes
+     *            do not use it, since it may be as old as the cached one
+     * @return The loaded entity or <code>null</code> if it does not exist
+     * @throws Exception If there was an error when loading the entity
+     */
+    @SuppressWarnings("unchecked")
+    private T loadEntity(K key, boolean useStored) throws Exception {
+        if (useStored) {
+            T storedEntity = getStored(key);
+            if (storedEntity != null) {
+                return storedEntity;
+            }
+        }
+        T loadedEntity = ((CacheLoader<K, T>) this.cacheLoader).load(key);
+        store(key, loadedEntity);
+        return loadedEntity;
+    }
+
+    /**
+     * Same as {@link #loadEntity(Object, boolean)}, but with {@link AsyncCacheLoader#asyncLoad(Object, Executor)}. The
+     * store is read on the {@link #executor}.
+     * @param key Key of the entity to load
+     * @param useStored <code>true</code> if the entity in the store may be returned instead of loading it
+     * @return The {@link CompletionStage} completed with the loaded entity, or <code>null</code> if it does not exist
+     */
+    private CompletionStage<T> asyncLoadEntity(K key, boolean useStored) {
+        if (this.cacheStore == null) {
+            return this.cacheLoader.asyncLoad(key, this.executor);
+        }
+
+        CompletableFuture<T> storedEntity = useStored
+                ? CompletableFuture.supplyAsync(() -> getStored(key), this.executor)
+                : CompletableFuture.completedFuture(null);
+        return storedEntity.thenCompose(entity -> entity != null ? CompletableFuture.completedFuture(entity)
+                : this.cacheLoader.asyncLoad(key, this.executor).thenApply(loadedEntity -> {
+                    store(key, loadedEntity);
+                    return loadedEntity;
+                }));
+    }
+
+    /**
+     * Loads several entities with a single call to {@link CacheLoader#loadAll(Set)}, and puts them in the
+     * {@link #cacheStore}.
+     * @param keys Keys of the entities to load
+     * @return The loaded entities by their keys
+     * @throws Exception If there was an error when loading the entities
+     */
+    @SuppressWarnings("unchecked")
+    private Map<K, T> loadEntities(Set<K> keys) throws Exception {
+        Map<K, T> loadedEntities = ((CacheLoader<K, T>) this.cacheLoader).loadAll(Collections.unmodifiableSet(keys));
+        CacheStore<K, T> cacheStore = this.cacheStore;
+        if (cacheStore != null) {
+            Map<K, T> entitiesToStore = new LinkedHashMap<>();
+            List<K> keysToInvalidate = new ArrayList<>();
+            for (K key : keys) {
+                T loadedEntity = loadedEntities != null ? loadedEntities.get(key) : null;
+                if (loadedEntity != null) {
+                    entitiesToStore.put(key, loadedEntity);
+                } else {
+                    keysToInvalidate.add(key);
+                }
+            }
+            try {
+                if (!entitiesToStore.isEmpty()) {
+                    cacheStore.putAll(entitiesToStore);
+                }
+                if (!keysToInvalidate.isEmpty()) {
+                    cacheStore.invalidateAll(keysToInvalidate);
+                }
+            } catch (Exception e) {
+                /* The store is best-effort: the entities are still cached by this node. */
+            }
+        }
+        return loadedEntities;
+    }
+
+    /**
+     * Gets an entity from the {@link #cacheStore}, if there is one.
+     * @param key Key of the entity
+     * @return The stored entity. <code>null</code> if it is not stored or if the store failed
+     */
+    private T getStored(K key) {
+        CacheStore<K, T> cacheStore = this.cacheStore;
+        if (cacheStore != null) {
+            try {
+                return cacheStore.get(key);
+            } catch (Exception e) {
+                /* The store is best-effort: the entity is loaded by the loader instead. */
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets several entities from the {@link #cacheStore}, if there is one, with a single call to
+     * {@link CacheStore#getAll(Set)}.
+     * @param keys Keys of the entities
+     * @return The stored entities by their keys. Empty if the store failed
+     */
+    private Map<K, T> getStored(Set<K> keys) {
+        CacheStore<K, T> cacheStore = this.cacheStore;
+        if (cacheStore != null) {
+            try {
+                Map<K, T> storedEntities = cacheStore.getAll(Collections.unmodifiableSet(keys));
+                if (storedEntities != null) {
+                    return storedEntities;
+                }
+            } catch (Exception e) {
+                /* The store is best-effort: the entities are loaded by the loader instead. */
+            }
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Puts a loaded entity in the {@link #cacheStore}, if there is one, ignoring its errors.
+     * @param key Key of the entity
+     * @param loadedEntity The loaded entity. If <code>null</code>, the stored entity is invalidated instead, since it
+     *            no longer exists
+     */
+    private void store(K key, T loadedEntity) {
+        CacheStore<K, T> cacheStore = this.cacheStore;
+        if (cacheStore != null) {
+            try {
+                if (loadedEntity != null) {
+                    cacheStore.put(key, loadedEntity);
+                } else {
+                    cacheStore.invalidate(key);
+                }
+            } catch (Exception e) {
+                /* The store is best-effort: the entity is still cached by this node. */
+            }
+        }
+    }
+
+    /**
+     * Promotes an entity from the off-heap tier back to the heap, if it was moved there, and completes its load. It
+     * keeps the expiration time it had when moved there, unless the {@link #expiry} sets an earlier one.
+     * @param key Key of the entity
+     * @param lookupKey Lookup key of the entity
+     * @param future The load's future
+     * @return <code>true</code> if the entity was in the off-heap tier
+     */
+    private boolean promote(K key, Object lookupKey, CompletableFuture<T> future) {
+        OffHeapStore offHeapStore = this.offHeapStore;
+        if (offHeapStore == null) {
+            return false;
+        }
+        byte[] keyBytes = serializeOffHeapKey(key);
+        if (keyBytes == null) {
+            return false;
+        }
+
+        /* Under the lock, so that an entity being demoted is found either pending or already stored. */
+        Segment segment = segmentFor(lookupKey);
+        Demotion<T> demotion;
+        OffHeapStore.Entry stored = null;
+        segment.lockForWrite();
+        try {
+            demotion = segment.pendingDemotions.get(lookupKey);
+            if (demotion == null) {
+                stored = offHeapStore.remove(keyBytes, CacheClock.currentTimeMillis());
+            } else if (demotion.entity != null) {
+                segment.pendingDemotions.remove(lookupKey);
+            } else {
+                /* The stored copy is outdated, and about to be dropped. */
+                demotion = null;
+            }
+        } finally {
+            segment.unlockForWrite();
+        }
+        if (demotion == null && stored == null) {
+            return false;
+        }
+
+        try {
+            T entity = demotion != null ? demotion.entity : this.serializer.deserialize(stored.getBytes());
+            insert(key, entity, demotion != null ? demotion.expirationTime : stored.getExpirationTime(), future);
+            future.complete(entity);
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        } finally {
+            this.loadsInProgress.remove(lookupKey, future);
+        }
+        return true;
+    }
+
+    /**
+     * Serializes a key for the off-heap tier.
+     * @param key The key
+     * @return The serialized key. <code>null</code> if the key can not be serialized
+     */
+    private byte[] serializeOffHeapKey(K key) {
+        try {
+            return this.offHeapKeySerializer.serialize(key);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Restores an entity from the snapshot opened when the cache started, if it was saved there and not restored yet,
+     * and completes its load.
+     * @param key Key of the entity
+     * @param lookupKey Lookup key of the entity
+     * @param future The load's future
+     * @return <code>true</code> if the entity was in the snapshot
+     */
+    private boolean restore(K key, Object lookupKey, CompletableFuture<T> future) {
+        Snapshot snapshot = this.snapshot;
+        if (snapshot == null) {
+            return false;
+        }
+        Snapshot.Entry saved = snapshot.take(lookupKey, CacheClock.currentTimeMillis());
+        if (saved == null) {
+            return false;
+        }
+
+        try {
+            T entity = this.snapshotSerializer.deserialize(saved.getEntity());
+            Segment segment = segmentFor(lookupKey);
+            segment.lockForWrite();
+            try {
+                checkRunning();
+
+                if (segment.doInsert(key, entity, saved.getExpirationTime(), future)) {
+                    segment.doRestoreMetadata(lookupKey, saved.getMetadata());
+                }
+            } finally {
+                segment.unlockForWrite();
+            }
+            future.complete(entity);
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        } finally {
+            this.loadsInProgress.remove(lookupKey, future);
+        }
+        return true;
+    }
+
+    /**
+     * Inserts a batch of loaded entities in the cache, with a single lock acquisition, and completes their loads.
+     * @param loads The loads' futures by their keys
+     * @param loadedEntities The loaded entities by their keys
+     * @param error The error thrown by the load. <code>null</code> if it succeeded
+     * @param loadStartTime When the load started, as returned by {@link #statsTime()}
+     */
+    private void completeLoads(Map<K, CompletableFuture<T>> loads, Map<K, T> loadedEntities, Throwable error,
+            long loadStartTime) {
+        recordLoad(error, loadStartTime);
+        try {
+            if (error != null) {
+                for (CompletableFuture<T> future : loads.values()) {
+                    future.completeExceptionally(error);
+                }
+            } else {
+                Map<K, T> entities = new LinkedHashMap<>();
+                for (K key : loads.keySet()) {
+                    entities.put(key, loadedEntities != null ? loadedEntities.get(key) : null);
+                }
+                insertAll(entities, loads);
+                for (Entry<K, CompletableFuture<T>> load : loads.entrySet()) {
+                    load.getValue().complete(entities.get(load.getKey()));
+                }
+            }
+        } catch (Throwable e) {
+            for (CompletableFuture<T> future : loads.values()) {
+                future.completeExceptionally(e);
+            }
+        } finally {
+            for (Entry<K, CompletableFuture<T>> load : loads.entrySet()) {
+                this.loadsInProgress.remove(lookupKey(load.getKey()), load.getValue());
+            }
+        }
+    }
+
+    /**
+     * Inserts a loaded entity in the cache and completes its load.
+     * @param key Key of the loaded entity
+     * @param future The load's future
+     * @param loadedEntity The loaded entity
+     * @param error The error thrown by the load. <code>null</code> if it succeeded
+     * @param loadStartTime When the load started, as returned by {@link #statsTime()}
+     */
+    private void completeLoad(K key, CompletableFuture<T> future, T loadedEntity, Throwable error,
+            long loadStartTime) {
+        recordLoad(error, loadStartTime);
+        try {
+            if (error != null) {
+                future.completeExceptionally(
+                        error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            } else {
+                insert(key, loadedEntity, Long.MAX_VALUE, future);
+                future.complete(loadedEntity);
+            }
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        } finally {
+            /* Only unregistered after the entity is in the map, so no other thread can start a redundant load. */
+            this.loadsInProgress.remove(lookupKey(key), future);
+        }
+    }
+
+    /**
+     * @return The current {@link System#nanoTime()}, or <code>0</code> if the statistics are disabled (so that they
+     *         cost nothing)
+     */
+    private long statsTime() {
+        return this.statsCounter != null ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Records the end of a call to the {@link CacheLoader}, if the statistics are enabled.
+     * @param error The error thrown by the load. <code>null</code> if it succeeded
+     * @param loadStartTime When the load started, as returned by {@link #statsTime()}
+     */
+    private void recordLoad(Throwable error, long loadStartTime) {
+        StatsCounter statsCounter = this.statsCounter;
+        if (statsCounter != null) {
+            long loadTime = System.nanoTime() - loadStartTime;
+            if (error != null) {
+                statsCounter.recordLoadFailure(loadTime);
+            } else {
+                statsCounter.recordLoadSuccess(loadTime);
+            }
+        }
+    }
+
+    /**
+     * Records a full cleanup pass, if the statistics are enabled.
+     * @param cleanupStartTime When the pass started, as returned by {@link #statsTime()}
+     * @param lockTime How long the pass held the write-locks, in nanoseconds
+     */
+    private void recordCleanup(long cleanupStartTime, long lockTime) {
+        StatsCounter statsCounter = this.statsCounter;
+        if (statsCounter != null) {
+            statsCounter.recordCleanup(System.nanoTime() - cleanupStartTime, lockTime);
+        }
+    }
+
+    /**
+     * Schedules the delivery of the {@link #pendingRemovals} on the {@link #executor}, unless there is nothing to
+     * deliver or a delivery is already scheduled.
+     * <p>
+     * Must never be called while holding a lock, since the executor may run the delivery right away.
+     */
+    private void scheduleRemovalDelivery() {
+        if (this.removalListener != null && !this.pendingRemovals.isEmpty()
+                && this.removalDeliveryScheduled.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this::deliverRemovals);
+            } catch (RuntimeException e) {
+                /* Rejected: retried by the next removal. */
+                this.removalDeliveryScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Delivers the {@link #pendingRemovals} to the {@link #removalListener}, in batches of at most
+     * {@value #REMOVAL_BATCH_SIZE}.
+     */
+    private void deliverRemovals() {
+        try {
+            RemovalListener<K, T> removalListener = this.removalListener;
+            List<RemovalNotification<K, T>> batch = new ArrayList<>();
+            RemovalNotification<K, T> notification;
+            while ((notification = this.pendingRemovals.poll()) != null) {
+                batch.add(notification);
+                if (batch.size() == REMOVAL_BATCH_SIZE || this.pendingRemovals.isEmpty()) {
+                    try {
+                        if (removalListener != null) {
+                            removalListener.onRemovals(batch);
+                        }
+                    } catch (RuntimeException e) {
+                        /* Ignored, the cache can not do anything about it. */
+                    }
+                    batch = new ArrayList<>();
+                }
+            }
+        } finally {
+            this.removalDeliveryScheduled.set(false);
+        }
+        /* Removals queued after the queue was drained, but before the delivery was over. */
+        scheduleRemovalDelivery();
+    }
+
+    /**
+     * Records a request that was not served by the cache, if the statistics are enabled.
+     */
+    private void recordMiss() {
+        StatsCounter statsCounter = this.statsCounter;
+        if (statsCounter != null) {
+            statsCounter.recordMiss();
+        }
+    }
+
+    /**
+     * Inserts (or updates) an entity in the cache.
+     * @param key Key of the entity
+     * @param loadedEntity The loaded entity
+     * @param maximumExpirationTime The latest time in milliseconds when the entity may expire
+     * @param load The load's future. <code>null</code> if the entity is written instead of loaded
+     * @see Segment#doInsert(Object, Object, long, CompletableFuture)
+     */
+    private void insert(K key, T loadedEntity, long maximumExpirationTime, CompletableFuture<T> load) {
+        Segment segment = segmentFor(lookupKey(key));
+        segment.lockForWrite();
+        try {
+            checkRunning();
+
+            segment.doInsert(key, loadedEntity, maximumExpirationTime, load);
+        } finally {
+            segment.unlockForWrite();
+        }
+    }
+
+    /**
+     * Inserts (or updates) several loaded entities in the cache, with a single lock acquisition per segment.
+     * @param loadedEntities The loaded entities by their keys
+     * @param loads The loads' futures by their keys
+     */
+    private void insertAll(Map<K, T> loadedEntities, Map<K, CompletableFuture<T>> loads) {
+        Map<Segment, Map<K, T>> loadedEntitiesBySegment = new LinkedHashMap<>();
+        for (Entry<K, T> loadedEntity : loadedEntities.entrySet()) {
+            Segment segment = segmentFor(lookupKey(loadedEntity.getKey()));
+            loadedEntitiesBySegment.computeIfAbsent(segment, s -> new LinkedHashMap<>())
+                    .put(loadedEntity.getKey(), loadedEntity.getValue());
+        }
+
+        for (Entry<Segment, Map<K, T>> segmentEntities : loadedEntitiesBySegment.entrySet()) {
+            Segment segment = segmentEntities.getKey();
+            segment.lockForWrite();
+            try {
+                checkRunning();
+
+                for (Entry<K, T> loadedEntity : segmentEntities.getValue().entrySet()) {
+                    segment.doInsert(loadedEntity.getKey(), loadedEntity.getValue(), Long.MAX_VALUE,
+                            loads.get(loadedEntity.getKey()));
+                }
+            } finally {
+                segment.unlockForWrite();
+            }
+        }
+    }
+
+    /**
+     * Calculates the weight of an entity with the {@link #weigher}.
+     * @param key Key of the entity
+     * @param entity The entity
+     * @return The entity's weight: <code>1</code> if there is no {@link #weigher} and <code>0</code> for
+     *         <code>null</code> entities
+     * @throws IllegalArgumentException If the {@link #weigher} returns a negative weight
+     */
+    private int weigh(K key, T entity) throws IllegalArgumentException {
+        if (this.weigher == null) {
+            return 1;
+        } else if (entity == null) {
+            return 0;
+        }
+
+        int weight = this.weigher.weigh(key, entity);
+        if (weight < 0) {
+            throw new IllegalArgumentException("weigher returned a negative weight for key " + key);
+        }
+        return weight;
+    }
+
+    /**
+     * Remove all the entities that are no longer maintained by the cache.
+     * <p>
+     * If a {@link #cleanupSliceSize} is defined, the lock is released after each slice of entities is evaluated, so
+     * entities inserted during the cleanup might not be evaluated. Segments are cleaned up one at a time.
+     * @see CacheObjectMaintainer
+     */
+    public void cleanup() {
+        /* Checked before the loop too, since a cache that is not running has no segments to go through. */
+        checkRunning();
+
+        long cleanupStartTime = statsTime();
+        long lockTime = 0L;
+        for (Segment segment : this.segments) {
+            /* The cursor is a bucket of the table, so it can be resumed after releasing the lock. */
+            int cursor = 0;
+            while (cursor >= 0) {
+                segment.lockForWrite();
+                long lockStartTime = statsTime();
+                try {
+                    checkRunning();
+
+                    cursor = segment.doCleanup(cursor, getCleanupSliceLimit());
+                } finally {
+                    lockTime += statsTime() - lockStartTime;
+                    segment.unlockForWrite();
+                }
+            }
+        }
+        recordCleanup(cleanupStartTime, lockTime);
+    }
+
+    @Override
+    public long estimatedSize() {
+        checkRunning();
+
+        long size = 0L;
+        for (Segment segment : this.segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    /**
+     * Calculates the exact number of entities in the cache: every segment is cleaned up before its entities are
+     * counted, so collected, expired and no longer maintained entities are left out.
+     * <p>
+     * Takes time proportional to the number of entities and locks each segment in turn, so it should only be used when
+     * precision matters. It must never be called by a {@link CacheObjectMaintainer}, which should use
+     * {@link #size()} instead.
+     * @return The number of entities in the cache
+     * @see #cleanup()
+     */
+    public int exactSize() {
+        checkRunning();
+
+        int size = 0;
+        for (Segment segment : this.segments) {
+            segment.lockForWrite();
+            try {
+                checkRunning();
+
+                segment.doCleanup();
+                size += segment.count;
+            } finally {
+                segment.unlockForWrite();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The {@link #removalListener}
+     */
+    public RemovalListener<K, T> getRemovalListener() {
+        return this.removalListener;
+    }
+
+    /**
+     * Sets the {@link #removalListener}. Removals caused by {@link #stop()} are not delivered.
+     * <p>
+     * Can only be called when the cache is not running.
+     * @param removalListener New value for {@link #removalListener}
+     */
+    public void setRemovalListener(RemovalListener<K, T> removalListener) {
+        this.lock.writeLock().lock();
+        try {
+            checkNotRunning();
+
+            this.removalListener = removalListener;
+
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The {@link #metricsName}
+     */
+    public String getMetricsName() {
+        return this.metricsName;
+    }
+
+    /**
+     * @return The {@link #metricsExporter}
+     */
+    public MetricsExporter getMetricsExporter() {
+        return this.metricsExporter;
+    }
+
+    /**
+     * Sets the {@link #metricsName} and the {@link #metricsExporter}, for example a
+     * {@link com.easycache.core.jmx.JmxMetricsExporter}. The statistics should be enabled as well (see
+     * {@link #setRecordStats(boolean)}).
+     * <p>
+     * Can only be called when the cache is not running.
+     * @param metricsName New value for {@link #metricsName}. Must be <code>null</code> only if
+     *            <code>metricsExporter</code> is
+     * @param metricsExporter New value for {@link #metricsExporter}
+     * @throws IllegalArgumentException If only one of the parameters is <code>null</code>
+     */
+    public void setMetricsExporter(String metricsName, MetricsExporter metricsExporter)
+            throws IllegalArgumentException {
+        this.lock.writeLock().lock();
+        try {
+            checkNotRunning();
+
+            if ((metricsName == null) != (metricsExporter == null)) {
+                throw new IllegalArgumentException("metricsName and metricsExporter must be either both null or not");
+            }
+            this.metricsName = metricsName;
+            this.metricsExporter = metricsExporter;
+
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The {@link #cacheStore}
+     */
+    public CacheStore<K, T> getCacheStore() {
+        return this.cacheStore;
+    }
+
+    /**
+     * Sets the {@link #cacheStore}, turning the cache into the first level of a tiered cache: the entities missing in
+     * the cache are looked up in the store before being loaded by the {@link #cacheLoader}, and the loaded entities are
+     * put in the store. Refreshes always use the loader, and update the store with the refreshed entities.
+     * <p>
+     * Can only be called when the cache is not running.
+     * @param cacheStore New value for {@link #cacheStore}. For example, a
+     *            {@link com.easycache.core.store.InMemoryCacheStore} shared by several caches
+     */
+    public void setCacheStore(CacheStore<K, T> cacheStore) {
+        this.lock.writeLock().lock();
+        try {
+            checkNotRunning();
+
+            this.cacheStore = cacheStore;
+
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The {@link #invalidationBus}
+     */
+    public InvalidationBus<K> getInvalidationBus() {
+        return this.invalidationBus;
+    }
+
+    /**
+     * Sets the {@link #invalidationBus}, for example a
+     * {@link com.easycache.core.invalidation.LoopbackInvalidationBus} shared by several caches.
+     * <p>
+     * Can only be called when the cache is not running.
+     * @param invalidationBus New value for {@link #invalidationBus}
+     */
+    public void setInvalidationBus(InvalidationBus<K> invalidationBus) {
+        this.lock.writeLock().lock();
+        try {
+            checkNotRunning();
+
+            this.invalidationBus = invalidationBus;
+
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The {@link #invalidationWindow}
+     */
+    public long getInvalidationWindow() {
+        return this.invalidationWindow;
+    }
+
+    /**
+     * Sets the {@link #invalidationWindow}. Longer windows publish fewer and larger batches, but leave the other nodes
+     * serving the invalidated entities for longer.
+     * <p>
+     * Can only be called when the cache is not running.
+     * @param invalidationWindow New value for {@link #invalidationWindow}. Must not be negative
+     * @throws IllegalArgumentException If <code>invalidationWindow</code> is negative
+     */
+    public void setInvalidationWindow(long invalidationWindow) throws IllegalArgumentException {
+        this.lock.writeLock().lock();
+        try {
+            checkNotRunning();
+
+            if (invalidationWindow < 0L) {
+                throw new IllegalArgumentException("invalidationWindow must not be negative");
+            }
+            this.invalidationWindow = invalidationWindow;
+
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the statistics recorded so far. They are read without any lock, so they may be slightly inconsistent with
+     * each other while the cache is being used.
+     * @return The statistics. All zeros if they are not recorded
+     * @see #setRecordStats(boolean)
+     */
+    public CacheStats stats() {
+        StatsCounter statsCounter = this.statsCounter;
+        return statsCounter != null ? statsCounter.snapshot() : CacheStats.empty();
+    }
+
+    /**
+     * Creates the {@link #DEFAULT_EXECUTOR}: virtual threads when they are available (JDK 21+), so that blocking loads
+     * do not hold platform threads, and a cached pool of daemon threads otherwise. The
+     * {@link java.util.concurrent.ForkJoinPool#commonPool()} is not used since loads are usually blocking.
+     * @return The default {@link Executor}
+     */
+    private static Executor newDefaultExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "Cache loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Independent part of the cache, holding the entities whose keys are mapped to it by {@link #segmentFor(Object)}.
+     * Each segment has its own map, lock, eviction policy, timer wheel and cleanup state.
+     */
+    private final class Segment {
+
+        /**
+         * Table that holds this segment's entities. It is read without any lock on cache hits, but only modified when
+         * holding the write lock. Its keys are the keys of the entities or, if the cache has {@link #weakKeys}, their
+         * {@link WeakKey}s.
+         */
+        private final CacheObjectTable<T> entities = new CacheObjectTable<>();
+
+        /** The lock that will be used to synchronize this segment's operations. */
+        private final ReadWriteUpdateLock lock = new ReentrantReadWriteUpdateLock();
+
+        /** Size-based eviction policy. <code>null</code> if the cache is unbounded. */
+        private final EvictionPolicy evictionPolicy;
+
+        /** Tracks the expiration of the entities. <code>null</code> if entities never expire. */
+        private final TimerWheel timerWheel;
+
+        /** Bucket of the {@link #entities} where the automatic cleanup in progress resumes. <code>0</code> if none. */
+        private int cleanupCursor;
+
+        /**
+         * Number of entities in {@link #entities}. Only modified when holding the write lock, but read without any
+         * lock by {@link Cache#estimatedSize()}.
+         */
+        private volatile int count;
+
+        /**
+         * Entities evicted to the off-heap tier but not stored there yet, and copies to be dropped from there, by key.
+         * Only added when holding the write lock. Pending entities are discarded when the key is promoted, inserted
+         * again or invalidated.
+         */
+        private final Map<Object, Demotion<T>> pendingDemotions = new ConcurrentHashMap<>();
+
+        /** The {@link #pendingDemotions}, in the order they must be serialized. */
+        private final Queue<Demotion<T>> demotionQueue = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Constructor.
+         * @param maximum Maximum total weight of the segment's entities. <code>null</code> if unbounded
+         * @param currentTime The current time, in milliseconds. <code>null</code> if entities never expire
+         */
+        Segment(Long maximum, Long currentTime) {
+            this.evictionPolicy = maximum != null ? new EvictionPolicy(maximum) : null;
+            this.timerWheel = currentTime != null ? new TimerWheel(currentTime) : null;
+        }
+
+        /**
+         * Gets the {@link CacheObject} of a key, unless it is expired. Expired entities are handled as if they were not
+         * on cache, even before being removed.
+         * @param key The lookup key
+         * @return The {@link CacheObject}. <code>null</code> if there is none or if it is expired
+         */
+        private CacheObject<T> getUnexpired(Object key) {
+            CacheObject<T> cacheObject = this.entities.get(key);
+            if (cacheObject != null && cacheObject.getExpirationTime() != Long.MAX_VALUE
+                    && cacheObject.getExpirationTime() <= CacheClock.currentTimeMillis()) {
+                return null;
+            }
+            return cacheObject;
+        }
+
+        /**
+         * Acquires the write-lock of the segment. If the statistics are enabled and the lock is not immediately
+         * available, records how long it was waited for.
+         */
+        private void lockForWrite() {
+            StatsCounter statsCounter = Cache.this.statsCounter;
+            Lock writeLock = this.lock.writeLock();
+            if (statsCounter == null) {
+                writeLock.lock();
+            } else if (!writeLock.tryLock()) {
+                long waitStartTime = System.nanoTime();
+                writeLock.lock();
+                statsCounter.recordLockWait(System.nanoTime() - waitStartTime);
+            }
+        }
+
+        /**
+         * Releases the write-lock of the segment, then delivers the removals that happened meanwhile (if any) and moves
+         * the evicted entities to the off-heap tier.
+         */
+        private void unlockForWrite() {
+            this.lock.writeLock().unlock();
+            scheduleRemovalDelivery();
+            if (!this.demotionQueue.isEmpty()) {
+                demotePending();
+            }
+        }
+
+        /**
+         * Serializes the {@link #pendingDemotions} without holding the lock, and then stores them in the off-heap tier
+         * (or drops them from there) while holding it, unless they were discarded meanwhile.
+         */
+        @SuppressWarnings("unchecked")
+        private void demotePending() {
+            Demotion<T> demotion;
+            while ((demotion = this.demotionQueue.poll()) != null) {
+                if (this.pendingDemotions.get(demotion.key) != demotion) {
+                    /* Promoted, inserted again or invalidated meanwhile. */
+                    continue;
+                }
+
+                byte[] keyBytes;
+                byte[] entityBytes;
+                try {
+                    /* Keys are never weak here, so the map keys are the keys themselves. */
+                    keyBytes = Cache.this.offHeapKeySerializer.serialize((K) demotion.key);
+                    entityBytes = demotion.entity != null ? Cache.this.serializer.serialize(demotion.entity) : null;
+                } catch (RuntimeException e) {
+                    /* Not serializable: just evicted. */
+                    this.pendingDemotions.remove(demotion.key, demotion);
+                    continue;
+                }
+
+                this.lock.writeLock().lock();
+                try {
+                    OffHeapStore offHeapStore = Cache.this.offHeapStore;
+                    if (this.pendingDemotions.remove(demotion.key, demotion) && offHeapStore != null) {
+                        if (entityBytes != null) {
+                            offHeapStore.put(keyBytes, entityBytes, demotion.expirationTime);
+                        } else {
+                            offHeapStore.invalidate(keyBytes);
+                        }
+                    }
+                } finally {
+                    this.lock.writeLock().unlock();
+                }
+            }
+        }
+
+        /**
+         * Records a cache hit in the statistics, in the {@link #evictionPolicy} and in the {@link Cache#expiry}, if
+         * any, and reloads the entity in the background if it is older than the {@link Cache#refreshAfterWrite}. Never
+         * blocks.
+         * @param key Key of the retrieved entity
+         * @param lookupKey Lookup key of the retrieved entity
+         * @param cacheObject The {@link CacheObject} of the retrieved entity
+         * @param entity The retrieved entity
+         */
+        private void afterHit(K key, Object lookupKey, CacheObject<T> cacheObject, T entity) {
+            StatsCounter statsCounter = Cache.this.statsCounter;
+            if (statsCounter != null) {
+                statsCounter.recordHit();
+            }
+            if (this.evictionPolicy != null) {
+                this.evictionPolicy.recordAccess(cacheObject);
+            }
+
+            Expiry<K, T> expiry = Cache.this.expiry;
+            if (expiry != null) {
+                long currentTime = CacheClock.currentTimeMillis();
+                long currentExpirationTime = cacheObject.getExpirationTime();
+                long currentDuration = currentExpirationTime - currentTime;
+                long duration = expiry.expireAfterRead(key, entity, currentTime, currentDuration);
+                if (duration != currentDuration) {
+                    /* Unless a writer set another expiration time meanwhile, which then prevails. */
+                    long expirationTime = expirationTime(currentTime, duration);
+                    if (cacheObject.compareAndSetExpirationTime(currentExpirationTime, expirationTime)
+                            && expirationTime < currentExpirationTime) {
+                        /* The timer wheel finds out later expiration times by itself, but not earlier ones. */
+                        reschedule(lookupKey, cacheObject);
+                    }
+                }
+            }
+
+            Long refreshAfterWrite = Cache.this.refreshAfterWrite;
+            if (refreshAfterWrite != null
+                    && CacheClock.currentTimeMillis() - cacheObject.getWriteTime() >= refreshAfterWrite
+                    && !Cache.this.loadsInProgress.containsKey(lookupKey)) {
+                /* Stale while revalidating: the load is shared with any other caller, and errors are ignored. */
+                load(key, false, true);
+            }
+        }
+
+        /**
+         * Reschedules the expiration of an entity whose expiration time was brought forward by a reader, unless it was
+         * removed meanwhile.
+         * @param key Key of the entity, as looked up in the {@link #entities}
+         * @param cacheObject The {@link CacheObject} holding the entity
+         */
+        private void reschedule(Object key, CacheObject<T> cacheObject) {
+            lockForWrite();
+            try {
+                if (this.entities.get(key) == cacheObject) {
+                    this.timerWheel.schedule(cacheObject);
+                }
+            } finally {
+                unlockForWrite();
+            }
+        }
+
+        /**
+         * Inserts (or updates) an entity in the segment.
+         * <p>
+         * You may only call this method when holding a write-lock.
+         * @param key Key of the entity
+         * @param loadedEntity The loaded entity
+         * @param maximumExpirationTime The latest time in milliseconds when the entity may expire
+         * @param load The load's future. <code>null</code> if the entity is written instead of loaded
+         * @return <code>false</code> if the load was superseded, so the entity was not inserted
+         */
+        private boolean doInsert(K key, T loadedEntity, long maximumExpirationTime, CompletableFuture<T> load) {
+            /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+
+            int weight = weigh(key, loadedEntity);
+            Object lookupKey = lookupKey(key);
+            if (load == null) {
+                Cache.this.loadsInProgress.remove(lookupKey);
+            } else if (Cache.this.loadsInProgress.get(lookupKey) != load) {
+                return false;
+            }
+
+            long expirationTime = Long.MAX_VALUE;
+            if (this.timerWheel != null) {
+                /* Expiration is amortized across the writes, besides the expiration thread. */
+                doExpire();
+
+                long currentTime = CacheClock.currentTimeMillis();
+                CacheObject<T> c = this.entities.get(lookupKey);
+                long duration;
+                if (c != null && c.getExpirationTime() > currentTime) {
+                    long currentDuration = c.getExpirationTime() - currentTime;
+                    duration = Cache.this.expiry.expireAfterUpdate(key, loadedEntity, currentTime, currentDuration);
+                } else {
+                    duration = Cache.this.expiry.expireAfterCreate(key, loadedEntity, currentTime);
+                }
+                expirationTime = Math.min(expirationTime(currentTime, duration), maximumExpirationTime);
+            }
+
+            CacheObject<T> c = this.entities.get(lookupKey);
+            if (c != null) {
+                T replacedEntity = c.getEntity(false);
+                c.setEntity(loadedEntity, Cache.this.referenceQueue);
+                if (replacedEntity != null && replacedEntity != loadedEntity) {
+                    notifyRemoval(c.getKey(), replacedEntity, RemovalCause.REPLACED);
+                }
+
+            } else {
+                c = Cache.this.cacheObjectFactory.newCacheObject(loadedEntity, Cache.this.referenceQueue,
+                        Cache.this.valueStrength);
+                c.setKey(newMapKey(key));
+                if (this.evictionPolicy != null || this.timerWheel != null) {
+                    c.links = new CacheObjectLinks();
+                }
+                this.entities.add(c);
+                this.count++;
+                /* A copy left in the off-heap tier would be outdated from now on. */
+                invalidateOffHeap(key);
+                if (Cache.this.snapshot != null) {
+                    Cache.this.snapshot.invalidate(lookupKey);
+                }
+            }
+
+            if (this.timerWheel != null) {
+                c.setExpirationTime(expirationTime);
+                this.timerWheel.schedule(c);
+            }
+
+            if (this.evictionPolicy != null) {
+                /* The policy records the weight itself, since it needs the previous one. */
+                for (Object evictedKey : this.evictionPolicy.recordWrite(c, weight)) {
+                    demote(evictedKey);
+                    doEvict(evictedKey, RemovalCause.SIZE);
+                }
+            } else {
+                c.setWeight(weight);
+            }
+            return true;
+        }
+
+        /**
+         * Queues an entity evicted because of the capacity to be moved to the off-heap tier, if there is one. It is
+         * only serialized once the lock is released, and entities that can not be serialized are simply evicted.
+         * <p>
+         * You may only call this method when holding a write-lock.
+         * @param key The key of the entity, as stored in the map
+         * @see #demotePending()
+         */
+        private void demote(Object key) {
+            /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+
+            CacheObject<T> c = this.entities.get(key);
+            T entity = c != null ? c.getEntity(false) : null;
+            if (Cache.this.offHeapStore != null && entity != null) {
+                Demotion<T> demotion = new Demotion<>(key, entity, c.getExpirationTime());
+                this.pendingDemotions.put(key, demotion);
+                this.demotionQueue.add(demotion);
+            }
+        }
+
+        /**
+         * Drops the copy of an entity from the off-heap tier, whether it is stored there or still pending. A stored copy
+         * is only dropped once the lock is released, like the demotions, but it is never promoted meanwhile.
+         * <p>
+         * You may only call this method when holding a write-lock.
+         * @param key The key of the entity
+         * @see #demotePending()
+         */
+        private void invalidateOffHeap(K key) {
+            /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+
+            OffHeapStore offHeapStore = Cache.this.offHeapStore;
+            if (offHeapStore != null) {
+                if (offHeapStore.isEmpty()) {
+                    this.pendingDemotions.remove(key);
+                } else {
+                    Demotion<T> invalidation = new Demotion<>(key, null, Long.MAX_VALUE);
+                    this.pendingDemotions.put(key, invalidation);
+                    this.demotionQueue.add(invalidation);
+                }
+            }
+        }
+
+        /**
+         * Restores the metadata saved in a snapshot to the {@link CacheObject} of an entity, if it is still cached.
+         * Metadata saved by another kind of {@link CacheObject} is ignored.
+         * <p>
+         * You may only call this method when holding a write-lock.
+         * @param key The key of the entity
+         * @param metadata The saved metadata
+         */
+        private void doRestoreMetadata(Object key, byte[] metadata) {
+            /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+
+            CacheObject<T> c = this.entities.get(key);
+            if (c != null) {
+                try {
+                    c.readMetadata(new DataInputStream(new ByteArrayInputStream(metadata)));
+                } catch (IOException e) {
+                    /* Saved by another kind of cache object: kept as inserted. */
+                }
+            }
+        }
+
+        /**
+         * Removes the entities whose expiration time has passed.
+         * <p>
+         * You may only call this method when holding a write-lock.
+         * @see Expiry
+         */
+        private void doExpire() {
+            /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+
+            long currentTime = CacheClock.currentTimeMillis();
+            for (Object key : this.timerWheel.advance(currentTime)) {
+                CacheObject<T> c = this.entities.get(key);
+                if (c != null) {
+                    if (c.getExpirationTime() <= currentTime) {
+                        doEvict(key, RemovalCause.EXPIRED);
+                    } else {
+                        /* Updated meanwhile. */
+                        this.timerWheel.schedule(c);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Removes an entity from the segment, because it exceeded its capacity, because it expired or because it was
+         * collected.
+         * <p>
+         * You may only call this method when holding a write-lock.
+         * @param key The key of the entity, as stored in the map
+         * @param cause Why the entity is removed
+         */
+        private void doEvict(Object key, RemovalCause cause) {
+            /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+
+            CacheObject<T> c = this.entities.remove(key);
+            if (c != null) {
+                this.count--;
+                if (cause.wasEvicted()) {
+                    recordEviction(cause);
+                }
+                notifyRemoval(key, c.getEntity(false), cause);
+                untrack(c);
+            }
+        }
+
+        /**
+         * Removes every entity of the segment, as invalidated.
+         * <p>
+         * You may only call this method when holding a write-lock.
+         */
+        private void doInvalidateAll() {
+            /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+
+            this.entities.forEach(c -> doEvict(c.getKey(), RemovalCause.EXPLICIT));
+            this.pendingDemotions.clear();
+            Cache.this.loadsInProgress.keySet().removeIf(lookupKey -> segmentFor(lookupKey) == this);
+        }
+
+        /**
+         * Removes an invalidated entity, along with its copies in the off-heap tier and in the snapshot.
+         * <p>
+         * You may only call this method when holding a write-lock.
+         * @param lookupKey The lookup key of the entity
+         */
+        @SuppressWarnings("unchecked")
+        private void doInvalidate(Object lookupKey) {
+            /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+
+            Cache.this.loadsInProgress.remove(lookupKey);
+            CacheObject<T> c = this.entities.get(lookupKey);
+            if (c != null) {
+                doEvict(c.getKey(), RemovalCause.EXPLICIT);
+            }
+            if (Cache.this.offHeapStore != null) {
+                /* Keys are never weak along with the off-heap tier, so the lookup key is the key itself. */
+                invalidateOffHeap((K) lookupKey);
+            }
+            if (Cache.this.snapshot != null) {
+                Cache.this.snapshot.invalidate(lookupKey);
+            }
+        }
+
+        /**
+         * Queues the notification of a removal to the {@link Cache#removalListener}, if there is one. It is only
+         * delivered once the lock is released.
+         * <p>
+         * You may only call this method when holding a write-lock.
+         * @param key The key of the removed entity, as stored in the map
+         * @param entity The removed entity. <code>null</code> if it was collected
+         * @param cause Why the entity was removed
+         * @see #unlockForWrite()
+         */
+        @SuppressWarnings("unchecked")
+        private void notifyRemoval(Object key, T entity, RemovalCause cause) {
+            if (Cache.this.removalListener != null) {
+                K removedKey = key instanceof WeakKey ? ((WeakKey<K>) key).get() : (K) key;
+                Cache.this.pendingRemovals.add(new RemovalNotification<>(removedKey, entity, cause));
+            }
+        }
+
+        /**
+         * Records the removal of an entity, if the statistics are enabled.
+         * @param cause Why the entity was removed
+         */
+        private void recordEviction(RemovalCause cause) {
+            StatsCounter statsCounter = Cache.this.statsCounter;
+            if (statsCounter != null) {
+                statsCounter.recordEviction(cause);
+            }
+        }
+
+        /**
+         * Stops tracking a key removed from the segment, both in the {@link #evictionPolicy} and in the
+         * {@link #timerWheel}.
+         * <p>
+         * You may only call this method when holding a write-lock.
+         * @param cacheObject The removed {@link CacheObject}
+         */
+        private void untrack(CacheObject<T> cacheObject) {
+            /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+
+            if (this.evictionPolicy != null) {
+                this.evictionPolicy.recordRemoval(cacheObject);
+            }
+            if (this.timerWheel != null) {
+                this.timerWheel.deschedule(cacheObject);
+            }
+        }
+
+        /**
+         * Remove the entities that are no longer maintained by the cache.
+         * <p>
+         * You may only call this method when holding a write-lock.
+         * @see CacheObjectMaintainer
+         */
+        private void doCleanup() {
+            long currentTime = CacheClock.currentTimeMillis();
+            this.entities.forEach(c -> doCleanup(c, currentTime));
+        }
+
+        /**
+         * Continues the automatic cleanup in progress (or starts a new one), evaluating at most a limited number of
+         * entities.
+         * <p>
+         * You may only call this method when holding a write-lock.
+         * @param limit Maximum number of entities to evaluate
+         * @return <code>true</code> if the cleanup reached the end of the entities
+         * @see #cleanupCursor
+         */
+        private boolean doCleanupSlice(int limit) {
+            int cursor = doCleanup(this.cleanupCursor, limit);
+            boolean finished = cursor < 0;
+            this.cleanupCursor = finished ? 0 : cursor;
+            return finished;
+        }
+
+        /**
+         * Remove the entities that are no longer maintained by the cache, evaluating whole buckets of the
+         * {@link #entities} until a limited number of them were evaluated.
+         * <p>
+         * You may only call this method when holding a write-lock.
+         * @param cursor Bucket of the table where the cleanup should resume
+         * @param limit Number of entities after which the cleanup stops
+         * @return The bucket where the next slice should resume. <code>-1</code> if the cleanup reached the end of the
+         *         entities
+         * @see CacheObjectMaintainer
+         */
+        private int doCleanup(int cursor, int limit) {
+            /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+
+            long currentTime = CacheClock.currentTimeMillis();
+            return this.entities.forEach(cursor, limit, c -> doCleanup(c, currentTime));
+        }
+
+        /**
+         * Removes an entity if it is no longer maintained by the cache.
+         * <p>
+         * You may only call this method when holding a write-lock.
+         * @param c The {@link CacheObject} of the entity
+         * @param currentTime The current time, in milliseconds
+         * @see CacheObjectMaintainer
+         */
+        private void doCleanup(CacheObject<T> c, long currentTime) {
+            /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+
+            T entity = c.getEntity(false);
+            RemovalCause cause = null;
+            if (entity == null) {
+                cause = RemovalCause.COLLECTED;
+            } else if (c.getExpirationTime() <= currentTime) {
+                cause = RemovalCause.EXPIRED;
+            } else if (!Cache.this.cacheObjectMaintainer.isMaintainedByCache(entity, c, Cache.this)) {
+                cause = RemovalCause.MAINTAINER;
+            }
+            /*
+             * The maintainer may change the segment, even removing (or replacing) the entities visited next, so the
+             * entity is only removed if it is still there.
+             */
+            if (cause != null && this.entities.remove(c)) {
+                this.count--;
+                untrack(c);
+                recordEviction(cause);
+                notifyRemoval(c.getKey(), entity, cause);
+            }
+        }
+
+        /**
+         * Removes the entity whose reference (or whose key's reference) was cleared by the garbage collector, unless
+         * the entity was replaced (or removed) in the meantime.
+         * <p>
+         * You may only call this method when holding a write-lock.
+         * @param key The key of the collected entity, as stored in the map
+         * @param reference The cleared reference
+         */
+        private void removeCollected(Object key, Reference<?> reference) {
+            /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+
+            CacheObject<T> c = this.entities.get(key);
+            if (c != null && (c.getEntityReference() == reference || c.getKey() == reference)) {
+                doEvict(key, RemovalCause.COLLECTED);
+            }
+        }
+
+        /**
+         * @param key A key
+         * @return The key to store in the map: the key itself or, if the cache has {@link #weakKeys}, a {@link WeakKey}
+         */
+        @SuppressWarnings("unchecked")
+        private Object newMapKey(K key) {
+            if (!Cache.this.weakKeys) {
+                return key;
+            }
+            /* Keys are queued along with the entities' references, and told apart by the reference cleanup thread. */
+            return new WeakKey<>(key, (ReferenceQueue<Object>) (ReferenceQueue<?>) Cache.this.referenceQueue);
+        }
+
+        /**
+         * Forgets every entity.
+         * <p>
+         * You may only call this method when holding a write-lock.
+         */
+        private void clear() {
+            this.entities.clear();
+            this.count = 0;
+            if (this.evictionPolicy != null) {
+                this.evictionPolicy.clear();
+            }
+            if (this.timerWheel != null) {
+                this.timerWheel.clear();
+            }
+            this.cleanupCursor = 0;
+            this.pendingDemotions.clear();
+            this.demotionQueue.clear();
+        }
+    }
+
+    /**
+     * Entity evicted to the off-heap tier, waiting to be serialized. Without an entity, the copy stored in the off-heap
+     * tier is dropped instead.
+     * @param <T> Type of the entity
+     * @see Segment#demote(Object)
+     */
+    private static final class Demotion<T> {
+
+        private final Object key;
+        private final T entity;
+        private final long expirationTime;
+
+        Demotion(Object key, T entity, long expirationTime) {
+            this.key = key;
+            this.entity = entity;
+            this.expirationTime = expirationTime;
         }
     }
 
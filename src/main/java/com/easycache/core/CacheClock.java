@@ -0,0 +1,46 @@
+package com.easycache.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coarse clock shared by every cache, so that cache hits read the time from a field instead of asking the system for
+ * it. The time is updated by a daemon thread called "Cache clock" every {@value #TICK_INTERVAL} milliseconds, which is
+ * also its precision.
+ * @author frederico.pantuzza
+ */
+public final class CacheClock {
+
+    /** Interval (in milliseconds) between updates of the time. */
+    private static final long TICK_INTERVAL = 10L;
+
+    private static volatile long currentTimeMillis = System.currentTimeMillis();
+
+    static {
+        Thread clockThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!Thread.interrupted()) {
+                        TimeUnit.MILLISECONDS.sleep(TICK_INTERVAL);
+                        currentTimeMillis = System.currentTimeMillis();
+                    }
+                } catch (InterruptedException e) {
+                    /* Allow thread to exit. */
+                }
+            }
+        }, "Cache clock");
+        clockThread.setDaemon(true);
+        clockThread.start();
+    }
+
+    private CacheClock() {
+    }
+
+    /**
+     * @return The current time in milliseconds, at most {@value #TICK_INTERVAL} milliseconds behind
+     *         {@link System#currentTimeMillis()}
+     */
+    public static long currentTimeMillis() {
+        return currentTimeMillis;
+    }
+}
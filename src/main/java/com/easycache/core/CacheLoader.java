@@ -1,5 +1,12 @@
 package com.easycache.core;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
 /**
  * Loader of entities that should be inserted in the cache.
  * @param <K> Type of the entity's key stored by the cache
@@ -7,7 +14,7 @@ package com.easycache.core;
  * @author frederico.pantuzza
  */
 @FunctionalInterface
-public interface CacheLoader<K, T> {
+public interface CacheLoader<K, T> extends AsyncCacheLoader<K, T> {
 
     /**
      * Loads an entity to be inserted in cache.
@@ -17,4 +24,51 @@ public interface CacheLoader<K, T> {
      *             cache
      */
     T load(K key) throws Exception;
+
+    /**
+     * Loads several entities at once, for example, with a single query to the database. Used by the bulk operations of
+     * the cache when {@link #supportsLoadAll()} is <code>true</code>.
+     * <p>
+     * By default, loads each entity with {@link #load(Object)}, one after the other.
+     * @param keys Entities' keys
+     * @return The loaded entities by their keys. Keys of entities that do not exist may be left out of the map
+     * @throws Exception If an unexpected error occurred during the loading. This error may be propagated outside the
+     *             cache
+     */
+    default Map<K, T> loadAll(Set<K> keys) throws Exception {
+        Map<K, T> entities = new LinkedHashMap<>();
+        for (K key : keys) {
+            T entity = load(key);
+            if (entity != null) {
+                entities.put(key, entity);
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Tells whether the bulk operations of the cache should use {@link #loadAll(Set)}. Must be overridden along with
+     * it: otherwise, the cache loads the entities with parallel calls to {@link #load(Object)} instead.
+     * @return <code>true</code> if {@link #loadAll(Set)} loads the entities in a single batch. <code>false</code> by
+     *         default
+     */
+    default boolean supportsLoadAll() {
+        return false;
+    }
+
+    /**
+     * Runs {@link #load(Object)} on the given {@link Executor}.
+     */
+    @Override
+    default CompletionStage<T> asyncLoad(K key, Executor executor) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(load(key));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
 }
@@ -2,17 +2,26 @@ package com.easycache.core;
 
 /**
  * Cache metadata.
+ * <p>
+ * Every method is cheap and lock-free, so it can be safely called by a {@link CacheObjectMaintainer} for each
+ * evaluated entity.
  * @author frederico.pantuzza
  */
 public interface CacheMetadata {
 
     /**
-     * @return the size of the cache in number of entities.
-     *         <p>
-     *         The returned value may differ slightly from the reality if the GC decides to collect entities during the
-     *         calculation process.
+     * @return the size of the cache in number of entities, same as {@link #estimatedSize()} (capped to
+     *         {@link Integer#MAX_VALUE}).
      */
     int size();
 
-    // TODO 30/05/2016 - int size(boolean safe)?
+    /**
+     * @return the estimated size of the cache in number of entities, kept by a counter.
+     *         <p>
+     *         The returned value may include entities that were already collected by the GC, that expired or that are
+     *         no longer maintained by the cache, but were not removed yet. By default, same as {@link #size()}.
+     */
+    default long estimatedSize() {
+        return size();
+    }
 }
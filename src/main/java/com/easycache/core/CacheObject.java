@@ -1,34 +1,90 @@
 package com.easycache.core;
 
-import java.lang.ref.Reference;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.lang.ref.ReferenceQueue;
-import java.lang.ref.SoftReference;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * Most basic object that will be managed by the cache.
+ * <p>
+ * Cache objects are read concurrently by the cache without any lock, so subclasses must keep their metadata
+ * thread-safe (for example, with volatile fields or atomic updates).
+ * <p>
+ * Besides the entity and its metadata, a cache object of a bounded (or expiring) cache also holds the links of the
+ * cache's {@link EvictionPolicy} and {@link TimerWheel}, so that tracking an entity costs a single small object and no
+ * lookup. The entities of the other caches have no links at all. Every cache object is also the node of its entity in
+ * the cache's {@link CacheObjectTable}.
  * @param <T> Type of entity stored in the cache
  * @author frederico.pantuzza
  */
 public class CacheObject<T> {
 
-    private SoftReference<T> entityReference;
-    private final ReferenceQueue<T> referenceQueue;
+    /** Updates {@link #expirationTime} atomically, since readers may extend it without holding any lock. */
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<CacheObject> EXPIRATION_TIME_UPDATER = AtomicLongFieldUpdater
+            .newUpdater(CacheObject.class, "expirationTime");
 
-    private final long insertTime;
+    /**
+     * The entity if it is strongly referenced, or else its {@link EntityReference} (whose class tells the strength of
+     * the reference).
+     */
+    private volatile Object value;
+
+    /** Key of the entity in the cache. Set by the cache right after creating this {@link CacheObject}. */
+    private volatile Object key;
+
+    private volatile long insertTime;
+
+    private volatile long writeTime;
+
+    private volatile int weight = 1;
+
+    private volatile long expirationTime = Long.MAX_VALUE;
 
     /**
-     * Constructor.
+     * Links of this object in the cache's {@link EvictionPolicy} and {@link TimerWheel}. Set by the cache right after
+     * creating this {@link CacheObject}, and only if the cache is bounded or expires.
+     */
+    CacheObjectLinks links;
+
+    /** Next object in the same bucket of the cache's {@link CacheObjectTable}. Only written when holding its lock. */
+    volatile CacheObject<T> tableNext;
+
+    /**
+     * Constructor of the sentinels of the {@link TimerWheel}'s buckets, which hold no entity.
+     */
+    CacheObject() {
+        this.links = new CacheObjectLinks();
+    }
+
+    /**
+     * Same as {@link #CacheObject(Object, ReferenceQueue, ReferenceStrength)}, but holds the entity with a
+     * {@link ReferenceStrength#SOFT} reference.
      * @param entity Initial entity
      * @param referenceQueue (mandatory) The {@link ReferenceQueue} where the references will be queued after collected
      */
     public CacheObject(T entity, ReferenceQueue<T> referenceQueue) {
+        this(entity, referenceQueue, ReferenceStrength.SOFT);
+    }
+
+    /**
+     * Constructor.
+     * @param entity Initial entity
+     * @param referenceQueue (mandatory) The {@link ReferenceQueue} where the references will be queued after collected
+     * @param valueStrength (mandatory) The strength of the reference to the entity
+     */
+    public CacheObject(T entity, ReferenceQueue<T> referenceQueue, ReferenceStrength valueStrength) {
         if (referenceQueue == null) {
             throw new NullPointerException("referenceQueue may not be null");
         }
+        if (valueStrength == null) {
+            throw new NullPointerException("valueStrength may not be null");
+        }
 
-        this.referenceQueue = referenceQueue;
-        this.insertTime = System.currentTimeMillis();
-        setEntity(entity);
+        this.insertTime = CacheClock.currentTimeMillis();
+        setEntity(entity, valueStrength, referenceQueue);
     }
 
     /**
@@ -36,31 +92,90 @@ public class CacheObject<T> {
      * @param newAccess <code>true</code> if this call must count as a new access
      * @return The held entity. Can be <code>null</code>
      */
+    @SuppressWarnings("unchecked")
     final T getEntity(boolean newAccess) {
         if (newAccess) {
             beforeAccessEntity();
         }
-        return this.entityReference.get();
+        Object value = this.value;
+        return value instanceof EntityReference ? ((EntityReference<T>) value).get() : (T) value;
+    }
+
+    /**
+     * Updates the entity held by this {@link CacheObject}, keeping the strength of the reference to it.
+     * @param entity The new entity
+     * @param referenceQueue The {@link ReferenceQueue} where the reference will be queued after collected
+     */
+    final void setEntity(T entity, ReferenceQueue<T> referenceQueue) {
+        setEntity(entity, getValueStrength(), referenceQueue);
     }
 
     /**
      * Updates the entity held by this {@link CacheObject}.
      * @param entity The new entity
-     * @return The {@link Reference} created to the new entity
+     * @param valueStrength The strength of the reference to the entity
+     * @param referenceQueue The {@link ReferenceQueue} where the reference will be queued after collected
      */
-    final Reference<T> setEntity(T entity) {
-        this.entityReference = new SoftReference<>(entity, this.referenceQueue);
+    private void setEntity(T entity, ReferenceStrength valueStrength, ReferenceQueue<T> referenceQueue) {
+        if (valueStrength == ReferenceStrength.STRONG) {
+            this.value = entity;
+        } else {
+            /* A reference can not be changed, but it is kept if the same entity is set again. */
+            EntityReference<T> entityReference = getEntityReference();
+            if (entityReference == null || entity == null || entityReference.get() != entity) {
+                this.value = EntityReference.newReference(valueStrength, entity, referenceQueue, this);
+            }
+        }
+        this.writeTime = CacheClock.currentTimeMillis();
         afterSetEntity();
+    }
+
+    /**
+     * Get the reference for the entity this cache holds.
+     * @return The reference for the entity this cache holds. <code>null</code> if it is strongly referenced
+     */
+    @SuppressWarnings("unchecked")
+    final EntityReference<T> getEntityReference() {
+        Object value = this.value;
+        return value instanceof EntityReference ? (EntityReference<T>) value : null;
+    }
+
+    /**
+     * @return The strength of the reference to the entity
+     */
+    private ReferenceStrength getValueStrength() {
+        EntityReference<T> entityReference = getEntityReference();
+        return entityReference != null ? entityReference.getStrength() : ReferenceStrength.STRONG;
+    }
 
-        return getEntityReference();
+    /**
+     * Changes the strength of the reference to the entity, holding the current entity with the new strength. Used by
+     * {@link CacheObjectFactory}s that do not support the reference strength themselves.
+     * @param valueStrength The strength of the reference to the entity
+     * @param referenceQueue The {@link ReferenceQueue} where the reference will be queued after collected
+     */
+    final void setValueStrength(ReferenceStrength valueStrength, ReferenceQueue<T> referenceQueue) {
+        if (valueStrength != getValueStrength()) {
+            T entity = getEntity(false);
+            this.value = null;
+            setEntity(entity, valueStrength, referenceQueue);
+        }
+    }
+
+    /**
+     * Gets the key of the entity this {@link CacheObject} holds.
+     * @return The key of the entity. <code>null</code> if the cache did not set it yet
+     */
+    final Object getKey() {
+        return this.key;
     }
 
     /**
-     * Get the {@link Reference} for the entity this cache holds.
-     * @return The {@link Reference} for the entity this cache holds
+     * Records the key of the entity this {@link CacheObject} holds.
+     * @param key The key of the entity
      */
-    final Reference<T> getEntityReference() {
-        return this.entityReference;
+    final void setKey(Object key) {
+        this.key = key;
     }
 
     /**
@@ -75,10 +190,86 @@ public class CacheObject<T> {
     protected void afterSetEntity() {
     }
 
+    /**
+     * Writes the metadata of this {@link CacheObject} to a snapshot of the cache, so that it is restored by
+     * {@link #readMetadata(DataInput)} when the cache starts again. Subclasses with metadata of their own must write it
+     * after calling this method.
+     * @param output Where the metadata is written
+     * @throws IOException If the metadata could not be written
+     * @see Cache#setSnapshot(java.nio.file.Path, Serializer, Serializer)
+     */
+    protected void writeMetadata(DataOutput output) throws IOException {
+        output.writeLong(this.insertTime);
+        output.writeLong(this.writeTime);
+    }
+
+    /**
+     * Restores the metadata written by {@link #writeMetadata(DataOutput)}. Subclasses with metadata of their own must
+     * read it after calling this method.
+     * @param input Where the metadata is read from
+     * @throws IOException If the metadata could not be read
+     */
+    protected void readMetadata(DataInput input) throws IOException {
+        this.insertTime = input.readLong();
+        this.writeTime = input.readLong();
+    }
+
+    /**
+     * Gets the weight of the current entity, as calculated by the cache's {@link Weigher} when the entity was set.
+     * @return The weight of the current entity. <code>1</code> if the cache has no {@link Weigher}
+     */
+    public int getWeight() {
+        return this.weight;
+    }
+
+    /**
+     * Records the weight of the current entity.
+     * @param weight The weight of the current entity
+     */
+    final void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * Gets the time in milliseconds when the current entity expires, as calculated by the cache's {@link Expiry}.
+     * @return The time in milliseconds when the current entity expires. {@link Long#MAX_VALUE} if it never expires
+     * @see CacheClock#currentTimeMillis()
+     */
+    public long getExpirationTime() {
+        return this.expirationTime;
+    }
+
+    /**
+     * Records the time when the current entity expires.
+     * @param expirationTime The time in milliseconds when the current entity expires
+     */
+    final void setExpirationTime(long expirationTime) {
+        this.expirationTime = expirationTime;
+    }
+
+    /**
+     * Records the time when the current entity expires, unless another one was recorded meanwhile.
+     * @param expectedExpirationTime The expiration time read before
+     * @param expirationTime The time in milliseconds when the current entity expires
+     * @return <code>true</code> if the expiration time was recorded
+     */
+    final boolean compareAndSetExpirationTime(long expectedExpirationTime, long expirationTime) {
+        return EXPIRATION_TIME_UPDATER.compareAndSet(this, expectedExpirationTime, expirationTime);
+    }
+
+    /**
+     * Gets the time in milliseconds when the current entity was set (i.e. loaded or refreshed).
+     * @return The time in milliseconds when the current entity was set
+     * @see CacheClock#currentTimeMillis()
+     */
+    public long getWriteTime() {
+        return this.writeTime;
+    }
+
     /**
      * Gets the time in milliseconds when this {@link CacheObject} was inserted to the cache.
      * @return The time in milliseconds when this {@link CacheObject} was inserted to the cache
-     * @see System#currentTimeMillis()
+     * @see CacheClock#currentTimeMillis()
      */
     public long getInsertTime() {
         return this.insertTime;
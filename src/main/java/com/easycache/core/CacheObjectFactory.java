@@ -17,4 +17,22 @@ public interface CacheObjectFactory<T> {
      * @return The created {@link CacheObject}
      */
     CacheObject<T> newCacheObject(T entity, ReferenceQueue<T> referenceQueue);
+
+    /**
+     * Creates a new {@link CacheObject} that holds its entity with the given reference strength.
+     * <p>
+     * By default, the object is created by {@link #newCacheObject(Object, ReferenceQueue)} and its entity is then held
+     * again with the given strength. Factories should override this method to pass the strength to the
+     * {@link CacheObject#CacheObject(Object, ReferenceQueue, ReferenceStrength)} constructor instead.
+     * @param entity Entity that is going to be initially stored
+     * @param referenceQueue {@link ReferenceQueue} from the cache
+     * @param valueStrength Strength of the reference to the entity
+     * @return The created {@link CacheObject}
+     */
+    default CacheObject<T> newCacheObject(T entity, ReferenceQueue<T> referenceQueue,
+            ReferenceStrength valueStrength) {
+        CacheObject<T> cacheObject = newCacheObject(entity, referenceQueue);
+        cacheObject.setValueStrength(valueStrength, referenceQueue);
+        return cacheObject;
+    }
 }
@@ -0,0 +1,19 @@
+package com.easycache.core;
+
+/**
+ * Links of a {@link CacheObject} in the {@link EvictionPolicy} and in the {@link TimerWheel}. Only created for the
+ * entities of caches that are bounded or that expire, so that the entities of the other caches do not pay for them.
+ * @author frederico.pantuzza
+ */
+final class CacheObjectLinks {
+
+    /** Neighbours in the {@link EvictionPolicy}'s segment. Only accessed when holding the policy's lock. */
+    CacheObject<?> policyPrevious;
+    CacheObject<?> policyNext;
+    /** Segment of the {@link EvictionPolicy} holding the object. Only accessed when holding the policy's lock. */
+    byte policyQueue;
+
+    /** Neighbours in the {@link TimerWheel}'s bucket. Only accessed when holding the cache's write lock. */
+    CacheObject<?> timerPrevious;
+    CacheObject<?> timerNext;
+}
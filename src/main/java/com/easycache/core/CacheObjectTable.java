@@ -0,0 +1,213 @@
+package com.easycache.core;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Hash table of {@link CacheObject}s by their keys, chained through the objects themselves: there are no entry objects,
+ * so each entity costs its {@link CacheObject} and a slot of the table (a bit more, since the table is kept at most
+ * three quarters full). Keys are matched with {@link Object#equals(Object)}, called on the lookup key, so that a
+ * {@link WeakKey.Lookup} finds its {@link WeakKey}.
+ * <p>
+ * Only modified by one thread at a time, but {@link #get(Object)} may be called concurrently without any lock: a lookup
+ * that misses while the table is resized is simply retried. A {@link CacheObject} belongs to a single table, once.
+ * @param <T> Type of the entities
+ * @author frederico.pantuzza
+ */
+final class CacheObjectTable<T> {
+
+    private static final int MINIMUM_CAPACITY = 16;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private volatile AtomicReferenceArray<CacheObject<T>> table = new AtomicReferenceArray<>(MINIMUM_CAPACITY);
+
+    /**
+     * Incremented before and after each resize, so a lookup that misses can tell whether the chains were relinked
+     * under it (the count is odd while a resize is in progress).
+     */
+    private volatile int resizes;
+
+    private int size;
+
+    /**
+     * Mixes the high bits of a key's hash code into the low ones, which select the bucket.
+     * @param key The key
+     * @return The hash of the key
+     */
+    private static int hash(Object key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @param key The lookup key
+     * @return The {@link CacheObject} of the key. <code>null</code> if there is none
+     */
+    CacheObject<T> get(Object key) {
+        int hash = hash(key);
+        while (true) {
+            int resizes = this.resizes;
+            AtomicReferenceArray<CacheObject<T>> table = this.table;
+            for (CacheObject<T> c = table.get(hash & (table.length() - 1)); c != null; c = c.tableNext) {
+                Object storedKey = c.getKey();
+                if (storedKey == key || key.equals(storedKey)) {
+                    return c;
+                }
+            }
+            if ((resizes & 1) == 0 && resizes == this.resizes) {
+                return null;
+            }
+            /* Relinked while it was looked up: the chain may have missed it. */
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Adds a {@link CacheObject}, whose key must not be in the table yet.
+     * @param cacheObject The {@link CacheObject}, with its key already set
+     */
+    void add(CacheObject<T> cacheObject) {
+        AtomicReferenceArray<CacheObject<T>> table = this.table;
+        int index = hash(cacheObject.getKey()) & (table.length() - 1);
+        /* Linked before being published, so that readers always find the rest of the chain behind it. */
+        cacheObject.tableNext = table.get(index);
+        table.set(index, cacheObject);
+        this.size++;
+        if (this.size > table.length() - (table.length() >>> 2) && table.length() < MAXIMUM_CAPACITY) {
+            resize(table.length() << 1);
+        }
+    }
+
+    /**
+     * @param key The key, as stored in the table or as looked up
+     * @return The removed {@link CacheObject} of the key. <code>null</code> if there was none
+     */
+    CacheObject<T> remove(Object key) {
+        AtomicReferenceArray<CacheObject<T>> table = this.table;
+        int index = hash(key) & (table.length() - 1);
+        CacheObject<T> previous = null;
+        for (CacheObject<T> c = table.get(index); c != null; previous = c, c = c.tableNext) {
+            Object storedKey = c.getKey();
+            if (storedKey == key || key.equals(storedKey)) {
+                unlink(table, index, previous, c);
+                return c;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes a {@link CacheObject}, unless it was already removed.
+     * @param cacheObject The {@link CacheObject}
+     * @return <code>true</code> if it was removed by this call
+     */
+    boolean remove(CacheObject<T> cacheObject) {
+        AtomicReferenceArray<CacheObject<T>> table = this.table;
+        int index = hash(cacheObject.getKey()) & (table.length() - 1);
+        CacheObject<T> previous = null;
+        for (CacheObject<T> c = table.get(index); c != null; previous = c, c = c.tableNext) {
+            if (c == cacheObject) {
+                unlink(table, index, previous, c);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes a {@link CacheObject} out of its chain. Its own link is kept, so that readers standing on it still reach
+     * the rest of the chain.
+     * @param table The table
+     * @param index The bucket of the chain
+     * @param previous The previous object in the chain. <code>null</code> if it is the first one
+     * @param cacheObject The object to take out
+     */
+    private void unlink(AtomicReferenceArray<CacheObject<T>> table, int index, CacheObject<T> previous,
+            CacheObject<T> cacheObject) {
+        if (previous == null) {
+            table.set(index, cacheObject.tableNext);
+        } else {
+            previous.tableNext = cacheObject.tableNext;
+        }
+        this.size--;
+    }
+
+    /**
+     * Relinks every {@link CacheObject} into a table of another capacity. Readers may miss objects while they are
+     * moved, which is why {@link #resizes} is counted.
+     * @param capacity The new capacity. Must be a power of two
+     */
+    private void resize(int capacity) {
+        AtomicReferenceArray<CacheObject<T>> oldTable = this.table;
+        AtomicReferenceArray<CacheObject<T>> newTable = new AtomicReferenceArray<>(capacity);
+        this.resizes++;
+        for (int i = 0; i < oldTable.length(); i++) {
+            CacheObject<T> c = oldTable.get(i);
+            while (c != null) {
+                CacheObject<T> next = c.tableNext;
+                int index = hash(c.getKey()) & (capacity - 1);
+                c.tableNext = newTable.get(index);
+                newTable.set(index, c);
+                c = next;
+            }
+        }
+        this.table = newTable;
+        this.resizes++;
+    }
+
+    /**
+     * @return The number of {@link CacheObject}s
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Removes every {@link CacheObject}, shrinking the table back to its minimum capacity.
+     */
+    void clear() {
+        this.table = new AtomicReferenceArray<>(MINIMUM_CAPACITY);
+        this.size = 0;
+    }
+
+    /**
+     * Visits every {@link CacheObject}.
+     * @param action Called for each object. May remove the object it is called for
+     */
+    void forEach(Consumer<? super CacheObject<T>> action) {
+        int bucket = 0;
+        while (bucket >= 0) {
+            bucket = forEach(bucket, Integer.MAX_VALUE, action);
+        }
+    }
+
+    /**
+     * Visits the {@link CacheObject}s of whole buckets from a given one on, until a limited number of objects were
+     * visited. The visit can be resumed from the returned bucket after the table changed: objects moved in the meantime
+     * (by a resize) may then be visited again, or only by the next visit.
+     * @param fromBucket Bucket where the visit starts (or resumes)
+     * @param limit Number of objects after which the visit stops, at the end of the current bucket
+     * @param action Called for each object. May change the table
+     * @return The bucket where the visit should resume. <code>-1</code> if it reached the end of the table
+     */
+    int forEach(int fromBucket, int limit, Consumer<? super CacheObject<T>> action) {
+        int bucket = fromBucket;
+        int visited = 0;
+        while (visited < limit) {
+            AtomicReferenceArray<CacheObject<T>> table = this.table;
+            if (bucket >= table.length()) {
+                return -1;
+            }
+            CacheObject<T> c = table.get(bucket);
+            while (c != null) {
+                /* Read first, since the action may remove the object (which then keeps its link anyway). */
+                CacheObject<T> next = c.tableNext;
+                action.accept(c);
+                visited++;
+                c = next;
+            }
+            bucket++;
+        }
+        return bucket < this.table.length() ? bucket : -1;
+    }
+}
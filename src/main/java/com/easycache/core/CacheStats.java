@@ -0,0 +1,217 @@
+package com.easycache.core;
+
+/**
+ * Statistics of a {@link Cache}, as recorded until the moment they were requested. Only recorded if enabled (see
+ * {@link Cache#setRecordStats(boolean)}).
+ * <p>
+ * Immutable.
+ * @author frederico.pantuzza
+ * @see Cache#stats()
+ */
+public final class CacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final long[] evictionCounts;
+    private final long[] loadLatencyCounts;
+    private final long cleanupCount;
+    private final long totalCleanupTime;
+    private final long totalCleanupLockTime;
+    private final long[] cleanupLatencyCounts;
+    private final long lockWaitCount;
+    private final long totalLockWaitTime;
+
+    /**
+     * Constructor.
+     * @param hitCount See {@link #hitCount()}
+     * @param missCount See {@link #missCount()}
+     * @param loadSuccessCount See {@link #loadSuccessCount()}
+     * @param loadFailureCount See {@link #loadFailureCount()}
+     * @param totalLoadTime See {@link #totalLoadTime()}
+     * @param evictionCounts Number of evictions by {@link RemovalCause#ordinal()}
+     * @param loadLatencyCounts Buckets of the {@link LatencyHistogram} of the load times
+     * @param cleanupCount See {@link #cleanupCount()}
+     * @param totalCleanupTime See {@link #totalCleanupTime()}
+     * @param totalCleanupLockTime See {@link #totalCleanupLockTime()}
+     * @param cleanupLatencyCounts Buckets of the {@link LatencyHistogram} of the cleanup times
+     * @param lockWaitCount See {@link #lockWaitCount()}
+     * @param totalLockWaitTime See {@link #totalLockWaitTime()}
+     */
+    CacheStats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount, long totalLoadTime,
+            long[] evictionCounts, long[] loadLatencyCounts, long cleanupCount, long totalCleanupTime,
+            long totalCleanupLockTime, long[] cleanupLatencyCounts, long lockWaitCount, long totalLockWaitTime) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.evictionCounts = evictionCounts;
+        this.loadLatencyCounts = loadLatencyCounts;
+        this.cleanupCount = cleanupCount;
+        this.totalCleanupTime = totalCleanupTime;
+        this.totalCleanupLockTime = totalCleanupLockTime;
+        this.cleanupLatencyCounts = cleanupLatencyCounts;
+        this.lockWaitCount = lockWaitCount;
+        this.totalLockWaitTime = totalLockWaitTime;
+    }
+
+    /**
+     * @return Statistics where nothing was recorded
+     */
+    static CacheStats empty() {
+        return new CacheStats(0L, 0L, 0L, 0L, 0L, new long[RemovalCause.values().length],
+                new long[LatencyHistogram.BUCKET_COUNT], 0L, 0L, 0L, new long[LatencyHistogram.BUCKET_COUNT], 0L, 0L);
+    }
+
+    /**
+     * @return The number of requests that returned a cached entity
+     */
+    public long hitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * @return The number of requests that did not find a cached entity, whether it was then loaded or not
+     */
+    public long missCount() {
+        return this.missCount;
+    }
+
+    /**
+     * @return The number of requests ({@link #hitCount()} plus {@link #missCount()})
+     */
+    public long requestCount() {
+        return this.hitCount + this.missCount;
+    }
+
+    /**
+     * @return The ratio of requests that were hits. <code>1.0</code> if there was no request
+     */
+    public double hitRate() {
+        long requestCount = requestCount();
+        return requestCount == 0L ? 1.0d : (double) this.hitCount / requestCount;
+    }
+
+    /**
+     * @return The number of calls to the {@link CacheLoader} that succeeded. A batch load counts as a single call
+     */
+    public long loadSuccessCount() {
+        return this.loadSuccessCount;
+    }
+
+    /**
+     * @return The number of calls to the {@link CacheLoader} that failed. A batch load counts as a single call
+     */
+    public long loadFailureCount() {
+        return this.loadFailureCount;
+    }
+
+    /**
+     * @return The number of calls to the {@link CacheLoader}
+     */
+    public long loadCount() {
+        return this.loadSuccessCount + this.loadFailureCount;
+    }
+
+    /**
+     * @return The total time spent by the {@link CacheLoader}, in nanoseconds
+     */
+    public long totalLoadTime() {
+        return this.totalLoadTime;
+    }
+
+    /**
+     * @return The average time spent by each call to the {@link CacheLoader}, in nanoseconds
+     */
+    public double averageLoadPenalty() {
+        long loadCount = loadCount();
+        return loadCount == 0L ? 0.0d : (double) this.totalLoadTime / loadCount;
+    }
+
+    /**
+     * Gets the time spent by the calls to the {@link CacheLoader} at a percentile, within 12.5%.
+     * @param percentile The percentile, from <code>0</code> to <code>100</code> (e.g. <code>99.9</code>)
+     * @return The time at the percentile, in nanoseconds. <code>0</code> if there was no load
+     */
+    public long loadLatencyPercentile(double percentile) {
+        return LatencyHistogram.valueAt(this.loadLatencyCounts, percentile);
+    }
+
+    /**
+     * @return The number of entities removed by the cache, whatever the cause
+     */
+    public long evictionCount() {
+        long evictionCount = 0L;
+        for (long count : this.evictionCounts) {
+            evictionCount += count;
+        }
+        return evictionCount;
+    }
+
+    /**
+     * @param cause A removal cause
+     * @return The number of entities removed by the cache because of the cause
+     */
+    public long evictionCount(RemovalCause cause) {
+        return this.evictionCounts[cause.ordinal()];
+    }
+
+    /**
+     * @return The number of full cleanup passes, either by the cleanup thread or by {@link Cache#cleanup()}
+     */
+    public long cleanupCount() {
+        return this.cleanupCount;
+    }
+
+    /**
+     * @return The total time spent by the cleanup passes, in nanoseconds. Includes the time waiting for the locks
+     *         between slices
+     */
+    public long totalCleanupTime() {
+        return this.totalCleanupTime;
+    }
+
+    /**
+     * @return The total time the cleanup passes held the write-locks of the segments, in nanoseconds, during which no
+     *         entity could be inserted in them
+     */
+    public long totalCleanupLockTime() {
+        return this.totalCleanupLockTime;
+    }
+
+    /**
+     * Gets the time spent by the cleanup passes at a percentile, within 12.5%.
+     * @param percentile The percentile, from <code>0</code> to <code>100</code>
+     * @return The time at the percentile, in nanoseconds. <code>0</code> if there was no cleanup
+     */
+    public long cleanupTimePercentile(double percentile) {
+        return LatencyHistogram.valueAt(this.cleanupLatencyCounts, percentile);
+    }
+
+    /**
+     * @return The number of times a write-lock of a segment (for an insertion, an expiration or a cleanup) was not
+     *         immediately available
+     */
+    public long lockWaitCount() {
+        return this.lockWaitCount;
+    }
+
+    /**
+     * @return The total time spent waiting for the write-locks of the segments, in nanoseconds
+     */
+    public long totalLockWaitTime() {
+        return this.totalLockWaitTime;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats[hitCount=" + this.hitCount + ", missCount=" + this.missCount + ", loadSuccessCount="
+                + this.loadSuccessCount + ", loadFailureCount=" + this.loadFailureCount + ", totalLoadTime="
+                + this.totalLoadTime + ", evictionCount=" + evictionCount() + ", cleanupCount=" + this.cleanupCount
+                + ", totalCleanupTime=" + this.totalCleanupTime + ", totalCleanupLockTime=" + this.totalCleanupLockTime
+                + ", lockWaitCount=" + this.lockWaitCount + ", totalLockWaitTime=" + this.totalLockWaitTime + "]";
+    }
+}
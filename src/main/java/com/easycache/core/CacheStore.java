@@ -0,0 +1,94 @@
+package com.easycache.core;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Second level of a tiered cache, shared by the caches of several nodes (for example, a distributed key-value store).
+ * <p>
+ * When an entity is not in the cache, the store is consulted before the {@link CacheLoader}, and every entity loaded
+ * by the loader is put in the store. This way, each entity is loaded once for the whole cluster instead of once per
+ * node.
+ * <p>
+ * The store is a best-effort tier: when one of its methods fails, the cache ignores the error and falls back to the
+ * loader. Implementations must be thread-safe.
+ * @param <K> Type of the entity's key stored by the cache
+ * @param <T> Type of the entity stored by the cache
+ * @author frederico.pantuzza
+ * @see Cache#setCacheStore(CacheStore)
+ * @see com.easycache.core.store.InMemoryCacheStore
+ * @see com.easycache.core.store.FileCacheStore
+ */
+public interface CacheStore<K, T> {
+
+    /**
+     * Gets an entity from the store.
+     * @param key Entity's key
+     * @return The entity or <code>null</code> if it is not in the store
+     * @throws Exception If the store could not be read
+     */
+    T get(K key) throws Exception;
+
+    /**
+     * Gets several entities at once. Used by the bulk operations of the cache.
+     * <p>
+     * By default, calls {@link #get(Object)} for each key.
+     * @param keys Entities' keys
+     * @return The entities by their keys. Keys of entities that are not in the store are left out of the map
+     * @throws Exception If the store could not be read
+     */
+    default Map<K, T> getAll(Set<K> keys) throws Exception {
+        Map<K, T> entities = new HashMap<>();
+        for (K key : keys) {
+            T entity = get(key);
+            if (entity != null) {
+                entities.put(key, entity);
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Puts an entity in the store, replacing the previous one if there is one.
+     * @param key Entity's key
+     * @param entity The entity. Never <code>null</code>
+     * @throws Exception If the store could not be written
+     */
+    void put(K key, T entity) throws Exception;
+
+    /**
+     * Puts several entities at once. Used by the bulk operations of the cache.
+     * <p>
+     * By default, calls {@link #put(Object, Object)} for each entity.
+     * @param entities The entities by their keys
+     * @throws Exception If the store could not be written
+     */
+    default void putAll(Map<K, T> entities) throws Exception {
+        for (Entry<K, T> entity : entities.entrySet()) {
+            put(entity.getKey(), entity.getValue());
+        }
+    }
+
+    /**
+     * Removes an entity from the store, if it is there.
+     * @param key Entity's key
+     * @throws Exception If the store could not be written
+     */
+    void invalidate(K key) throws Exception;
+
+    /**
+     * Removes several entities at once.
+     * <p>
+     * By default, calls {@link #invalidate(Object)} for each key.
+     * @param keys Entities' keys
+     * @throws Exception If the store could not be written
+     */
+    default void invalidateAll(Collection<K> keys) throws Exception {
+        for (K key : keys) {
+            invalidate(key);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.easycache.core;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+/**
+ * Reference to a cached entity that knows the {@link CacheObject} holding it (and, through it, the key of the entity).
+ * Once the entity is collected and the reference is queued, the cache finds the entry to remove directly from the
+ * reference, without any map from references to keys.
+ * @param <T> Type of the referred entity
+ * @author frederico.pantuzza
+ */
+interface EntityReference<T> {
+
+    /**
+     * @return The referred entity. <code>null</code> if it was already collected
+     * @see java.lang.ref.Reference#get()
+     */
+    T get();
+
+    /**
+     * @return The {@link CacheObject} holding the entity
+     */
+    CacheObject<T> getCacheObject();
+
+    /**
+     * @return The strength of the reference. Never {@link ReferenceStrength#STRONG}
+     */
+    ReferenceStrength getStrength();
+
+    /**
+     * Creates a reference to an entity.
+     * @param strength The strength of the reference. Must not be {@link ReferenceStrength#STRONG}
+     * @param entity The referred entity
+     * @param referenceQueue The {@link ReferenceQueue} where the reference will be queued after collected
+     * @param cacheObject The {@link CacheObject} holding the entity
+     * @return The created reference
+     */
+    static <T> EntityReference<T> newReference(ReferenceStrength strength, T entity, ReferenceQueue<T> referenceQueue,
+            CacheObject<T> cacheObject) {
+        assert strength != ReferenceStrength.STRONG;
+        if (strength == ReferenceStrength.WEAK) {
+            return new Weak<>(entity, referenceQueue, cacheObject);
+        }
+        return new Soft<>(entity, referenceQueue, cacheObject);
+    }
+
+    /**
+     * {@link EntityReference} for {@link ReferenceStrength#SOFT}.
+     * @param <T> Type of the referred entity
+     */
+    static final class Soft<T> extends SoftReference<T> implements EntityReference<T> {
+
+        private final CacheObject<T> cacheObject;
+
+        Soft(T entity, ReferenceQueue<T> referenceQueue, CacheObject<T> cacheObject) {
+            super(entity, referenceQueue);
+            this.cacheObject = cacheObject;
+        }
+
+        @Override
+        public CacheObject<T> getCacheObject() {
+            return this.cacheObject;
+        }
+
+        @Override
+        public ReferenceStrength getStrength() {
+            return ReferenceStrength.SOFT;
+        }
+    }
+
+    /**
+     * {@link EntityReference} for {@link ReferenceStrength#WEAK}.
+     * @param <T> Type of the referred entity
+     */
+    static final class Weak<T> extends WeakReference<T> implements EntityReference<T> {
+
+        private final CacheObject<T> cacheObject;
+
+        Weak(T entity, ReferenceQueue<T> referenceQueue, CacheObject<T> cacheObject) {
+            super(entity, referenceQueue);
+            this.cacheObject = cacheObject;
+        }
+
+        @Override
+        public CacheObject<T> getCacheObject() {
+            return this.cacheObject;
+        }
+
+        @Override
+        public ReferenceStrength getStrength() {
+            return ReferenceStrength.WEAK;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.easycache.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Size-based eviction policy of the cache, implementing W-TinyLFU.
+ * <p>
+ * New keys enter a small LRU window (1% of the capacity). Keys leaving the window become candidates for the main
+ * space, a segmented LRU made of a probation and a protected (80% of the main space) segment. A candidate is only
+ * admitted if the {@link FrequencySketch} estimates that it is accessed more often than the key it would replace, which
+ * keeps the hit ratio high even when scans go through the cache. Keys accessed while in probation are promoted to the
+ * protected segment.
+ * <p>
+ * The policy has no entries of its own: the segments are lists linked through the {@link CacheObjectLinks} of the
+ * {@link CacheObject}s, so tracking a key costs no allocation and no lookup.
+ * <p>
+ * Thread-safe. Readers record their accesses in a lossy {@link ReadBuffer}, so they never wait for the policy's lock.
+ * @author frederico.pantuzza
+ */
+final class EvictionPolicy {
+
+    /** Part of the capacity reserved to the main space (the remaining is reserved to the window). */
+    private static final double MAIN_PERCENTAGE = 0.99d;
+    /** Part of the main space reserved to the protected segment. */
+    private static final double PROTECTED_PERCENTAGE = 0.80d;
+
+    /** Queue of the {@link CacheObject}s that are not tracked by the policy (the default). */
+    private static final byte NONE = 0;
+    private static final byte WINDOW = 1;
+    private static final byte PROBATION = 2;
+    private static final byte PROTECTED = 3;
+
+    /** Maximum total weight. */
+    private final long maximum;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+
+    private final NodeDeque windowDeque = new NodeDeque();
+    private final NodeDeque probationDeque = new NodeDeque();
+    private final NodeDeque protectedDeque = new NodeDeque();
+
+    /** Number of tracked keys, which sizes the {@link #sketch}. */
+    private long size;
+    private long weightedSize;
+    private long windowWeightedSize;
+    private long protectedWeightedSize;
+
+    private final FrequencySketch<Object> sketch;
+    private final ReadBuffer<CacheObject<?>> readBuffer = new ReadBuffer<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Applies each access drained from the {@link #readBuffer}. Kept in a field so that draining allocates nothing. */
+    private final Consumer<CacheObject<?>> accessConsumer = this::onRecordedAccess;
+
+    /**
+     * Constructor.
+     * @param maximum Maximum total weight of the keys. Must be greater than zero
+     */
+    EvictionPolicy(long maximum) {
+        this.maximum = maximum;
+        long mainMaximum = (long) (maximum * MAIN_PERCENTAGE);
+        this.windowMaximum = maximum - mainMaximum;
+        this.protectedMaximum = (long) (mainMaximum * PROTECTED_PERCENTAGE);
+        this.sketch = new FrequencySketch<>();
+    }
+
+    /**
+     * Records an access to a key. Never blocks: the access may be dropped if the policy is too busy.
+     * @param cacheObject The {@link CacheObject} of the key
+     */
+    void recordAccess(CacheObject<?> cacheObject) {
+        if (this.readBuffer.offer(cacheObject) && this.lock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Records the insertion (or the update) of a key, and evicts the keys that exceed the maximum weight.
+     * @param cacheObject The {@link CacheObject} of the key, whose key must be already set
+     * @param weight The key's weight, which is recorded in the {@link CacheObject}
+     * @return The evicted keys (as stored in the {@link CacheObject}s), which might include the given key itself
+     */
+    List<Object> recordWrite(CacheObject<?> cacheObject, int weight) {
+        this.lock.lock();
+        try {
+            drainReadBuffer();
+            this.sketch.increment(cacheObject.getKey());
+
+            if (cacheObject.links.policyQueue == NONE) {
+                cacheObject.setWeight(weight);
+                cacheObject.links.policyQueue = WINDOW;
+                this.windowDeque.addLast(cacheObject);
+                this.windowWeightedSize += weight;
+                this.weightedSize += weight;
+                this.sketch.ensureCapacity(++this.size);
+            } else {
+                int difference = weight - cacheObject.getWeight();
+                cacheObject.setWeight(weight);
+                this.weightedSize += difference;
+                if (cacheObject.links.policyQueue == WINDOW) {
+                    this.windowWeightedSize += difference;
+                } else if (cacheObject.links.policyQueue == PROTECTED) {
+                    this.protectedWeightedSize += difference;
+                }
+                onAccess(cacheObject);
+            }
+
+            if (weight > this.maximum) {
+                /* Could never fit: evicted on its own, instead of pushing every other key out first. */
+                unlink(cacheObject);
+                return Collections.singletonList(cacheObject.getKey());
+            }
+            return evict();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Records the removal of a key from the cache.
+     * @param cacheObject The {@link CacheObject} of the key
+     */
+    void recordRemoval(CacheObject<?> cacheObject) {
+        this.lock.lock();
+        try {
+            if (cacheObject.links.policyQueue != NONE) {
+                unlink(cacheObject);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets every key (but not their frequencies).
+     */
+    void clear() {
+        this.lock.lock();
+        try {
+            drainReadBuffer();
+            /* The objects are unlinked one by one, since readers may still record accesses to them. */
+            this.windowDeque.clear();
+            this.probationDeque.clear();
+            this.protectedDeque.clear();
+            this.size = 0L;
+            this.weightedSize = 0L;
+            this.windowWeightedSize = 0L;
+            this.protectedWeightedSize = 0L;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Applies the accesses recorded by the readers.
+     * <p>
+     * You may only call this method when holding the lock.
+     */
+    private void drainReadBuffer() {
+        this.readBuffer.drain(this.accessConsumer);
+    }
+
+    /**
+     * Applies an access recorded by a reader.
+     * @param cacheObject The {@link CacheObject} of the accessed key, which might have been removed meanwhile
+     */
+    private void onRecordedAccess(CacheObject<?> cacheObject) {
+        this.sketch.increment(cacheObject.getKey());
+        if (cacheObject.links.policyQueue != NONE) {
+            onAccess(cacheObject);
+        }
+    }
+
+    /**
+     * Moves an accessed key to the most recently used position of its segment, promoting it if in probation.
+     * @param node The key's {@link CacheObject}
+     */
+    private void onAccess(CacheObject<?> node) {
+        switch (node.links.policyQueue) {
+        case WINDOW:
+            this.windowDeque.moveToBack(node);
+            break;
+
+        case PROBATION:
+            this.probationDeque.remove(node);
+            node.links.policyQueue = PROTECTED;
+            this.protectedDeque.addLast(node);
+            this.protectedWeightedSize += node.getWeight();
+
+            /* Demotes the least recently used protected keys, if the segment overflowed. */
+            while (this.protectedWeightedSize > this.protectedMaximum) {
+                CacheObject<?> demoted = this.protectedDeque.peekFirst();
+                if (demoted == null || demoted == node) {
+                    break;
+                }
+                this.protectedDeque.remove(demoted);
+                this.protectedWeightedSize -= demoted.getWeight();
+                demoted.links.policyQueue = PROBATION;
+                this.probationDeque.addLast(demoted);
+            }
+            break;
+
+        default:
+            this.protectedDeque.moveToBack(node);
+            break;
+        }
+    }
+
+    /**
+     * Evicts keys until the total weight is under the maximum.
+     * @return The evicted keys
+     */
+    private List<Object> evict() {
+        /* The keys leaving the window become candidates, at the most recently used end of the probation segment. */
+        CacheObject<?> candidate = null;
+        while (this.windowWeightedSize > this.windowMaximum) {
+            CacheObject<?> node = this.windowDeque.peekFirst();
+            if (node == null) {
+                break;
+            }
+            this.windowDeque.remove(node);
+            this.windowWeightedSize -= node.getWeight();
+            node.links.policyQueue = PROBATION;
+            this.probationDeque.addLast(node);
+            if (candidate == null) {
+                candidate = node;
+            }
+        }
+
+        if (this.weightedSize <= this.maximum) {
+            return Collections.emptyList();
+        }
+
+        List<Object> evicted = new ArrayList<>();
+        while (this.weightedSize > this.maximum) {
+            CacheObject<?> victim = this.probationDeque.peekFirst();
+            if (victim == null) {
+                victim = this.protectedDeque.peekFirst();
+            }
+            if (victim == null) {
+                victim = this.windowDeque.peekFirst();
+            }
+            if (victim == null) {
+                break;
+            }
+
+            if (candidate != null
+                    && (victim == candidate || candidate.getWeight() > this.maximum
+                            || this.sketch.frequency(candidate.getKey()) <= this.sketch.frequency(victim.getKey()))) {
+                /* The candidate is rejected. */
+                victim = candidate;
+            }
+            if (victim == candidate) {
+                candidate = candidate.links.policyNext;
+            }
+
+            unlink(victim);
+            evicted.add(victim.getKey());
+        }
+        return evicted;
+    }
+
+    /**
+     * Removes a {@link CacheObject} from its segment.
+     * @param node The {@link CacheObject}
+     */
+    private void unlink(CacheObject<?> node) {
+        this.size--;
+        this.weightedSize -= node.getWeight();
+        switch (node.links.policyQueue) {
+        case WINDOW:
+            this.windowDeque.remove(node);
+            this.windowWeightedSize -= node.getWeight();
+            break;
+        case PROBATION:
+            this.probationDeque.remove(node);
+            break;
+        default:
+            this.protectedDeque.remove(node);
+            this.protectedWeightedSize -= node.getWeight();
+            break;
+        }
+        node.links.policyQueue = NONE;
+    }
+
+    /**
+     * Doubly-linked list of {@link CacheObject}s, from the least to the most recently used.
+     */
+    private static final class NodeDeque {
+
+        private CacheObject<?> first;
+        private CacheObject<?> last;
+
+        CacheObject<?> peekFirst() {
+            return this.first;
+        }
+
+        void addLast(CacheObject<?> node) {
+            CacheObjectLinks links = node.links;
+            links.policyPrevious = this.last;
+            links.policyNext = null;
+            if (this.last == null) {
+                this.first = node;
+            } else {
+                this.last.links.policyNext = node;
+            }
+            this.last = node;
+        }
+
+        void remove(CacheObject<?> node) {
+            CacheObjectLinks links = node.links;
+            if (links.policyPrevious == null) {
+                this.first = links.policyNext;
+            } else {
+                links.policyPrevious.links.policyNext = links.policyNext;
+            }
+            if (links.policyNext == null) {
+                this.last = links.policyPrevious;
+            } else {
+                links.policyNext.links.policyPrevious = links.policyPrevious;
+            }
+            links.policyPrevious = null;
+            links.policyNext = null;
+        }
+
+        void moveToBack(CacheObject<?> node) {
+            if (node != this.last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        void clear() {
+            CacheObject<?> node = this.first;
+            while (node != null) {
+                CacheObjectLinks links = node.links;
+                CacheObject<?> next = links.policyNext;
+                links.policyPrevious = null;
+                links.policyNext = null;
+                links.policyQueue = NONE;
+                node = next;
+            }
+            this.first = null;
+            this.last = null;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.easycache.core;
+
+/**
+ * Determines when each cached entity expires. Expired entities are never returned by the cache, and are removed as
+ * their expiration time passes.
+ * <p>
+ * All times and durations are in milliseconds. Returning {@link Long#MAX_VALUE} as a duration means that the entity
+ * never expires. The most common policies are available through {@link #afterWrite(long)} and
+ * {@link #afterAccess(long)}.
+ * <p>
+ * <b>Careful!</b> These functions should not be too time expensive since they will be called several times by the
+ * cache.
+ * @param <K> Cache's key type
+ * @param <T> Cache's object type
+ * @author frederico.pantuzza
+ */
+public interface Expiry<K, T> {
+
+    /**
+     * Determines how long an entity stays on cache after being inserted.
+     * @param key Entity's key
+     * @param entity The inserted entity. It is <code>null</code> if the loader did not find it
+     * @param currentTime The current time
+     * @return The duration until the entity expires
+     */
+    long expireAfterCreate(K key, T entity, long currentTime);
+
+    /**
+     * Determines how long an entity stays on cache after being updated.
+     * @param key Entity's key
+     * @param entity The updated entity. It is <code>null</code> if the loader did not find it
+     * @param currentTime The current time
+     * @param currentDuration The remaining duration until the previous entity expires
+     * @return The duration until the entity expires
+     */
+    long expireAfterUpdate(K key, T entity, long currentTime, long currentDuration);
+
+    /**
+     * Determines how long an entity stays on cache after being read.
+     * @param key Entity's key
+     * @param entity The read entity
+     * @param currentTime The current time
+     * @param currentDuration The remaining duration until the entity expires
+     * @return The duration until the entity expires. Return <code>currentDuration</code> to keep it unchanged
+     */
+    long expireAfterRead(K key, T entity, long currentTime, long currentDuration);
+
+    /**
+     * Creates an {@link Expiry} where entities expire after a fixed duration since they were inserted or updated.
+     * @param duration The duration, in milliseconds. Must be greater than zero
+     * @return The {@link Expiry}
+     * @throws IllegalArgumentException If <code>duration</code> is less or equal to zero
+     */
+    static <K, T> Expiry<K, T> afterWrite(long duration) throws IllegalArgumentException {
+        return new FixedExpiry<>(duration, false);
+    }
+
+    /**
+     * Creates an {@link Expiry} where entities expire after a fixed duration since they were last inserted, updated or
+     * read.
+     * @param duration The duration, in milliseconds. Must be greater than zero
+     * @return The {@link Expiry}
+     * @throws IllegalArgumentException If <code>duration</code> is less or equal to zero
+     */
+    static <K, T> Expiry<K, T> afterAccess(long duration) throws IllegalArgumentException {
+        return new FixedExpiry<>(duration, true);
+    }
+}
@@ -0,0 +1,44 @@
+package com.easycache.core;
+
+/**
+ * {@link Expiry} with a fixed duration, counted either since the last write or since the last access.
+ * @param <K> Cache's key type
+ * @param <T> Cache's object type
+ * @see Expiry#afterWrite(long)
+ * @see Expiry#afterAccess(long)
+ * @author frederico.pantuzza
+ */
+final class FixedExpiry<K, T> implements Expiry<K, T> {
+
+    private final long duration;
+    private final boolean afterAccess;
+
+    /**
+     * Constructor.
+     * @param duration The duration, in milliseconds. Must be greater than zero
+     * @param afterAccess <code>true</code> if reads also restart the duration
+     * @throws IllegalArgumentException If <code>duration</code> is less or equal to zero
+     */
+    FixedExpiry(long duration, boolean afterAccess) throws IllegalArgumentException {
+        if (duration <= 0L) {
+            throw new IllegalArgumentException("duration must be greater than zero");
+        }
+        this.duration = duration;
+        this.afterAccess = afterAccess;
+    }
+
+    @Override
+    public long expireAfterCreate(K key, T entity, long currentTime) {
+        return this.duration;
+    }
+
+    @Override
+    public long expireAfterUpdate(K key, T entity, long currentTime, long currentDuration) {
+        return this.duration;
+    }
+
+    @Override
+    public long expireAfterRead(K key, T entity, long currentTime, long currentDuration) {
+        return this.afterAccess ? this.duration : currentDuration;
+    }
+}
@@ -0,0 +1,152 @@
+package com.easycache.core;
+
+/**
+ * Probabilistic estimate of how often the keys of a cache are accessed: a count-min sketch with four 4-bit counters
+ * per key. Once enough accesses are recorded, all the counters are halved, so the estimate favors recent accesses.
+ * <p>
+ * The sketch starts small and grows along with the number of keys (see {@link #ensureCapacity(long)}), since the
+ * maximum of a cache bounded by weight tells nothing about how many keys it will hold.
+ * <p>
+ * Not thread-safe: it must be used while holding the owner's lock.
+ * @param <K> Type of the keys
+ * @author frederico.pantuzza
+ */
+final class FrequencySketch<K> {
+
+    /** Smallest number of keys the sketch is sized for. */
+    private static final int MINIMUM_CAPACITY = 16;
+    /** Largest number of keys the sketch is sized for. */
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /** Seeds of the four hash functions. */
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+            0xcbf29ce484222325L };
+    /** Clears the lowest bit of every counter after a shift, when halving them. */
+    private static final long RESET_MASK = 0x7777777777777777L;
+    /** Selects the lowest bit of every counter. */
+    private static final long ONE_MASK = 0x1111111111111111L;
+    /** Maximum value of a counter. */
+    private static final int MAXIMUM_FREQUENCY = 15;
+
+    /** Sixteen counters per slot. */
+    private long[] table;
+    private int tableMask;
+
+    /** Number of recorded accesses after which the counters are halved. */
+    private int sampleSize;
+    private int size;
+
+    /**
+     * Constructor. The sketch is sized for a few keys only.
+     */
+    FrequencySketch() {
+        resize(MINIMUM_CAPACITY);
+    }
+
+    /**
+     * Grows the sketch, if needed, so that it can tell apart the frequencies of a number of keys. The recorded
+     * frequencies are forgotten whenever the sketch grows.
+     * @param expectedSize Expected number of keys
+     */
+    void ensureCapacity(long expectedSize) {
+        if (expectedSize > this.table.length && this.table.length < MAXIMUM_CAPACITY) {
+            resize((int) Math.min(expectedSize, MAXIMUM_CAPACITY));
+        }
+    }
+
+    /**
+     * Replaces the table with an empty one.
+     * @param capacity Number of keys the new table is sized for
+     */
+    private void resize(int capacity) {
+        this.table = new long[capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1];
+        this.tableMask = this.table.length - 1;
+        /* Computed as a long, since ten times the capacity may not fit in an int. */
+        this.sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+        this.size = 0;
+    }
+
+    /**
+     * @param key The key
+     * @return The estimated number of recent accesses to the key, up to {@value #MAXIMUM_FREQUENCY}
+     */
+    int frequency(K key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = MAXIMUM_FREQUENCY;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((this.table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an access to the key.
+     * @param key The key
+     */
+    void increment(K key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+
+        if (added && ++this.size == this.sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Increments a counter, unless it is already at its maximum value.
+     * @param i Index of the slot
+     * @param j Index of the counter in the slot
+     * @return <code>true</code> if the counter was incremented
+     */
+    private boolean incrementAt(int i, int j) {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ((this.table[i] & mask) != mask) {
+            this.table[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halves every counter, so that old accesses weigh less than new ones.
+     */
+    private void reset() {
+        int count = 0;
+        for (int i = 0; i < this.table.length; i++) {
+            count += Long.bitCount(this.table[i] & ONE_MASK);
+            this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+        }
+        this.size = (this.size >>> 1) - (count >>> 2);
+    }
+
+    /**
+     * @param hash The spread hash of the key
+     * @param i Index of the hash function
+     * @return The slot for the key in the given hash function
+     */
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & this.tableMask;
+    }
+
+    /**
+     * Improves the distribution of poor quality hash codes.
+     * @param x The hash code
+     * @return The spread hash code
+     */
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,55 @@
+package com.easycache.core;
+
+import java.util.Collection;
+
+/**
+ * Carries invalidations between the caches of several nodes, so that an entity invalidated in one of them (see
+ * {@link Cache#invalidate(Object)} and {@link Cache#invalidateAll(Collection)}) stops being served by the others.
+ * <p>
+ * A cache subscribes itself when it starts and unsubscribes itself when it stops. The invalidations of a cache are not
+ * published one by one: they are gathered during a short window (see {@link Cache#setInvalidationWindow(long)}),
+ * repeated keys are published once, and they are published in batches. The receiving caches remove each batch with a
+ * single lock acquisition per segment.
+ * <p>
+ * Implementations must be thread-safe.
+ * @param <K> Type of the entity's key stored by the caches
+ * @author frederico.pantuzza
+ * @see Cache#setInvalidationBus(InvalidationBus)
+ * @see com.easycache.core.invalidation.LoopbackInvalidationBus
+ */
+public interface InvalidationBus<K> {
+
+    /**
+     * Starts delivering the invalidations published by the other subscribers to a subscriber.
+     * @param subscriber The subscriber
+     */
+    void subscribe(Subscriber<K> subscriber);
+
+    /**
+     * Stops delivering invalidations to a subscriber.
+     * @param subscriber The subscriber, as given to {@link #subscribe(Subscriber)}
+     */
+    void unsubscribe(Subscriber<K> subscriber);
+
+    /**
+     * Publishes a batch of invalidations to every subscriber but the publisher. May be called after the publisher
+     * unsubscribed, to publish its last invalidations.
+     * @param publisher The subscriber publishing the invalidations
+     * @param keys The keys of the invalidated entities, without repetitions
+     */
+    void publish(Subscriber<K> publisher, Collection<K> keys);
+
+    /**
+     * Receives the invalidations published by the other subscribers.
+     * @param <K> Type of the entity's key stored by the caches
+     */
+    @FunctionalInterface
+    interface Subscriber<K> {
+
+        /**
+         * Applies a batch of invalidations.
+         * @param keys The keys of the invalidated entities
+         */
+        void onInvalidation(Collection<K> keys);
+    }
+}
@@ -0,0 +1,95 @@
+package com.easycache.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies (in nanoseconds), in the style of HdrHistogram: each power of two is split into
+ * {@value #SUB_BUCKETS} linear buckets, so that every recorded value is known within 12.5% whatever its magnitude,
+ * with a fixed and small footprint.
+ * <p>
+ * Thread-safe and lock-free.
+ * @author frederico.pantuzza
+ */
+final class LatencyHistogram {
+
+    /** Number of buckets per power of two. */
+    private static final int SUB_BUCKETS = 8;
+    /** log2 of {@link #SUB_BUCKETS}. */
+    private static final int SUB_BUCKET_BITS = 3;
+    /** Number of buckets, enough for any non-negative long. */
+    static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Records a latency.
+     * @param nanos The latency, in nanoseconds. Negative values are recorded as zero
+     */
+    void record(long nanos) {
+        this.counts.incrementAndGet(bucket(Math.max(nanos, 0L)));
+    }
+
+    /**
+     * @return The number of latencies recorded in each bucket so far
+     */
+    long[] snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = this.counts.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Finds the latency at a percentile.
+     * @param counts The bucket counts, as returned by {@link #snapshot()}
+     * @param percentile The percentile, from <code>0</code> to <code>100</code>
+     * @return The highest latency of the bucket holding the percentile. <code>0</code> if no latency was recorded
+     */
+    static long valueAt(long[] counts, double percentile) {
+        long total = 0L;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+
+        long rank = Math.max((long) Math.ceil(total * Math.min(Math.max(percentile, 0.0d), 100.0d) / 100.0d), 1L);
+        long seen = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValue(i);
+            }
+        }
+        return highestValue(counts.length - 1);
+    }
+
+    /**
+     * @param value A non-negative value
+     * @return The bucket of the value
+     */
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @param bucket A bucket
+     * @return The highest value recorded in the bucket
+     */
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1L;
+    }
+}
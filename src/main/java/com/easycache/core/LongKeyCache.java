@@ -0,0 +1,514 @@
+package com.easycache.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.StampedLock;
+
+import com.easycache.core.Cache.CacheMissBehaviour;
+import com.easycache.core.defaults.DefaultCacheObjectFactory;
+
+/**
+ * Thread-safe cache of entities identified by primitive <code>long</code> keys, with the same {@link CacheLoader},
+ * {@link CacheObjectMaintainer} and {@link CacheObjectFactory} contracts as {@link Cache}.
+ * <p>
+ * The entities are kept in {@link LongObjectMap}s, open-addressing maps of primitive keys, so each entry costs a
+ * <code>long</code> and a reference in two arrays instead of a map node and a boxed key. {@link #get(long)} neither
+ * boxes the key nor takes any lock on a hit: it reads the map optimistically and only takes the read-lock of the
+ * key's segment if a writer changed the segment in the meantime. Keys are only boxed on the slower paths: to call the
+ * {@link CacheLoader} and to track the loads in progress. Not even the {@link CacheObject}s keep their keys, so the
+ * entities collected by the garbage collector are found by sweeping the segments instead.
+ * <p>
+ * In exchange, only the core features of {@link Cache} are supported: the {@link CacheMissBehaviour}, the
+ * {@link ReferenceStrength} of the entities, the segments and the cleanup by the {@link CacheObjectMaintainer}, with
+ * at most one load in progress per key. Caches that need a maximum size, an expiry, statistics or any of the other
+ * features should be a {@link Cache Cache&lt;Long, T&gt;} instead.
+ * @param <T> Type of the cache entity
+ * @author frederico.pantuzza
+ */
+public class LongKeyCache<T> extends AbstractCache<Long, T> {
+
+    /** The segments that hold this cache's entities, by the hash of their keys. Created when the cache starts. */
+    private List<Segment> segments = Collections.emptyList();
+
+    /**
+     * Same as {@link #LongKeyCache(CacheObjectFactory, CacheLoader, CacheObjectMaintainer)}, but uses the
+     * {@link DefaultCacheObjectFactory}.
+     * @param cacheLoader (mandatory) See {@link #cacheLoader}
+     * @param cacheObjectMaintainer (mandatory) See {@link #cacheObjectMaintainer}
+     * @throws IllegalArgumentException If any of the mandatory parameters is <code>null</code>
+     */
+    public LongKeyCache(CacheLoader<Long, T> cacheLoader, CacheObjectMaintainer<Long, T> cacheObjectMaintainer)
+            throws IllegalArgumentException {
+        this(new DefaultCacheObjectFactory<>(), cacheLoader, cacheObjectMaintainer);
+    }
+
+    /**
+     * Constructor.
+     * @param cacheObjectFactory (mandatory) See {@link #cacheObjectFactory}
+     * @param cacheLoader (mandatory) See {@link #cacheLoader}
+     * @param cacheObjectMaintainer (mandatory) See {@link #cacheObjectMaintainer}
+     * @throws IllegalArgumentException If any of the mandatory parameters is <code>null</code>
+     */
+    public LongKeyCache(CacheObjectFactory<T> cacheObjectFactory, CacheLoader<Long, T> cacheLoader,
+            CacheObjectMaintainer<Long, T> cacheObjectMaintainer) throws IllegalArgumentException {
+        super(cacheObjectFactory, cacheLoader, cacheObjectMaintainer);
+    }
+
+    /**
+     * Starts this cache activity.
+     * <p>
+     * When called, this method may start at most two threads. One will be started only if {@link #cleanupInterval} is
+     * defined and call {@link #cleanup()} periodically. The other will be started unless the entities are strongly
+     * referenced, to remove the entities collected by the garbage collector: since their keys are not kept, it sweeps
+     * the segments in slices (as the cleanup does) whenever references are queued. All threads will stop whenever
+     * {@link #stop()} is called.
+     * @throws IllegalStateException If the cache is already running
+     */
+    public void start() throws IllegalStateException {
+        this.lock.writeLock().lock();
+        try {
+            checkNotRunning();
+
+            final List<Segment> segments = new ArrayList<>(this.concurrencyLevel);
+            for (int i = 0; i < this.concurrencyLevel; i++) {
+                segments.add(new Segment());
+            }
+            this.segments = segments;
+            this.running = true;
+
+            /* Starts a cleanup thread, if required. */
+            if (this.cleanupInterval != null) {
+                this.cleanupThread = startThread("Cache cleanup", Thread.MIN_PRIORITY, () -> {
+                    /* Segments are cleaned up one at a time, releasing their locks between slices. */
+                    for (Segment segment : segments) {
+                        boolean finished = false;
+                        while (!finished) {
+                            long stamp = segment.lock.writeLockInterruptibly();
+                            try {
+                                finished = segment.doCleanupSlice(getCleanupSliceLimit());
+                            } finally {
+                                segment.lock.unlockWrite(stamp);
+                            }
+                        }
+                    }
+
+                    assert LongKeyCache.this.cleanupInterval != null;
+                    Thread.sleep(LongKeyCache.this.cleanupInterval);
+                });
+            }
+
+            /* Starts a reference cleanup thread, unless the entities are strongly referenced. */
+            if (this.valueStrength != ReferenceStrength.STRONG) {
+                this.referencesCleanupThread = startThread("References cache cleanup", Thread.NORM_PRIORITY, () -> {
+                    /* A single sweep removes the entities of every reference queued so far. */
+                    LongKeyCache.this.referenceQueue.remove();
+                    while (LongKeyCache.this.referenceQueue.poll() != null) {
+                        /* Drains the queue. */
+                    }
+
+                    for (Segment segment : segments) {
+                        int cursor = 0;
+                        while (cursor >= 0) {
+                            long stamp = segment.lock.writeLockInterruptibly();
+                            try {
+                                cursor = segment.removeCollected(cursor, getCleanupSliceLimit());
+                            } finally {
+                                segment.lock.unlockWrite(stamp);
+                            }
+                        }
+                    }
+                });
+            }
+
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops this cache activity, removing every entity.
+     * <p>
+     * Whatever extra thread started by this cache will not be waited to stop here, but it is guaranteed that after
+     * exiting this method, no operation will be executed by any of them.
+     * @throws IllegalStateException If the cache is not running
+     */
+    public void stop() throws IllegalStateException {
+        this.lock.writeLock().lock();
+        try {
+            checkRunning();
+
+            /* Waits for the operations in progress in every segment. */
+            long[] stamps = new long[this.segments.size()];
+            for (int i = 0; i < stamps.length; i++) {
+                stamps[i] = this.segments.get(i).lock.writeLock();
+            }
+            this.running = false;
+            interruptThreads();
+
+            for (int i = 0; i < stamps.length; i++) {
+                Segment segment = this.segments.get(i);
+                segment.clear();
+                segment.lock.unlockWrite(stamps[i]);
+            }
+
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets an entity from the cache by its key, loading it if needed (depending on the {@link #cacheMissBehaviour}).
+     * A hit neither boxes the key nor takes any lock.
+     * @param key Key of the desired entity
+     * @return The retrieved entity. <code>null</code> if it does not exist or is not maintained by the cache
+     * @throws Exception If there was an error when loading a new entity
+     * @see CacheLoader
+     */
+    public T get(long key) throws Exception {
+        checkRunning();
+
+        CacheObject<T> cacheObject = segmentFor(key).get(key);
+        if (cacheObject != null) {
+            T entity = cacheObject.getEntity(true);
+            if (entity != null) {
+                /*
+                 * Guarantees that only maintained entities are returned. Otherwise, it will be removed on the next
+                 * cleanup.
+                 */
+                return this.cacheObjectMaintainer.isMaintainedByCache(entity, cacheObject, this) ? entity : null;
+            }
+        }
+
+        if (!mustLoadOnMiss(cacheObject)) {
+            return null;
+        }
+        return waitForLoad(load(key, true));
+    }
+
+    /**
+     * Refresh an entity (or insert it, if not on cache already).
+     * <p>
+     * If there is already a load in progress for the same key, this method waits for it and returns its result instead
+     * of calling the {@link CacheLoader} again.
+     * @param key Key of the entity to refresh
+     * @return The refreshed entity
+     * @throws Exception If there was an error when loading a new entity
+     * @see CacheLoader
+     */
+    public T refresh(long key) throws Exception {
+        checkRunning();
+
+        return waitForLoad(load(key, false));
+    }
+
+    /**
+     * Inserts (or replaces) an entity without calling the {@link CacheLoader}.
+     * @param key Key of the entity
+     * @param entity The entity
+     * @throws IllegalArgumentException If <code>entity</code> is <code>null</code> (see {@link #invalidate(long)}
+     *             instead)
+     */
+    public void put(long key, T entity) throws IllegalArgumentException {
+        checkRunning();
+
+        if (entity == null) {
+            throw new IllegalArgumentException("entity can not be null");
+        }
+        insert(key, entity, null);
+    }
+
+    /**
+     * Removes an entity from the cache. It is loaded again when next requested.
+     * @param key Key of the entity to invalidate
+     */
+    public void invalidate(long key) {
+        checkRunning();
+
+        Segment segment = segmentFor(key);
+        long stamp = segment.lock.writeLock();
+        try {
+            /* A load in progress would restore the entity otherwise. */
+            this.loadsInProgress.remove(key);
+            segment.remove(key);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes every entity from the cache.
+     */
+    public void invalidateAll() {
+        checkRunning();
+
+        for (Segment segment : this.segments) {
+            long stamp = segment.lock.writeLock();
+            try {
+                this.loadsInProgress.keySet().removeIf(key -> segmentFor((Long) key) == segment);
+                segment.clear();
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Remove all the entities that are no longer maintained by the cache (or that were collected by the GC).
+     * <p>
+     * If a {@link #cleanupSliceSize} is defined, the lock is released after each slice of entities is evaluated, so
+     * entities inserted during the cleanup might not be evaluated. Segments are cleaned up one at a time.
+     * @see CacheObjectMaintainer
+     */
+    public void cleanup() {
+        /* Checked before the loop too, since a cache that is not running has no segments to go through. */
+        checkRunning();
+
+        for (Segment segment : this.segments) {
+            int cursor = 0;
+            while (cursor >= 0) {
+                long stamp = segment.lock.writeLock();
+                try {
+                    checkRunning();
+
+                    cursor = segment.doCleanup(cursor, getCleanupSliceLimit());
+                } finally {
+                    segment.lock.unlockWrite(stamp);
+                }
+            }
+        }
+    }
+
+    @Override
+    public long estimatedSize() {
+        checkRunning();
+
+        long size = 0L;
+        for (Segment segment : this.segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    /**
+     * Loads an entity and inserts it in the cache, making sure that there is at most one load in progress per key.
+     * The {@link CacheLoader} is called on the caller's thread.
+     * @param key Key of the entity to load
+     * @param reuseCached <code>true</code> if an entity inserted by another thread in the meantime may be returned
+     *            instead of loading it again
+     * @return The {@link CompletableFuture} completed once the entity is loaded and inserted in the cache
+     */
+    private CompletableFuture<T> load(long key, boolean reuseCached) {
+        Long boxedKey = key;
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<T> loadInProgress = this.loadsInProgress.putIfAbsent(boxedKey, future);
+        if (loadInProgress != null) {
+            return loadInProgress;
+        }
+
+        try {
+            if (reuseCached) {
+                /* Another thread may have finished loading it right before we registered our load. */
+                CacheObject<T> cacheObject = segmentFor(key).get(key);
+                T entity = cacheObject != null ? cacheObject.getEntity(false) : null;
+                if (entity != null && this.cacheObjectMaintainer.isMaintainedByCache(entity, cacheObject, this)) {
+                    this.loadsInProgress.remove(boxedKey, future);
+                    future.complete(entity);
+                    return future;
+                }
+            }
+
+            /* The constructors only take blocking loaders. */
+            T loadedEntity = ((CacheLoader<Long, T>) this.cacheLoader).load(boxedKey);
+            insert(key, loadedEntity, future);
+            future.complete(loadedEntity);
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        } finally {
+            /* Only unregistered after the entity is in the map, so no other thread can start a redundant load. */
+            this.loadsInProgress.remove(boxedKey, future);
+        }
+        return future;
+    }
+
+    /**
+     * Inserts (or updates) an entity in the cache.
+     * @param key Key of the entity
+     * @param entity The entity. <code>null</code> if it does not exist
+     * @param load The load's future. <code>null</code> if the entity is written instead of loaded
+     * @see Segment#doInsert(long, Object, CompletableFuture)
+     */
+    private void insert(long key, T entity, CompletableFuture<T> load) {
+        Segment segment = segmentFor(key);
+        long stamp = segment.lock.writeLock();
+        try {
+            checkRunning();
+
+            segment.doInsert(key, entity, load);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param key A key
+     * @return The {@link Segment} that holds the key. It depends on other bits of the hash than the slots of the
+     *         segment's map
+     */
+    private Segment segmentFor(long key) {
+        List<Segment> segments = this.segments;
+        return segments.get((int) (LongObjectMap.hash(key) >>> 32) & (segments.size() - 1));
+    }
+
+    /**
+     * Part of the cache holding the keys with the same hash bits, with its own map and lock. Readers read the map
+     * optimistically, validating with the {@link StampedLock}, and writers hold its write-lock.
+     */
+    private final class Segment {
+
+        private final LongObjectMap<CacheObject<T>> entitiesMap = new LongObjectMap<>();
+        private final StampedLock lock = new StampedLock();
+
+        /** Number of entities, for {@link LongKeyCache#estimatedSize()}. Only changed when write-locked. */
+        private volatile int count;
+
+        /** Slot of the map where the automatic cleanup in progress resumes. <code>0</code> if there is none. */
+        private int cleanupCursor;
+
+        /**
+         * Gets the {@link CacheObject} of a key, without locking unless a writer changed the segment concurrently.
+         * @param key The key
+         * @return The {@link CacheObject}. <code>null</code> if there is none
+         */
+        CacheObject<T> get(long key) {
+            long stamp = this.lock.tryOptimisticRead();
+            CacheObject<T> cacheObject = this.entitiesMap.get(key);
+            if (!this.lock.validate(stamp)) {
+                stamp = this.lock.readLock();
+                try {
+                    cacheObject = this.entitiesMap.get(key);
+                } finally {
+                    this.lock.unlockRead(stamp);
+                }
+            }
+            return cacheObject;
+        }
+
+        /**
+         * Inserts (or updates) an entity. A loaded entity is only inserted if its load is still the one in progress for
+         * the key, so that it never overwrites an entity written (or invalidated) while it was being loaded. A written
+         * entity supersedes the load in progress instead.
+         * <p>
+         * You may only call this method when holding the write-lock.
+         * @param key Key of the entity
+         * @param entity The entity
+         * @param load The load's future. <code>null</code> if the entity is written instead of loaded
+         * @return <code>true</code> if the entity was inserted
+         */
+        private boolean doInsert(long key, T entity, CompletableFuture<T> load) {
+            /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+
+            if (load == null) {
+                /* Checked first, so that writes only box the key while something is being loaded. */
+                if (!LongKeyCache.this.loadsInProgress.isEmpty()) {
+                    LongKeyCache.this.loadsInProgress.remove(key);
+                }
+            } else if (LongKeyCache.this.loadsInProgress.get(key) != load) {
+                return false;
+            }
+
+            CacheObject<T> c = this.entitiesMap.get(key);
+            if (c != null) {
+                c.setEntity(entity, LongKeyCache.this.referenceQueue);
+            } else {
+                c = LongKeyCache.this.cacheObjectFactory.newCacheObject(entity, LongKeyCache.this.referenceQueue,
+                        LongKeyCache.this.valueStrength);
+                this.entitiesMap.put(key, c);
+                this.count++;
+            }
+            return true;
+        }
+
+        /**
+         * Removes an entity.
+         * <p>
+         * You may only call this method when holding the write-lock.
+         * @param key Key of the entity
+         */
+        private void remove(long key) {
+            /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+
+            if (this.entitiesMap.remove(key) != null) {
+                this.count--;
+            }
+        }
+
+        /**
+         * Removes the entities collected by the garbage collector, evaluating at most a limited number of them.
+         * <p>
+         * You may only call this method when holding the write-lock.
+         * @param cursor Slot of the map where the sweep should resume
+         * @param limit Maximum number of entities to evaluate
+         * @return The slot where the next slice should resume. <code>-1</code> if the sweep reached the end of the
+         *         entities
+         */
+        private int removeCollected(int cursor, int limit) {
+            /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+
+            int next = this.entitiesMap.removeIf(cursor, limit, c -> c.getEntity(false) == null);
+            this.count = this.entitiesMap.size();
+            return next;
+        }
+
+        /**
+         * Continues the automatic cleanup in progress (or starts a new one), evaluating at most a limited number of
+         * entities.
+         * <p>
+         * You may only call this method when holding the write-lock.
+         * @param limit Maximum number of entities to evaluate
+         * @return <code>true</code> if the cleanup reached the end of the entities
+         * @see #cleanupCursor
+         */
+        private boolean doCleanupSlice(int limit) {
+            int cursor = doCleanup(this.cleanupCursor, limit);
+            boolean finished = cursor < 0;
+            this.cleanupCursor = finished ? 0 : cursor;
+            return finished;
+        }
+
+        /**
+         * Remove the entities that are no longer maintained by the cache (or that were collected by the GC),
+         * evaluating at most a limited number of them.
+         * <p>
+         * You may only call this method when holding the write-lock.
+         * @param cursor Slot of the map where the cleanup should resume
+         * @param limit Maximum number of entities to evaluate
+         * @return The slot where the next slice should resume. <code>-1</code> if the cleanup reached the end of the
+         *         entities
+         * @see CacheObjectMaintainer
+         */
+        private int doCleanup(int cursor, int limit) {
+            /* Must be write-locked here (unfortunately, there is no graceful way to assert this). */
+
+            int next = this.entitiesMap.removeIf(cursor, limit, c -> {
+                T entity = c.getEntity(false);
+                return entity == null
+                        || !LongKeyCache.this.cacheObjectMaintainer.isMaintainedByCache(entity, c, LongKeyCache.this);
+            });
+            this.count = this.entitiesMap.size();
+            return next;
+        }
+
+        /**
+         * Removes every entity.
+         * <p>
+         * You may only call this method when holding the write-lock.
+         */
+        private void clear() {
+            this.entitiesMap.clear();
+            this.count = 0;
+            this.cleanupCursor = 0;
+        }
+    }
+}
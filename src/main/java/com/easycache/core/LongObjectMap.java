@@ -0,0 +1,233 @@
+package com.easycache.core;
+
+import java.util.function.Predicate;
+
+/**
+ * Map from primitive <code>long</code> keys to objects, with open addressing and linear probing. Keys and values are
+ * kept in two parallel arrays, so there are neither entry objects nor boxed keys: each entry costs a <code>long</code>
+ * and a reference (a bit more, since the arrays are kept at most three quarters full). Removals shift the following
+ * entries back instead of leaving tombstones, so lookups never slow down after many removals.
+ * <p>
+ * Not thread-safe, but {@link #get(long)} never fails nor loops forever when a writer changes the map concurrently: it
+ * may only return a wrong value, so readers may call it optimistically and validate the result afterwards (for
+ * example, with a {@link java.util.concurrent.locks.StampedLock}).
+ * @param <V> Type of the values. Values may not be <code>null</code>
+ * @author frederico.pantuzza
+ */
+final class LongObjectMap<V> {
+
+    private static final int MINIMUM_CAPACITY = 16;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /** Keys and values, replaced together when the map grows so that readers always see arrays of the same length. */
+    private Table table = new Table(MINIMUM_CAPACITY);
+    private int size;
+
+    /**
+     * Mixes all the bits of a key (the finalizer of MurmurHash3), so that keys differing only in a few bits spread
+     * over the whole table.
+     * @param key The key
+     * @return The hash of the key
+     */
+    static long hash(long key) {
+        long hash = key;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * @param key The key
+     * @return The value of the key. <code>null</code> if there is none
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        Table table = this.table;
+        long[] keys = table.keys;
+        Object[] values = table.values;
+        int mask = keys.length - 1;
+        int index = (int) hash(key) & mask;
+        /* Bounded, in case a concurrent writer left no free slot in the way. */
+        for (int probes = 0; probes <= mask; probes++) {
+            Object value = values[index];
+            if (value == null) {
+                return null;
+            }
+            if (keys[index] == key) {
+                return (V) value;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @param key The key
+     * @param value The new value of the key
+     * @return The previous value of the key. <code>null</code> if there was none
+     */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value may not be null");
+        }
+
+        long[] keys = this.table.keys;
+        Object[] values = this.table.values;
+        int mask = keys.length - 1;
+        int index = (int) hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                Object previous = values[index];
+                values[index] = value;
+                return (V) previous;
+            }
+            index = (index + 1) & mask;
+        }
+
+        /* The key is written before the value, since readers take a slot with a value as used. */
+        keys[index] = key;
+        values[index] = value;
+        this.size++;
+        if (this.size > keys.length - (keys.length >>> 2) && keys.length < MAXIMUM_CAPACITY) {
+            resize(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @param key The key
+     * @return The removed value of the key. <code>null</code> if there was none
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        long[] keys = this.table.keys;
+        Object[] values = this.table.values;
+        int mask = keys.length - 1;
+        int index = (int) hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                Object removed = values[index];
+                shiftBack(keys, values, index);
+                this.size--;
+                return (V) removed;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Empties a slot, moving back the following entries of the same cluster that would no longer be found otherwise.
+     * @param keys The keys
+     * @param values The values
+     * @param freeIndex The slot to empty
+     */
+    private static void shiftBack(long[] keys, Object[] values, int freeIndex) {
+        int mask = keys.length - 1;
+        int free = freeIndex;
+        int index = (free + 1) & mask;
+        while (values[index] != null) {
+            int home = (int) hash(keys[index]) & mask;
+            /* The entry may only move back if its home slot is not between the free slot and itself. */
+            if (((index - home) & mask) >= ((index - free) & mask)) {
+                keys[free] = keys[index];
+                values[free] = values[index];
+                free = index;
+            }
+            index = (index + 1) & mask;
+        }
+        values[free] = null;
+    }
+
+    /**
+     * Moves the entries to a table of another capacity.
+     * @param capacity The new capacity. Must be a power of two
+     */
+    private void resize(int capacity) {
+        Table oldTable = this.table;
+        Table newTable = new Table(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldTable.keys.length; i++) {
+            Object value = oldTable.values[i];
+            if (value != null) {
+                long key = oldTable.keys[i];
+                int index = (int) hash(key) & mask;
+                while (newTable.values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                newTable.keys[index] = key;
+                newTable.values[index] = value;
+            }
+        }
+        this.table = newTable;
+    }
+
+    /**
+     * @return The number of entries
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Removes every entry, shrinking the map back to its minimum capacity.
+     */
+    void clear() {
+        this.table = new Table(MINIMUM_CAPACITY);
+        this.size = 0;
+    }
+
+    /**
+     * Removes the entries whose values match a filter, evaluating at most a limited number of entries from a given slot
+     * on. The scan can be resumed from the returned slot after the map changed: entries moved in the meantime (by
+     * removals or by a resize) may then be evaluated again, or only by the next scan.
+     * @param fromIndex Slot where the scan starts (or resumes)
+     * @param limit Maximum number of entries to evaluate
+     * @param filter Returns <code>true</code> for the values to remove. Must not change the map
+     * @return The slot where the scan should resume. <code>-1</code> if it reached the end of the table
+     */
+    @SuppressWarnings("unchecked")
+    int removeIf(int fromIndex, int limit, Predicate<? super V> filter) {
+        long[] keys = this.table.keys;
+        Object[] values = this.table.values;
+        int index = fromIndex;
+        int evaluated = 0;
+        while (index < keys.length) {
+            Object value = values[index];
+            if (value == null) {
+                index++;
+                continue;
+            }
+            if (evaluated == limit) {
+                return index;
+            }
+            evaluated++;
+            if (filter.test((V) value)) {
+                /* The slot is evaluated again, since a following entry may have been moved back into it. */
+                shiftBack(keys, values, index);
+                this.size--;
+            } else {
+                index++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parallel arrays of keys and values. A slot is free when its value is <code>null</code>.
+     */
+    private static final class Table {
+
+        private final long[] keys;
+        private final Object[] values;
+
+        Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+        }
+    }
+}
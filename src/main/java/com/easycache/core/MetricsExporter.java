@@ -0,0 +1,29 @@
+package com.easycache.core;
+
+/**
+ * Publishes the metrics of caches to a monitoring system.
+ * <p>
+ * A cache registers itself when it starts and unregisters itself when it stops. In between, implementations may read
+ * its metrics whenever the monitoring system asks for them, from {@link Cache#stats()} and
+ * {@link Cache#estimatedSize()}, which are cheap and lock-free. The statistics are only recorded if enabled (see
+ * {@link Cache#setRecordStats(boolean)}).
+ * @author frederico.pantuzza
+ * @see Cache#setMetricsExporter(String, MetricsExporter)
+ * @see com.easycache.core.jmx.JmxMetricsExporter
+ */
+public interface MetricsExporter {
+
+    /**
+     * Starts publishing the metrics of a cache.
+     * @param name The name of the cache, unique among the caches of the application
+     * @param cache The cache, which is already running
+     */
+    void register(String name, Cache<?, ?> cache);
+
+    /**
+     * Stops publishing the metrics of a cache.
+     * @param name The name of the cache, as given to {@link #register(String, Cache)}
+     * @param cache The cache, which is about to stop
+     */
+    void unregister(String name, Cache<?, ?> cache);
+}
@@ -0,0 +1,399 @@
+package com.easycache.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Store of serialized entities out of the heap, used as a second tier by the {@link Cache}.
+ * <p>
+ * The memory is split into slabs of direct {@link ByteBuffer}s, which are filled one after the other. When the last
+ * slab is full, the oldest one is recycled, dropping all the entities it held (FIFO eviction). Entities are never moved
+ * inside the slabs.
+ * <p>
+ * The index of the entities is kept out of the heap as well: an open-addressing table in a direct {@link ByteBuffer},
+ * whose slots hold the hash of a key and the location of its entity. Keys are stored serialized along with their
+ * entities, and compared byte by byte when their hashes match. So the heap used by the store (and the work of the
+ * garbage collector) does not depend on how much is stored.
+ * <p>
+ * Thread-safe.
+ * @author frederico.pantuzza
+ */
+final class OffHeapStore {
+
+    /** Maximum size (in bytes) of each slab. */
+    private static final int MAXIMUM_SLAB_SIZE = 64 << 20;
+    /** Minimum number of slabs, so that recycling a slab only drops a part of the stored entities. */
+    private static final int MINIMUM_SLAB_COUNT = 16;
+    /** Size (in bytes) of the header of each entity: the lengths of its key and of itself, and its expiration time. */
+    private static final int HEADER_SIZE = 16;
+
+    /** Size (in bytes) of each slot of the index: the hash of the key and the location of the entity. */
+    private static final int SLOT_SIZE = 12;
+    private static final int MINIMUM_INDEX_CAPACITY = 1 << 10;
+    /** Maximum number of slots of the index, so that it fits in a single buffer. */
+    private static final int MAXIMUM_INDEX_CAPACITY = 1 << 27;
+
+    private final int slabSize;
+    private final ByteBuffer[] slabs;
+    /** Position up to which each slab was written, so that its entities can be found when it is recycled. */
+    private final int[] slabLimits;
+
+    private int currentSlab;
+    private int position;
+
+    /**
+     * Slots of the index. A slot is free when its location is zero, so locations are stored as the slab plus one in
+     * the upper 32 bits and the offset in the lower 32 bits.
+     */
+    private ByteBuffer index;
+    private int indexCapacity;
+    /** Number of stored entities. Only modified when holding the lock, but read without it by {@link #isEmpty()}. */
+    private volatile int size;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Constructor. The slabs are only allocated when they are first needed.
+     * @param capacity Maximum number of bytes to store. Must be greater than zero
+     */
+    OffHeapStore(long capacity) {
+        long slabCount = Math.max((capacity + MAXIMUM_SLAB_SIZE - 1) / MAXIMUM_SLAB_SIZE,
+                Math.min(MINIMUM_SLAB_COUNT, capacity));
+        this.slabSize = (int) (capacity / slabCount);
+        this.slabs = new ByteBuffer[(int) slabCount];
+        this.slabLimits = new int[(int) slabCount];
+        resizeIndex(MINIMUM_INDEX_CAPACITY);
+    }
+
+    /**
+     * @return <code>true</code> if no entity is stored. Does not wait for the lock, so it might be outdated
+     */
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Stores an entity, replacing the one stored for the same key, if any. If the index can not grow anymore, the
+     * oldest slabs are recycled to make room, just like when the slabs are full.
+     * @param key The serialized key of the entity
+     * @param bytes The serialized entity
+     * @param expirationTime The time in milliseconds when the entity expires
+     * @return <code>false</code> if the entity is too large to be stored
+     */
+    boolean put(byte[] key, byte[] bytes, long expirationTime) {
+        long size = (long) HEADER_SIZE + key.length + bytes.length;
+        if (size > this.slabSize) {
+            return false;
+        }
+
+        this.lock.lock();
+        try {
+            int hash = hash(ByteBuffer.wrap(key), 0, key.length);
+            int slot = find(key, hash);
+            if (slot >= 0) {
+                removeSlot(slot);
+            }
+            if (this.size >= maximumSize(this.indexCapacity)) {
+                if (this.indexCapacity < MAXIMUM_INDEX_CAPACITY) {
+                    resizeIndex(this.indexCapacity << 1);
+                } else {
+                    while (this.size >= maximumSize(this.indexCapacity)) {
+                        nextSlab();
+                    }
+                }
+            }
+
+            if (this.position + size > this.slabSize) {
+                nextSlab();
+            }
+            ByteBuffer slab = this.slabs[this.currentSlab];
+            if (slab == null) {
+                slab = ByteBuffer.allocateDirect(this.slabSize);
+                this.slabs[this.currentSlab] = slab;
+            }
+
+            slab.putInt(this.position, key.length);
+            slab.putInt(this.position + 4, bytes.length);
+            slab.putLong(this.position + 8, expirationTime);
+            ByteBuffer buffer = slab.duplicate();
+            buffer.position(this.position + HEADER_SIZE);
+            buffer.put(key);
+            buffer.put(bytes);
+
+            addSlot(hash, ((long) (this.currentSlab + 1) << 32) | this.position);
+            this.position += (int) size;
+            this.slabLimits[this.currentSlab] = this.position;
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes an entity and returns it.
+     * @param key The serialized key of the entity
+     * @param currentTime The current time, in milliseconds
+     * @return The stored entity. <code>null</code> if there is none or if it is expired
+     */
+    Entry remove(byte[] key, long currentTime) {
+        this.lock.lock();
+        try {
+            int slot = find(key, hash(ByteBuffer.wrap(key), 0, key.length));
+            if (slot < 0) {
+                return null;
+            }
+            long location = this.index.getLong(slot * SLOT_SIZE + 4);
+            removeSlot(slot);
+
+            ByteBuffer slab = this.slabs[(int) (location >>> 32) - 1];
+            int offset = (int) location;
+            long expirationTime = slab.getLong(offset + 8);
+            if (expirationTime <= currentTime) {
+                return null;
+            }
+            byte[] bytes = new byte[slab.getInt(offset + 4)];
+            ByteBuffer buffer = slab.duplicate();
+            buffer.position(offset + HEADER_SIZE + slab.getInt(offset));
+            buffer.get(bytes);
+            return new Entry(bytes, expirationTime);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Drops an entity, if stored.
+     * @param key The serialized key of the entity
+     */
+    void invalidate(byte[] key) {
+        this.lock.lock();
+        try {
+            int slot = find(key, hash(ByteBuffer.wrap(key), 0, key.length));
+            if (slot >= 0) {
+                removeSlot(slot);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Drops every entity and releases the slabs.
+     */
+    void clear() {
+        this.lock.lock();
+        try {
+            for (int i = 0; i < this.slabs.length; i++) {
+                this.slabs[i] = null;
+                this.slabLimits[i] = 0;
+            }
+            this.currentSlab = 0;
+            this.position = 0;
+            /* Nothing to move to the new index. */
+            this.index = null;
+            resizeIndex(MINIMUM_INDEX_CAPACITY);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Moves on to the next slab, recycling it.
+     * <p>
+     * You may only call this method when holding the lock.
+     */
+    private void nextSlab() {
+        this.currentSlab = (this.currentSlab + 1) % this.slabs.length;
+        this.position = 0;
+        recycle(this.currentSlab);
+    }
+
+    /**
+     * Drops the entities still held by a slab, so that it can be written again. The slab is read from the start, and
+     * the slot of each entity is looked up by the hash of its key.
+     * <p>
+     * You may only call this method when holding the lock.
+     * @param slab Index of the slab
+     */
+    private void recycle(int slab) {
+        ByteBuffer buffer = this.slabs[slab];
+        int offset = 0;
+        while (offset < this.slabLimits[slab]) {
+            int keyLength = buffer.getInt(offset);
+            long location = ((long) (slab + 1) << 32) | offset;
+            int hash = hash(buffer, offset + HEADER_SIZE, keyLength);
+
+            /* The entity may have been removed, or written again to another location, since. */
+            int mask = this.indexCapacity - 1;
+            for (int i = hash & mask;; i = (i + 1) & mask) {
+                long slotLocation = this.index.getLong(i * SLOT_SIZE + 4);
+                if (slotLocation == 0L) {
+                    break;
+                } else if (slotLocation == location) {
+                    removeSlot(i);
+                    break;
+                }
+            }
+            offset += HEADER_SIZE + keyLength + buffer.getInt(offset + 4);
+        }
+        this.slabLimits[slab] = 0;
+    }
+
+    /**
+     * Looks up the slot of a key.
+     * <p>
+     * You may only call this method when holding the lock.
+     * @param key The serialized key
+     * @param hash The hash of the key
+     * @return The index of the slot. Negative if the key is not stored
+     */
+    private int find(byte[] key, int hash) {
+        int mask = this.indexCapacity - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            long location = this.index.getLong(i * SLOT_SIZE + 4);
+            if (location == 0L) {
+                return -1;
+            }
+            if (this.index.getInt(i * SLOT_SIZE) == hash && isKeyAt(key, location)) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * @param key A serialized key
+     * @param location Location of a stored entity
+     * @return <code>true</code> if the entity is stored for the key
+     */
+    private boolean isKeyAt(byte[] key, long location) {
+        ByteBuffer slab = this.slabs[(int) (location >>> 32) - 1];
+        int offset = (int) location;
+        if (slab.getInt(offset) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (slab.get(offset + HEADER_SIZE + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fills a free slot with an entity.
+     * <p>
+     * You may only call this method when holding the lock.
+     * @param hash The hash of the entity's key
+     * @param location The location of the entity
+     */
+    private void addSlot(int hash, long location) {
+        int mask = this.indexCapacity - 1;
+        int i = hash & mask;
+        while (this.index.getLong(i * SLOT_SIZE + 4) != 0L) {
+            i = (i + 1) & mask;
+        }
+        this.index.putInt(i * SLOT_SIZE, hash);
+        this.index.putLong(i * SLOT_SIZE + 4, location);
+        this.size++;
+    }
+
+    /**
+     * Empties a slot, moving back the following slots of the same cluster that would no longer be found otherwise.
+     * <p>
+     * You may only call this method when holding the lock.
+     * @param slot Index of the slot
+     */
+    private void removeSlot(int slot) {
+        int mask = this.indexCapacity - 1;
+        int free = slot;
+        for (int i = (free + 1) & mask; this.index.getLong(i * SLOT_SIZE + 4) != 0L; i = (i + 1) & mask) {
+            int home = this.index.getInt(i * SLOT_SIZE) & mask;
+            /* The slot may only move back if its home is not between the free slot and itself. */
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                this.index.putInt(free * SLOT_SIZE, this.index.getInt(i * SLOT_SIZE));
+                this.index.putLong(free * SLOT_SIZE + 4, this.index.getLong(i * SLOT_SIZE + 4));
+                free = i;
+            }
+        }
+        this.index.putLong(free * SLOT_SIZE + 4, 0L);
+        this.size--;
+    }
+
+    /**
+     * Moves the slots to an index of another capacity.
+     * <p>
+     * You may only call this method when holding the lock (or from the constructor).
+     * @param capacity The new number of slots. Must be a power of two
+     */
+    private void resizeIndex(int capacity) {
+        ByteBuffer oldIndex = this.index;
+        int oldCapacity = this.indexCapacity;
+        this.index = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+        this.indexCapacity = capacity;
+        this.size = 0;
+        for (int i = 0; oldIndex != null && i < oldCapacity; i++) {
+            long location = oldIndex.getLong(i * SLOT_SIZE + 4);
+            if (location != 0L) {
+                addSlot(oldIndex.getInt(i * SLOT_SIZE), location);
+            }
+        }
+    }
+
+    /**
+     * @param capacity A number of slots
+     * @return The number of entities an index with that number of slots may hold (three quarters of it)
+     */
+    private static int maximumSize(int capacity) {
+        return capacity - (capacity >>> 2);
+    }
+
+    /**
+     * Hashes a serialized key, mixing the bits so that similar keys spread over the whole index. Also used by the index
+     * of the {@link Snapshot}.
+     * @param buffer Where the key is
+     * @param offset Position of the key in the buffer
+     * @param length Length of the key
+     * @return The hash of the key
+     */
+    static int hash(ByteBuffer buffer, int offset, int length) {
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + buffer.get(offset + i);
+        }
+        /* The finalizer of MurmurHash3. */
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    /**
+     * Entity removed from the store.
+     */
+    static final class Entry {
+
+        private final byte[] bytes;
+        private final long expirationTime;
+
+        Entry(byte[] bytes, long expirationTime) {
+            this.bytes = bytes;
+            this.expirationTime = expirationTime;
+        }
+
+        /**
+         * @return The serialized entity
+         */
+        byte[] getBytes() {
+            return this.bytes;
+        }
+
+        /**
+         * @return The time in milliseconds when the entity expires
+         */
+        long getExpirationTime() {
+            return this.expirationTime;
+        }
+    }
+}
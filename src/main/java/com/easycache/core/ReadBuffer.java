@@ -0,0 +1,90 @@
+package com.easycache.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Lossy buffer of accesses recorded by the readers of a cache, so that they never wait for the eviction policy's lock.
+ * The buffer is striped by thread to reduce contention, and an access is simply dropped when its stripe is full or
+ * contended: the eviction policy only needs a representative sample of the accesses.
+ * <p>
+ * Any thread may {@link #offer(Object)}, but only one thread at a time may {@link #drain(Consumer)}.
+ * @param <E> Type of the recorded elements
+ * @author frederico.pantuzza
+ */
+final class ReadBuffer<E> {
+
+    /** Number of elements per stripe. Must be a power of two. */
+    private static final int STRIPE_SIZE = 16;
+    private static final int STRIPE_MASK = STRIPE_SIZE - 1;
+
+    private final AtomicReferenceArray<E> buffer;
+    private final AtomicLong[] writes;
+    private final AtomicLong[] reads;
+    private final int stripesMask;
+
+    /**
+     * Constructor. Creates a stripe per available processor (rounded up to a power of two).
+     */
+    ReadBuffer() {
+        int stripes = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors() - 1, 1)) << 1;
+        this.buffer = new AtomicReferenceArray<>(stripes * STRIPE_SIZE);
+        this.writes = new AtomicLong[stripes];
+        this.reads = new AtomicLong[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.writes[i] = new AtomicLong();
+            this.reads[i] = new AtomicLong();
+        }
+        this.stripesMask = stripes - 1;
+    }
+
+    /**
+     * Records an element, unless its stripe is full or contended.
+     * @param element The element
+     * @return <code>true</code> if the stripe is full and should be drained
+     */
+    boolean offer(E element) {
+        int stripe = (int) mix(Thread.currentThread().getId()) & this.stripesMask;
+        long head = this.reads[stripe].get();
+        long tail = this.writes[stripe].get();
+        if (tail - head >= STRIPE_SIZE) {
+            return true;
+        }
+        if (this.writes[stripe].compareAndSet(tail, tail + 1)) {
+            this.buffer.lazySet(stripe * STRIPE_SIZE + (int) (tail & STRIPE_MASK), element);
+        }
+        return false;
+    }
+
+    /**
+     * Consumes every recorded element.
+     * @param consumer The consumer of the elements
+     */
+    void drain(Consumer<E> consumer) {
+        for (int stripe = 0; stripe <= this.stripesMask; stripe++) {
+            long head = this.reads[stripe].get();
+            long tail = this.writes[stripe].get();
+            for (; head < tail; head++) {
+                int index = stripe * STRIPE_SIZE + (int) (head & STRIPE_MASK);
+                E element = this.buffer.get(index);
+                if (element == null) {
+                    /* The writer has not published it yet. */
+                    break;
+                }
+                this.buffer.lazySet(index, null);
+                consumer.accept(element);
+            }
+            this.reads[stripe].lazySet(head);
+        }
+    }
+
+    /**
+     * @param x A thread id
+     * @return A well distributed hash of the thread id
+     */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        return x ^ (x >>> 33);
+    }
+}
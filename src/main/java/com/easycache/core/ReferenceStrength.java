@@ -0,0 +1,26 @@
+package com.easycache.core;
+
+/**
+ * Strength of the references held by a {@link Cache}, which determines when the garbage collector may reclaim what is
+ * cached.
+ * @author frederico.pantuzza
+ * @see Cache#setValueStrength(ReferenceStrength)
+ */
+public enum ReferenceStrength {
+
+    /**
+     * Entities are never collected while cached: they are only removed by the cache itself (eviction, expiration or
+     * cleanup). No reference object is allocated and the reference queue is not used.
+     */
+    STRONG,
+
+    /**
+     * Entities may be collected when the JVM is running low on memory, according to the garbage collector's soft
+     * reference policy.
+     */
+    SOFT,
+
+    /** Entities may be collected as soon as they are no longer strongly referenced outside of the cache. */
+    WEAK
+
+}
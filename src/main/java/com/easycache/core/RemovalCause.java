@@ -0,0 +1,36 @@
+package com.easycache.core;
+
+/**
+ * Reason why an entity was removed from a {@link Cache}.
+ * @author frederico.pantuzza
+ * @see CacheStats#evictionCount(RemovalCause)
+ * @see RemovalListener
+ */
+public enum RemovalCause {
+
+    /** The {@link CacheObjectMaintainer} decided that the entity should no longer be cached. */
+    MAINTAINER,
+
+    /** The entity (or its key) was collected by the garbage collector. */
+    COLLECTED,
+
+    /** The entity was evicted because the cache exceeded its maximum size (or weight). */
+    SIZE,
+
+    /** The entity expired, according to the cache's {@link Expiry}. */
+    EXPIRED,
+
+    /** The entity was removed explicitly. */
+    EXPLICIT,
+
+    /** The entity was replaced by a new one loaded for the same key (for example, by a refresh). */
+    REPLACED;
+
+    /**
+     * @return <code>true</code> if the entity was removed by the cache itself, rather than removed or replaced by its
+     *         user
+     */
+    public boolean wasEvicted() {
+        return this != EXPLICIT && this != REPLACED;
+    }
+}
@@ -0,0 +1,35 @@
+package com.easycache.core;
+
+import java.util.List;
+
+/**
+ * Listener of the entities removed from a {@link Cache}.
+ * <p>
+ * Removals are queued while the cache holds its locks, and delivered later in batches, in the order they happened, on
+ * the cache's {@link java.util.concurrent.Executor}. Only one batch is delivered at a time, so listeners do not need
+ * to be thread-safe, and may safely call the cache back. Exceptions thrown by a listener are ignored.
+ * @param <K> Type of the keys
+ * @param <T> Type of the entities
+ * @author frederico.pantuzza
+ * @see Cache#setRemovalListener(RemovalListener)
+ */
+@FunctionalInterface
+public interface RemovalListener<K, T> {
+
+    /**
+     * Called for each removed entity.
+     * @param notification The removal
+     */
+    void onRemoval(RemovalNotification<K, T> notification);
+
+    /**
+     * Called for each batch of removals. By default, calls {@link #onRemoval(RemovalNotification)} for each one of
+     * them. Listeners that benefit from batches (for example, to write several entities at once) may override it.
+     * @param notifications The removals, in the order they happened
+     */
+    default void onRemovals(List<RemovalNotification<K, T>> notifications) {
+        for (RemovalNotification<K, T> notification : notifications) {
+            onRemoval(notification);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.easycache.core;
+
+/**
+ * Removal of an entity from a {@link Cache}, delivered to a {@link RemovalListener}.
+ * <p>
+ * Immutable.
+ * @param <K> Type of the key
+ * @param <T> Type of the entity
+ * @author frederico.pantuzza
+ */
+public final class RemovalNotification<K, T> {
+
+    private final K key;
+    private final T entity;
+    private final RemovalCause cause;
+
+    /**
+     * Constructor.
+     * @param key See {@link #getKey()}
+     * @param entity See {@link #getEntity()}
+     * @param cause See {@link #getCause()}
+     */
+    RemovalNotification(K key, T entity, RemovalCause cause) {
+        this.key = key;
+        this.entity = entity;
+        this.cause = cause;
+    }
+
+    /**
+     * @return The key of the removed entity. <code>null</code> if it was a weak key collected by the garbage collector
+     */
+    public K getKey() {
+        return this.key;
+    }
+
+    /**
+     * @return The removed entity. <code>null</code> if it was collected by the garbage collector
+     */
+    public T getEntity() {
+        return this.entity;
+    }
+
+    /**
+     * @return Why the entity was removed
+     */
+    public RemovalCause getCause() {
+        return this.cause;
+    }
+}
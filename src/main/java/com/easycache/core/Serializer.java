@@ -0,0 +1,23 @@
+package com.easycache.core;
+
+/**
+ * Converts objects to bytes and back, so that they can be stored out of the heap.
+ * @param <T> Type of the serialized objects
+ * @author frederico.pantuzza
+ */
+public interface Serializer<T> {
+
+    /**
+     * Serializes an object.
+     * @param object The object. Never <code>null</code>
+     * @return The bytes of the object
+     */
+    byte[] serialize(T object);
+
+    /**
+     * Deserializes an object.
+     * @param bytes The bytes returned by {@link #serialize(Object)}
+     * @return The object
+     */
+    T deserialize(byte[] bytes);
+}
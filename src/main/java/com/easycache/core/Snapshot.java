@@ -0,0 +1,564 @@
+package com.easycache.core;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Snapshot of the entities of a {@link Cache}, written to a file when the cache stops so that it starts again warm.
+ * <p>
+ * The file is a sequence of records, each one holding a serialized key, the expiration time of the entity, the
+ * metadata of its {@link CacheObject} and the serialized entity. The records are followed by their index: an
+ * open-addressing table whose slots hold the hash of a serialized key and the position of its record, as in the
+ * {@link OffHeapStore}. When opened, the file is mapped into memory in chunks of at most {@value #CHUNK_SIZE} bytes, so
+ * that it may be larger than a single buffer, but nothing is read up front. Each entity is looked up through the index
+ * when it is first requested, and is then taken out of the snapshot. The heap only holds a bit per slot of the index,
+ * which tells whether its record was already taken (or dropped).
+ * <p>
+ * Thread-safe.
+ * @author frederico.pantuzza
+ */
+final class Snapshot {
+
+    /** First bytes of every snapshot file ("ECS" and the format version). */
+    private static final int MAGIC = 0x45435303;
+
+    /** Maximum size (in bytes) of each mapped chunk of the file. Must be a power of two. */
+    private static final int CHUNK_SIZE = 1 << 30;
+
+    /** Size (in bytes) of each slot of the index: the hash of the key and the position of its record. */
+    private static final int SLOT_SIZE = 12;
+    /** Maximum number of slots of the index. */
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    /** Size (in bytes) of the end of the file: the position of the index, its number of slots and of records. */
+    private static final int TRAILER_SIZE = 16;
+
+    /** Number of invalidations above which they are dropped on the {@link #executor}, instead of by the next taker. */
+    private static final int MAXIMUM_PENDING_INVALIDATIONS = 1024;
+
+    /** The mapped file, in chunks of {@value #CHUNK_SIZE} bytes. */
+    private final ByteBuffer[] chunks;
+    private final long size;
+
+    /** Position of the index in the file. */
+    private final long indexPosition;
+    /** Number of slots of the index. A power of two. */
+    private final int capacity;
+
+    private final Serializer<Object> keySerializer;
+    private final Executor executor;
+
+    /** A bit per slot of the index, set once its record is taken or dropped. */
+    private final AtomicLongArray taken;
+    /** Number of records neither taken nor dropped yet. */
+    private final AtomicInteger remaining;
+    /** Whether every record was dropped at once. */
+    private volatile boolean cleared;
+
+    /**
+     * Keys invalidated by the cache whose records are not dropped yet. The cache invalidates keys while holding its
+     * locks, so they are only queued there, and dropped before the next entity is taken.
+     */
+    private final Queue<Object> invalidations = new ConcurrentLinkedQueue<>();
+    /** Number of {@link #invalidations}, only decremented once they are dropped. */
+    private final AtomicInteger pendingInvalidations = new AtomicInteger();
+    /** Held while dropping the {@link #invalidations}. */
+    private final ReentrantLock dropLock = new ReentrantLock();
+    /** Whether the {@link #invalidations} are already being dropped on the {@link #executor}. */
+    private final AtomicBoolean dropping = new AtomicBoolean();
+
+    /**
+     * Constructor.
+     * @param chunks The mapped file
+     * @param size The size of the file
+     * @param indexPosition The position of the index in the file
+     * @param capacity The number of slots of the index
+     * @param count The number of records
+     * @param keySerializer Serializes the keys
+     * @param executor Where the invalidations are dropped, when too many are pending
+     */
+    @SuppressWarnings("unchecked")
+    private Snapshot(ByteBuffer[] chunks, long size, long indexPosition, int capacity, int count,
+            Serializer<?> keySerializer, Executor executor) {
+        this.chunks = chunks;
+        this.size = size;
+        this.indexPosition = indexPosition;
+        this.capacity = capacity;
+        this.keySerializer = (Serializer<Object>) keySerializer;
+        this.executor = executor;
+        this.taken = new AtomicLongArray((capacity + 63) >>> 6);
+        this.remaining = new AtomicInteger(count);
+    }
+
+    /**
+     * Opens a snapshot, mapping its file. Only the header and the end of the file are read.
+     * @param file The snapshot file
+     * @param keySerializer Serializes the keys
+     * @param executor Where the invalidations are dropped, when too many are pending
+     * @return The snapshot. <code>null</code> if the file does not exist or is not a valid snapshot
+     * @throws IOException If the file could not be mapped
+     */
+    static <K> Snapshot open(Path file, Serializer<K> keySerializer, Executor executor) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 4L + TRAILER_SIZE) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(4);
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            channel.read(header, 0L);
+            channel.read(trailer, size - TRAILER_SIZE);
+            if (header.hasRemaining() || trailer.hasRemaining() || header.getInt(0) != MAGIC) {
+                return null;
+            }
+            long indexPosition = trailer.getLong(0);
+            int capacity = trailer.getInt(8);
+            int count = trailer.getInt(12);
+            if (capacity <= 0 || capacity > MAXIMUM_CAPACITY || Integer.bitCount(capacity) != 1 || count < 0
+                    || count >= capacity || indexPosition < 4L
+                    || indexPosition + (long) capacity * SLOT_SIZE != size - TRAILER_SIZE) {
+                return null;
+            }
+
+            ByteBuffer[] chunks = new ByteBuffer[(int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+            for (int i = 0; i < chunks.length; i++) {
+                long position = (long) i * CHUNK_SIZE;
+                chunks[i] = channel.map(MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, size - position));
+            }
+            return new Snapshot(chunks, size, indexPosition, capacity, count, keySerializer, executor);
+        }
+    }
+
+    /**
+     * Takes an entity out of the snapshot.
+     * <p>
+     * Must never be called while holding a lock of the cache, since the invalidations may be dropped here.
+     * @param key The key of the entity
+     * @param currentTime The current time, in milliseconds
+     * @return The entity. <code>null</code> if there is none, if it was already taken or if it is expired
+     */
+    Entry take(Object key, long currentTime) {
+        if (this.pendingInvalidations.get() != 0) {
+            dropInvalidated();
+        }
+        if (this.cleared || this.remaining.get() == 0) {
+            return null;
+        }
+        byte[] keyBytes = serializeKey(key);
+        if (keyBytes == null) {
+            return null;
+        }
+        int slot = find(keyBytes);
+        if (slot < 0 || !claim(slot)) {
+            return null;
+        }
+
+        long position = getLong(slotPosition(slot) + 4) + 4 + keyBytes.length;
+        long expirationTime = getLong(position);
+        if (expirationTime <= currentTime) {
+            return null;
+        }
+        byte[] metadata = read(position + 8);
+        return new Entry(read(position + 8 + 4 + metadata.length), metadata, expirationTime);
+    }
+
+    /**
+     * Drops an entity, if not taken yet. Never waits: the entity is only queued to be dropped before the next one is
+     * taken.
+     * @param key The key of the entity
+     */
+    void invalidate(Object key) {
+        if (this.cleared || this.remaining.get() == 0) {
+            return;
+        }
+        this.invalidations.add(key);
+        if (this.pendingInvalidations.incrementAndGet() >= MAXIMUM_PENDING_INVALIDATIONS
+                && this.dropping.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(() -> {
+                    try {
+                        dropInvalidated();
+                    } finally {
+                        this.dropping.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                /* Left for the next taker. */
+                this.dropping.set(false);
+            }
+        }
+    }
+
+    /**
+     * Drops every entity not taken yet. Never waits.
+     */
+    void clear() {
+        this.cleared = true;
+    }
+
+    /**
+     * Drops every entity not taken yet and releases the mapped file, which is unmapped once garbage collected.
+     * <p>
+     * Must only be called once the snapshot is no longer used.
+     */
+    void close() {
+        clear();
+        Arrays.fill(this.chunks, null);
+    }
+
+    /**
+     * Writes the entities not taken yet (and not expired) to another snapshot.
+     * <p>
+     * Must never be called while holding a lock of the cache, since the whole file may be read here.
+     * @param writer Writer of the other snapshot
+     * @param currentTime The current time, in milliseconds
+     * @throws IOException If the entities could not be written
+     */
+    void writeTo(Writer writer, long currentTime) throws IOException {
+        if (this.pendingInvalidations.get() != 0) {
+            dropInvalidated();
+        }
+        if (this.cleared) {
+            return;
+        }
+        for (int slot = 0; slot < this.capacity; slot++) {
+            long offset = getLong(slotPosition(slot) + 4);
+            if (offset == 0L || isTaken(slot)) {
+                continue;
+            }
+            byte[] key = read(offset);
+            long position = offset + 4 + key.length;
+            long expirationTime = getLong(position);
+            if (expirationTime > currentTime) {
+                byte[] metadata = read(position + 8);
+                writer.write(key, expirationTime, metadata, read(position + 8 + 4 + metadata.length));
+            }
+        }
+    }
+
+    /**
+     * Drops the records of the {@link #invalidations}. Once it returns, every invalidation queued before it was called
+     * is dropped, even the ones dropped meanwhile by another thread.
+     */
+    private void dropInvalidated() {
+        this.dropLock.lock();
+        try {
+            Object key;
+            while ((key = this.invalidations.poll()) != null) {
+                byte[] keyBytes = serializeKey(key);
+                /* A key that can not be serialized was not saved either. */
+                if (keyBytes != null) {
+                    int slot = find(keyBytes);
+                    if (slot >= 0) {
+                        claim(slot);
+                    }
+                }
+                this.pendingInvalidations.decrementAndGet();
+            }
+        } finally {
+            this.dropLock.unlock();
+        }
+    }
+
+    /**
+     * @param key A key
+     * @return The serialized key. <code>null</code> if it can not be serialized
+     */
+    private byte[] serializeKey(Object key) {
+        try {
+            return this.keySerializer.serialize(key);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Looks up the slot of a key whose record was neither taken nor dropped yet.
+     * @param key The serialized key
+     * @return The index of the slot. Negative if there is none
+     */
+    private int find(byte[] key) {
+        int hash = OffHeapStore.hash(ByteBuffer.wrap(key), 0, key.length);
+        int mask = this.capacity - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            long position = getLong(slotPosition(i) + 4);
+            if (position == 0L) {
+                return -1;
+            }
+            if (getInt(slotPosition(i)) == hash && !isTaken(i) && Arrays.equals(key, read(position))) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Takes the record of a slot, unless another thread did it first.
+     * @param slot The index of the slot
+     * @return <code>true</code> if the record was taken by this call
+     */
+    private boolean claim(int slot) {
+        long bit = 1L << slot;
+        long bits;
+        do {
+            bits = this.taken.get(slot >>> 6);
+            if ((bits & bit) != 0L) {
+                return false;
+            }
+        } while (!this.taken.compareAndSet(slot >>> 6, bits, bits | bit));
+        this.remaining.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * @param slot The index of a slot
+     * @return <code>true</code> if the record of the slot was already taken or dropped
+     */
+    private boolean isTaken(int slot) {
+        return (this.taken.get(slot >>> 6) & (1L << slot)) != 0L;
+    }
+
+    /**
+     * @param slot The index of a slot
+     * @return The position of the slot in the file
+     */
+    private long slotPosition(int slot) {
+        return this.indexPosition + (long) slot * SLOT_SIZE;
+    }
+
+    /**
+     * Reads a length-prefixed array.
+     * @param position Position of the length in the file
+     * @return The array
+     */
+    private byte[] read(long position) {
+        byte[] bytes = new byte[getInt(position)];
+        get(position + 4, bytes);
+        return bytes;
+    }
+
+    /**
+     * @param position Position in the file
+     * @return The <code>int</code> at the position
+     */
+    private int getInt(long position) {
+        ByteBuffer chunk = this.chunks[(int) (position / CHUNK_SIZE)];
+        int offset = (int) (position % CHUNK_SIZE);
+        if (offset + 4 <= chunk.limit()) {
+            return chunk.getInt(offset);
+        }
+        /* Split between two chunks. */
+        byte[] bytes = new byte[4];
+        get(position, bytes);
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+
+    /**
+     * @param position Position in the file
+     * @return The <code>long</code> at the position
+     */
+    private long getLong(long position) {
+        ByteBuffer chunk = this.chunks[(int) (position / CHUNK_SIZE)];
+        int offset = (int) (position % CHUNK_SIZE);
+        if (offset + 8 <= chunk.limit()) {
+            return chunk.getLong(offset);
+        }
+        /* Split between two chunks. */
+        byte[] bytes = new byte[8];
+        get(position, bytes);
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
+    /**
+     * Copies bytes of the file, which may be split between chunks.
+     * @param position Position of the first byte in the file
+     * @param bytes Where the bytes are copied to
+     * @throws BufferUnderflowException If the file ends before
+     */
+    private void get(long position, byte[] bytes) throws BufferUnderflowException {
+        int copied = 0;
+        while (copied < bytes.length) {
+            if (position + copied >= this.size) {
+                throw new BufferUnderflowException();
+            }
+            ByteBuffer chunk = this.chunks[(int) ((position + copied) / CHUNK_SIZE)].duplicate();
+            chunk.position((int) ((position + copied) % CHUNK_SIZE));
+            int length = Math.min(bytes.length - copied, chunk.remaining());
+            chunk.get(bytes, copied, length);
+            copied += length;
+        }
+    }
+
+    /**
+     * Entity taken out of a snapshot.
+     */
+    static final class Entry {
+
+        private final byte[] entity;
+        private final byte[] metadata;
+        private final long expirationTime;
+
+        Entry(byte[] entity, byte[] metadata, long expirationTime) {
+            this.entity = entity;
+            this.metadata = metadata;
+            this.expirationTime = expirationTime;
+        }
+
+        /**
+         * @return The serialized entity
+         */
+        byte[] getEntity() {
+            return this.entity;
+        }
+
+        /**
+         * @return The metadata of the {@link CacheObject} that held the entity
+         * @see CacheObject#writeMetadata(java.io.DataOutput)
+         */
+        byte[] getMetadata() {
+            return this.metadata;
+        }
+
+        /**
+         * @return The time in milliseconds when the entity expires
+         */
+        long getExpirationTime() {
+            return this.expirationTime;
+        }
+    }
+
+    /**
+     * Writes a new snapshot. The records are written to a temporary file, which only replaces the snapshot file when
+     * {@link #commit()} is called, so that a failure never leaves a partial snapshot behind. The index is written by
+     * {@link #commit()} as well, from the hash and the position of each record.
+     * <p>
+     * Not thread-safe.
+     */
+    static final class Writer implements Closeable {
+
+        private final Path file;
+        private final Path temporaryFile;
+        private final DataOutputStream output;
+
+        /** Position of the next record in the file. */
+        private long position = 4L;
+        /** Hash of the key of each record written so far. */
+        private int[] hashes = new int[16];
+        /** Position of each record written so far. */
+        private long[] positions = new long[16];
+        private int count;
+
+        /**
+         * Constructor.
+         * @param file The snapshot file
+         * @throws IOException If the temporary file could not be created
+         */
+        Writer(Path file) throws IOException {
+            this.file = file;
+            this.temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+            this.output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(this.temporaryFile)));
+            this.output.writeInt(MAGIC);
+        }
+
+        /**
+         * Writes the record of an entity.
+         * @param key The serialized key
+         * @param expirationTime The time in milliseconds when the entity expires
+         * @param metadata The metadata of the {@link CacheObject} holding the entity
+         * @param entity The serialized entity
+         * @throws IOException If the record could not be written, or if there are too many records
+         */
+        void write(byte[] key, long expirationTime, byte[] metadata, byte[] entity) throws IOException {
+            if (this.count == maximumSize(MAXIMUM_CAPACITY)) {
+                throw new IOException("too many entities for a single snapshot");
+            }
+            if (this.count == this.hashes.length) {
+                this.hashes = Arrays.copyOf(this.hashes, this.count << 1);
+                this.positions = Arrays.copyOf(this.positions, this.count << 1);
+            }
+            this.hashes[this.count] = OffHeapStore.hash(ByteBuffer.wrap(key), 0, key.length);
+            this.positions[this.count] = this.position;
+            this.count++;
+
+            this.output.writeInt(key.length);
+            this.output.write(key);
+            this.output.writeLong(expirationTime);
+            this.output.writeInt(metadata.length);
+            this.output.write(metadata);
+            this.output.writeInt(entity.length);
+            this.output.write(entity);
+            this.position += 20L + key.length + metadata.length + entity.length;
+        }
+
+        /**
+         * Writes the index, and then replaces the snapshot file by the written records.
+         * @throws IOException If the snapshot file could not be replaced
+         */
+        void commit() throws IOException {
+            int capacity = 1;
+            while (maximumSize(capacity) <= this.count) {
+                capacity <<= 1;
+            }
+            int mask = capacity - 1;
+            int[] slotHashes = new int[capacity];
+            long[] slotPositions = new long[capacity];
+            for (int i = 0; i < this.count; i++) {
+                int slot = this.hashes[i] & mask;
+                while (slotPositions[slot] != 0L) {
+                    slot = (slot + 1) & mask;
+                }
+                slotHashes[slot] = this.hashes[i];
+                slotPositions[slot] = this.positions[i];
+            }
+            for (int slot = 0; slot < capacity; slot++) {
+                this.output.writeInt(slotHashes[slot]);
+                this.output.writeLong(slotPositions[slot]);
+            }
+            this.output.writeLong(this.position);
+            this.output.writeInt(capacity);
+            this.output.writeInt(this.count);
+
+            this.output.close();
+            Files.move(this.temporaryFile, this.file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Discards the written records, unless they were committed.
+         */
+        @Override
+        public void close() throws IOException {
+            this.output.close();
+            Files.deleteIfExists(this.temporaryFile);
+        }
+    }
+
+    /**
+     * @param capacity A number of slots
+     * @return The number of records an index with that number of slots may hold (three quarters of it)
+     */
+    private static int maximumSize(int capacity) {
+        return capacity - (capacity >>> 2);
+    }
+}
@@ -0,0 +1,111 @@
+package com.easycache.core;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates the statistics of a {@link Cache}. Counters are {@link LongAdder}s, so that concurrent threads record
+ * them on separate cells instead of contending on a single variable.
+ * <p>
+ * Thread-safe and lock-free.
+ * @author frederico.pantuzza
+ */
+final class StatsCounter {
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder[] evictionCounts = new LongAdder[RemovalCause.values().length];
+    private final LatencyHistogram loadLatency = new LatencyHistogram();
+    private final LongAdder cleanupCount = new LongAdder();
+    private final LongAdder totalCleanupTime = new LongAdder();
+    private final LongAdder totalCleanupLockTime = new LongAdder();
+    private final LatencyHistogram cleanupLatency = new LatencyHistogram();
+    private final LongAdder lockWaitCount = new LongAdder();
+    private final LongAdder totalLockWaitTime = new LongAdder();
+
+    StatsCounter() {
+        for (int i = 0; i < this.evictionCounts.length; i++) {
+            this.evictionCounts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a request served by the cache.
+     */
+    void recordHit() {
+        this.hitCount.increment();
+    }
+
+    /**
+     * Records a request that was not served by the cache.
+     */
+    void recordMiss() {
+        this.missCount.increment();
+    }
+
+    /**
+     * Records a successful call to the {@link CacheLoader}.
+     * @param loadTime How long the load took, in nanoseconds
+     */
+    void recordLoadSuccess(long loadTime) {
+        this.loadSuccessCount.increment();
+        this.totalLoadTime.add(loadTime);
+        this.loadLatency.record(loadTime);
+    }
+
+    /**
+     * Records a call to the {@link CacheLoader} that failed.
+     * @param loadTime How long the load took, in nanoseconds
+     */
+    void recordLoadFailure(long loadTime) {
+        this.loadFailureCount.increment();
+        this.totalLoadTime.add(loadTime);
+        this.loadLatency.record(loadTime);
+    }
+
+    /**
+     * Records the removal of an entity by the cache.
+     * @param cause Why the entity was removed
+     */
+    void recordEviction(RemovalCause cause) {
+        this.evictionCounts[cause.ordinal()].increment();
+    }
+
+    /**
+     * Records a full cleanup pass over the entities.
+     * @param cleanupTime How long the pass took, in nanoseconds
+     * @param lockTime How long the pass held the write-locks, in nanoseconds
+     */
+    void recordCleanup(long cleanupTime, long lockTime) {
+        this.cleanupCount.increment();
+        this.totalCleanupTime.add(cleanupTime);
+        this.totalCleanupLockTime.add(lockTime);
+        this.cleanupLatency.record(cleanupTime);
+    }
+
+    /**
+     * Records a write-lock that was not immediately available.
+     * @param waitTime How long the lock was waited for, in nanoseconds
+     */
+    void recordLockWait(long waitTime) {
+        this.lockWaitCount.increment();
+        this.totalLockWaitTime.add(waitTime);
+    }
+
+    /**
+     * @return The statistics recorded so far. Since they keep being recorded concurrently, they may be slightly
+     *         inconsistent with each other
+     */
+    CacheStats snapshot() {
+        long[] evictionCounts = new long[this.evictionCounts.length];
+        for (int i = 0; i < evictionCounts.length; i++) {
+            evictionCounts[i] = this.evictionCounts[i].sum();
+        }
+        return new CacheStats(this.hitCount.sum(), this.missCount.sum(), this.loadSuccessCount.sum(),
+                this.loadFailureCount.sum(), this.totalLoadTime.sum(), evictionCounts, this.loadLatency.snapshot(),
+                this.cleanupCount.sum(), this.totalCleanupTime.sum(), this.totalCleanupLockTime.sum(),
+                this.cleanupLatency.snapshot(), this.lockWaitCount.sum(), this.totalLockWaitTime.sum());
+    }
+}
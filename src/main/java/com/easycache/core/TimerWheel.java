@@ -0,0 +1,197 @@
+package com.easycache.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel that tracks when each cached entity expires, so that expired entities are found in time
+ * proportional to their number instead of scanning the whole cache.
+ * <p>
+ * Each level of the wheel is an array of buckets covering a time span, from about one second per bucket in the first
+ * level to about three days in the last one. Entities are scheduled in the bucket of their expiration time, and
+ * cascade to finer levels as the wheel advances. Since the expiration time of an entity may be extended concurrently
+ * (for example, when it is read), it is checked again when its bucket expires and the entity is simply rescheduled if
+ * it is not expired yet.
+ * <p>
+ * Buckets are circular lists linked through the {@link CacheObjectLinks} of the {@link CacheObject}s, so scheduling an
+ * entity costs no allocation and no lookup.
+ * <p>
+ * Not thread-safe: it must be used while holding the cache's write lock.
+ * @author frederico.pantuzza
+ */
+final class TimerWheel {
+
+    /** Number of buckets per level. */
+    private static final int[] BUCKETS = { 64, 64, 32, 4, 1 };
+    /** Time span (in milliseconds) of a bucket in each level: ~1s, ~1m, ~1h, ~19h and ~3d. */
+    private static final long[] SPANS = { 1L << 10, 1L << 16, 1L << 22, 1L << 26, 1L << 28 };
+    /** Shift that converts a time into the ticks of each level. */
+    private static final long[] SHIFTS = { 10, 16, 22, 26, 28 };
+
+    /** Sentinels of the buckets of each level. */
+    private final CacheObject<?>[][] wheel;
+
+    /** Time (in milliseconds) up to which the wheel was advanced. */
+    private long time;
+
+    /**
+     * Constructor.
+     * @param currentTime Current time, in milliseconds
+     */
+    TimerWheel(long currentTime) {
+        this.time = currentTime;
+        this.wheel = new CacheObject<?>[BUCKETS.length][];
+        for (int i = 0; i < BUCKETS.length; i++) {
+            this.wheel[i] = new CacheObject<?>[BUCKETS[i]];
+            for (int j = 0; j < BUCKETS[i]; j++) {
+                CacheObject<?> sentinel = new CacheObject<>();
+                sentinel.links.timerPrevious = sentinel;
+                sentinel.links.timerNext = sentinel;
+                this.wheel[i][j] = sentinel;
+            }
+        }
+    }
+
+    /**
+     * Schedules (or reschedules) the expiration of an entity, according to
+     * {@link CacheObject#getExpirationTime()}. Entities that never expire are not kept in the wheel.
+     * @param cacheObject The {@link CacheObject} holding the entity
+     */
+    void schedule(CacheObject<?> cacheObject) {
+        unlink(cacheObject);
+        long expirationTime = cacheObject.getExpirationTime();
+        if (expirationTime != Long.MAX_VALUE) {
+            link(findBucket(expirationTime), cacheObject);
+        }
+    }
+
+    /**
+     * Stops tracking the expiration of an entity.
+     * @param cacheObject The {@link CacheObject} holding the entity
+     */
+    void deschedule(CacheObject<?> cacheObject) {
+        unlink(cacheObject);
+    }
+
+    /**
+     * Advances the wheel, expiring the buckets it went through.
+     * @param currentTime Current time, in milliseconds
+     * @return The keys of the expired entities (as stored in their {@link CacheObject}s), which are no longer tracked
+     *         by the wheel
+     */
+    List<Object> advance(long currentTime) {
+        long previousTime = this.time;
+        if (currentTime <= previousTime) {
+            return Collections.emptyList();
+        }
+        this.time = currentTime;
+
+        List<Object> expired = new ArrayList<>(0);
+        for (int i = 0; i < SHIFTS.length; i++) {
+            long previousTicks = previousTime >>> SHIFTS[i];
+            long currentTicks = currentTime >>> SHIFTS[i];
+            if (currentTicks - previousTicks <= 0L) {
+                break;
+            }
+            expire(i, previousTicks, currentTicks, expired);
+        }
+        return expired;
+    }
+
+    /**
+     * Forgets every entity.
+     */
+    void clear() {
+        for (CacheObject<?>[] buckets : this.wheel) {
+            for (CacheObject<?> sentinel : buckets) {
+                while (sentinel.links.timerNext != sentinel) {
+                    unlink(sentinel.links.timerNext);
+                }
+            }
+        }
+    }
+
+    /**
+     * Expires the buckets of a level that the wheel went through. Entities that are not expired yet are rescheduled,
+     * usually to a finer level.
+     * @param level The level
+     * @param previousTicks Ticks of the level before advancing
+     * @param currentTicks Ticks of the level after advancing
+     * @param expired List where the expired keys are added
+     */
+    private void expire(int level, long previousTicks, long currentTicks, List<Object> expired) {
+        CacheObject<?>[] buckets = this.wheel[level];
+        int mask = buckets.length - 1;
+        int steps = (int) Math.min(1L + currentTicks - previousTicks, buckets.length);
+        int start = (int) (previousTicks & mask);
+        for (int i = start; i < start + steps; i++) {
+            CacheObject<?> sentinel = buckets[i & mask];
+            CacheObject<?> node = sentinel.links.timerNext;
+            sentinel.links.timerPrevious = sentinel;
+            sentinel.links.timerNext = sentinel;
+
+            while (node != sentinel) {
+                CacheObjectLinks links = node.links;
+                CacheObject<?> next = links.timerNext;
+                links.timerPrevious = null;
+                links.timerNext = null;
+
+                long expirationTime = node.getExpirationTime();
+                if (expirationTime <= this.time) {
+                    expired.add(node.getKey());
+                } else {
+                    link(findBucket(expirationTime), node);
+                }
+                node = next;
+            }
+        }
+    }
+
+    /**
+     * @param expirationTime An expiration time
+     * @return The sentinel of the bucket where the expiration time must be scheduled. Times that already passed are
+     *         scheduled in the current bucket, so they expire on the next tick
+     */
+    private CacheObject<?> findBucket(long expirationTime) {
+        long time = Math.max(expirationTime, this.time);
+        long duration = time - this.time;
+        int last = this.wheel.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = time >>> SHIFTS[i];
+                int index = (int) (ticks & (this.wheel[i].length - 1));
+                return this.wheel[i][index];
+            }
+        }
+        return this.wheel[last][0];
+    }
+
+    /**
+     * Adds a {@link CacheObject} to the end of a bucket.
+     * @param sentinel Sentinel of the bucket
+     * @param node The {@link CacheObject}
+     */
+    private static void link(CacheObject<?> sentinel, CacheObject<?> node) {
+        CacheObjectLinks links = node.links;
+        CacheObjectLinks sentinelLinks = sentinel.links;
+        links.timerPrevious = sentinelLinks.timerPrevious;
+        links.timerNext = sentinel;
+        sentinelLinks.timerPrevious.links.timerNext = node;
+        sentinelLinks.timerPrevious = node;
+    }
+
+    /**
+     * Removes a {@link CacheObject} from its bucket, if any.
+     * @param node The {@link CacheObject}
+     */
+    private static void unlink(CacheObject<?> node) {
+        CacheObjectLinks links = node.links;
+        if (links.timerNext != null) {
+            links.timerNext.links.timerPrevious = links.timerPrevious;
+            links.timerPrevious.links.timerNext = links.timerNext;
+            links.timerPrevious = null;
+            links.timerNext = null;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.easycache.core;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Key of a {@link Cache} with weak keys, as stored in its maps. The key may be collected as soon as it is no longer
+ * strongly referenced outside of the cache, and it is compared by identity (just like in an
+ * {@link java.util.IdentityHashMap}). Keys are looked up with a {@link Lookup}, which is equal to the {@link WeakKey}
+ * of the same key without registering any reference.
+ * @param <K> Type of the key
+ * @author frederico.pantuzza
+ */
+final class WeakKey<K> extends WeakReference<K> {
+
+    private final int hashCode;
+
+    /**
+     * Constructor.
+     * @param key The key
+     * @param referenceQueue The {@link ReferenceQueue} where the reference will be queued after the key is collected
+     */
+    WeakKey(K key, ReferenceQueue<? super K> referenceQueue) {
+        super(key, referenceQueue);
+        this.hashCode = System.identityHashCode(key);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj == this || isSameKey(get(), obj);
+    }
+
+    /**
+     * @param key A key. <code>null</code> if it was collected
+     * @param obj A {@link WeakKey} or a {@link Lookup}
+     * @return <code>true</code> if the object refers to the same (not collected) key
+     */
+    private static boolean isSameKey(Object key, Object obj) {
+        if (key == null) {
+            return false;
+        } else if (obj instanceof WeakKey) {
+            return ((WeakKey<?>) obj).get() == key;
+        } else if (obj instanceof Lookup) {
+            return ((Lookup<?>) obj).key == key;
+        }
+        return false;
+    }
+
+    /**
+     * Short-lived strong key used to look up a {@link WeakKey}.
+     * @param <K> Type of the key
+     */
+    static final class Lookup<K> {
+
+        private final K key;
+
+        /**
+         * Constructor.
+         * @param key The key
+         */
+        Lookup(K key) {
+            this.key = key;
+        }
+
+        /**
+         * @return The key
+         */
+        K get() {
+            return this.key;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.key);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj == this || isSameKey(this.key, obj);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.easycache.core;
+
+/**
+ * Calculates the weight of the cached entities, for example, their approximate size in bytes. Used to keep the total
+ * weight of the cache under its maximum weight.
+ * @param <K> Type of the entity's key stored by the cache
+ * @param <T> Type of the entity stored by the cache
+ * @author frederico.pantuzza
+ */
+@FunctionalInterface
+public interface Weigher<K, T> {
+
+    /**
+     * Calculates the weight of an entity. It is called whenever the entity is set on its {@link CacheObject}, so it
+     * should be cheap.
+     * @param key Entity's key
+     * @param entity The entity. Never <code>null</code>
+     * @return The entity's weight. Must not be negative
+     */
+    int weigh(K key, T entity);
+}
@@ -1,8 +1,14 @@
 package com.easycache.core.defaults;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.lang.ref.ReferenceQueue;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
+import com.easycache.core.CacheClock;
 import com.easycache.core.CacheObject;
+import com.easycache.core.ReferenceStrength;
 
 /**
  * Default implementation of a {@link CacheObject} with some useful statistics.
@@ -11,9 +17,20 @@ import com.easycache.core.CacheObject;
  */
 public class DefaultCacheObject<T> extends CacheObject<T> {
 
-    private long accesses;
-    private long lastUpdateTime;
-    private long lastAccessTime;
+    /**
+     * Updates {@link #accesses} without allocating an {@link java.util.concurrent.atomic.AtomicLong}. The updates are
+     * relaxed (see {@link #beforeAccessEntity()}).
+     */
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<DefaultCacheObject> ACCESSES_UPDATER = AtomicLongFieldUpdater
+            .newUpdater(DefaultCacheObject.class, "accesses");
+    /** Updates {@link #lastAccessTime} without a full memory barrier. */
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<DefaultCacheObject> LAST_ACCESS_TIME_UPDATER = AtomicLongFieldUpdater
+            .newUpdater(DefaultCacheObject.class, "lastAccessTime");
+
+    private volatile long accesses;
+    private volatile long lastAccessTime;
 
     /**
      * Constructor.
@@ -24,19 +41,51 @@ public class DefaultCacheObject<T> extends CacheObject<T> {
         super(entity, referenceQueue);
     }
 
+    /**
+     * Constructor.
+     * @param entity See {@link CacheObject#CacheObject(Object, ReferenceQueue, ReferenceStrength)}
+     * @param referenceQueue See {@link CacheObject#CacheObject(Object, ReferenceQueue, ReferenceStrength)}
+     * @param valueStrength See {@link CacheObject#CacheObject(Object, ReferenceQueue, ReferenceStrength)}
+     */
+    public DefaultCacheObject(T entity, ReferenceQueue<T> referenceQueue, ReferenceStrength valueStrength) {
+        super(entity, referenceQueue, valueStrength);
+    }
+
+    /**
+     * Records the access with relaxed writes, since this is called on every cache hit: concurrent accesses may be
+     * counted only once and the access time is only written when the {@link CacheClock} ticked since the last access.
+     */
     @Override
     protected void beforeAccessEntity() {
-        this.lastAccessTime = System.currentTimeMillis();
-        this.accesses++;
+        long currentTime = CacheClock.currentTimeMillis();
+        if (this.lastAccessTime != currentTime) {
+            LAST_ACCESS_TIME_UPDATER.lazySet(this, currentTime);
+        }
+        ACCESSES_UPDATER.lazySet(this, this.accesses + 1L);
+    }
+
+    /**
+     * Also writes the {@link #getAccesses()} and the {@link #getLastAccessTime()}.
+     */
+    @Override
+    protected void writeMetadata(DataOutput output) throws IOException {
+        super.writeMetadata(output);
+        output.writeLong(this.accesses);
+        output.writeLong(this.lastAccessTime);
     }
 
+    /**
+     * Also restores the {@link #getAccesses()} and the {@link #getLastAccessTime()}.
+     */
     @Override
-    protected void afterSetEntity() {
-        this.lastUpdateTime = System.currentTimeMillis();
+    protected void readMetadata(DataInput input) throws IOException {
+        super.readMetadata(input);
+        this.accesses = input.readLong();
+        this.lastAccessTime = input.readLong();
     }
 
     /**
-     * Gets the number of access to this entity so far.
+     * Gets the number of access to this entity so far. Concurrent accesses may be counted only once.
      * @return The number of access to this entity so far
      */
     public long getAccesses() {
@@ -46,16 +95,16 @@ public class DefaultCacheObject<T> extends CacheObject<T> {
     /**
      * Gets the last update time to this entity, in milliseconds.
      * @return The last update time to this entity, in milliseconds
-     * @see System#currentTimeMillis()
+     * @see CacheObject#getWriteTime()
      */
     public long getLastUpdateTime() {
-        return this.lastUpdateTime;
+        return getWriteTime();
     }
 
     /**
      * Gets the last access time to this entity, in milliseconds.
      * @return The last access time to this entity, in milliseconds
-     * @see System#currentTimeMillis()
+     * @see CacheClock#currentTimeMillis()
      */
     public long getLastAccessTime() {
         return this.lastAccessTime;
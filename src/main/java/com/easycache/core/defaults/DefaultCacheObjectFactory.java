@@ -4,6 +4,7 @@ import java.lang.ref.ReferenceQueue;
 
 import com.easycache.core.CacheObject;
 import com.easycache.core.CacheObjectFactory;
+import com.easycache.core.ReferenceStrength;
 
 /**
  * {@link CacheObjectFactory} for {@link DefaultCacheObject}.
@@ -16,4 +17,9 @@ public class DefaultCacheObjectFactory<T> implements CacheObjectFactory<T> {
     public CacheObject<T> newCacheObject(T entity, ReferenceQueue<T> referenceQueue) {
         return new DefaultCacheObject<>(entity, referenceQueue);
     }
+
+    @Override
+    public CacheObject<T> newCacheObject(T entity, ReferenceQueue<T> referenceQueue, ReferenceStrength valueStrength) {
+        return new DefaultCacheObject<>(entity, referenceQueue, valueStrength);
+    }
 }
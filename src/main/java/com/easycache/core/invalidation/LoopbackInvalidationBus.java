@@ -0,0 +1,38 @@
+package com.easycache.core.invalidation;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.easycache.core.InvalidationBus;
+
+/**
+ * {@link InvalidationBus} that delivers the invalidations to the caches of the same JVM, on the publisher's thread.
+ * Caches sharing the same instance behave like the nodes of a cluster sharing a message broker, which makes it useful
+ * for tests and for caches of the same application that hold the same entities.
+ * @param <K> Type of the entity's key stored by the caches
+ * @author frederico.pantuzza
+ */
+public class LoopbackInvalidationBus<K> implements InvalidationBus<K> {
+
+    private final List<Subscriber<K>> subscribers = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void subscribe(Subscriber<K> subscriber) {
+        this.subscribers.add(subscriber);
+    }
+
+    @Override
+    public void unsubscribe(Subscriber<K> subscriber) {
+        this.subscribers.remove(subscriber);
+    }
+
+    @Override
+    public void publish(Subscriber<K> publisher, Collection<K> keys) {
+        for (Subscriber<K> subscriber : this.subscribers) {
+            if (subscriber != publisher) {
+                subscriber.onInvalidation(keys);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.easycache.core.jmx;
+
+import com.easycache.core.Cache;
+import com.easycache.core.CacheStats;
+
+/**
+ * Management interface of a {@link Cache}, registered by the {@link JmxMetricsExporter}. Every time is in
+ * nanoseconds.
+ * @author frederico.pantuzza
+ * @see CacheStats
+ */
+public interface CacheMXBean {
+
+    /**
+     * @return See {@link Cache#estimatedSize()}
+     */
+    long getEstimatedSize();
+
+    /**
+     * @return See {@link CacheStats#hitCount()}
+     */
+    long getHitCount();
+
+    /**
+     * @return See {@link CacheStats#missCount()}
+     */
+    long getMissCount();
+
+    /**
+     * @return See {@link CacheStats#hitRate()}
+     */
+    double getHitRate();
+
+    /**
+     * @return See {@link CacheStats#loadSuccessCount()}
+     */
+    long getLoadSuccessCount();
+
+    /**
+     * @return See {@link CacheStats#loadFailureCount()}
+     */
+    long getLoadFailureCount();
+
+    /**
+     * @return See {@link CacheStats#averageLoadPenalty()}
+     */
+    double getAverageLoadPenalty();
+
+    /**
+     * @return The median of {@link CacheStats#loadLatencyPercentile(double)}
+     */
+    long getLoadLatency50thPercentile();
+
+    /**
+     * @return The 99th {@link CacheStats#loadLatencyPercentile(double)}
+     */
+    long getLoadLatency99thPercentile();
+
+    /**
+     * @return The 99.9th {@link CacheStats#loadLatencyPercentile(double)}
+     */
+    long getLoadLatency999thPercentile();
+
+    /**
+     * @return See {@link CacheStats#evictionCount()}
+     */
+    long getEvictionCount();
+
+    /**
+     * @return See {@link CacheStats#cleanupCount()}
+     */
+    long getCleanupCount();
+
+    /**
+     * @return See {@link CacheStats#totalCleanupTime()}
+     */
+    long getTotalCleanupTime();
+
+    /**
+     * @return The 99th {@link CacheStats#cleanupTimePercentile(double)}
+     */
+    long getCleanupTime99thPercentile();
+
+    /**
+     * @return See {@link CacheStats#totalCleanupLockTime()}
+     */
+    long getTotalCleanupLockTime();
+
+    /**
+     * @return See {@link CacheStats#lockWaitCount()}
+     */
+    long getLockWaitCount();
+
+    /**
+     * @return See {@link CacheStats#totalLockWaitTime()}
+     */
+    long getTotalLockWaitTime();
+}
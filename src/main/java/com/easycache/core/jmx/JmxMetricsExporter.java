@@ -0,0 +1,177 @@
+package com.easycache.core.jmx;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.easycache.core.Cache;
+import com.easycache.core.CacheStats;
+import com.easycache.core.MetricsExporter;
+
+/**
+ * {@link MetricsExporter} that registers a {@link CacheMXBean} for each cache in the platform MBean server, named
+ * <code>com.easycache:type=Cache,name=&lt;name of the cache&gt;</code>.
+ * @author frederico.pantuzza
+ */
+public class JmxMetricsExporter implements MetricsExporter {
+
+    /** Domain of the registered MBeans. */
+    public static final String DOMAIN = "com.easycache";
+
+    private final MBeanServer mBeanServer;
+
+    /**
+     * Constructor. Registers the MBeans in the platform MBean server.
+     */
+    public JmxMetricsExporter() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * Constructor.
+     * @param mBeanServer (mandatory) Where the MBeans are registered
+     */
+    public JmxMetricsExporter(MBeanServer mBeanServer) {
+        if (mBeanServer == null) {
+            throw new NullPointerException("mBeanServer may not be null");
+        }
+        this.mBeanServer = mBeanServer;
+    }
+
+    /**
+     * @throws IllegalStateException If the MBean could not be registered, for example if there is already another
+     *             cache with the same name
+     */
+    @Override
+    public void register(String name, Cache<?, ?> cache) throws IllegalStateException {
+        try {
+            this.mBeanServer.registerMBean(new CacheMXBeanImpl(cache), objectName(name));
+        } catch (JMException e) {
+            throw new IllegalStateException("could not register the MBean of cache " + name, e);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException If the MBean could not be unregistered
+     */
+    @Override
+    public void unregister(String name, Cache<?, ?> cache) throws IllegalStateException {
+        try {
+            this.mBeanServer.unregisterMBean(objectName(name));
+        } catch (JMException e) {
+            throw new IllegalStateException("could not unregister the MBean of cache " + name, e);
+        }
+    }
+
+    /**
+     * @param name The name of a cache
+     * @return The name of the cache's MBean
+     * @throws JMException If the name is not valid
+     */
+    public static ObjectName objectName(String name) throws JMException {
+        return new ObjectName(DOMAIN + ":type=Cache,name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * {@link CacheMXBean} of a cache. Each attribute reads the cache's statistics again.
+     */
+    private static final class CacheMXBeanImpl implements CacheMXBean {
+
+        private final Cache<?, ?> cache;
+
+        CacheMXBeanImpl(Cache<?, ?> cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public long getEstimatedSize() {
+            return this.cache.estimatedSize();
+        }
+
+        @Override
+        public long getHitCount() {
+            return stats().hitCount();
+        }
+
+        @Override
+        public long getMissCount() {
+            return stats().missCount();
+        }
+
+        @Override
+        public double getHitRate() {
+            return stats().hitRate();
+        }
+
+        @Override
+        public long getLoadSuccessCount() {
+            return stats().loadSuccessCount();
+        }
+
+        @Override
+        public long getLoadFailureCount() {
+            return stats().loadFailureCount();
+        }
+
+        @Override
+        public double getAverageLoadPenalty() {
+            return stats().averageLoadPenalty();
+        }
+
+        @Override
+        public long getLoadLatency50thPercentile() {
+            return stats().loadLatencyPercentile(50.0d);
+        }
+
+        @Override
+        public long getLoadLatency99thPercentile() {
+            return stats().loadLatencyPercentile(99.0d);
+        }
+
+        @Override
+        public long getLoadLatency999thPercentile() {
+            return stats().loadLatencyPercentile(99.9d);
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return stats().evictionCount();
+        }
+
+        @Override
+        public long getCleanupCount() {
+            return stats().cleanupCount();
+        }
+
+        @Override
+        public long getTotalCleanupTime() {
+            return stats().totalCleanupTime();
+        }
+
+        @Override
+        public long getCleanupTime99thPercentile() {
+            return stats().cleanupTimePercentile(99.0d);
+        }
+
+        @Override
+        public long getTotalCleanupLockTime() {
+            return stats().totalCleanupLockTime();
+        }
+
+        @Override
+        public long getLockWaitCount() {
+            return stats().lockWaitCount();
+        }
+
+        @Override
+        public long getTotalLockWaitTime() {
+            return stats().totalLockWaitTime();
+        }
+
+        private CacheStats stats() {
+            return this.cache.stats();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.easycache.core.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import com.easycache.core.CacheStore;
+import com.easycache.core.Serializer;
+
+/**
+ * {@link CacheStore} that keeps each entity in its own file of a directory. Caches of different processes sharing the
+ * same directory behave like the nodes of a cluster sharing a remote store, with no network involved.
+ * <p>
+ * Each file is named after the SHA-256 hash of the serialized key, and holds the serialized key (to tell apart keys
+ * with the same hash) followed by the serialized entity. Files are written to a temporary file first and then moved
+ * atomically, so that readers never see a partial entity.
+ * @param <K> Type of the entity's key stored by the cache
+ * @param <T> Type of the entity stored by the cache
+ * @author frederico.pantuzza
+ */
+public class FileCacheStore<K, T> implements CacheStore<K, T> {
+
+    /** Extension of the files holding the entities. */
+    private static final String EXTENSION = ".entity";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Path directory;
+    private final Serializer<K> keySerializer;
+    private final Serializer<T> serializer;
+
+    /**
+     * Constructor. Creates the directory if it does not exist.
+     * @param directory (mandatory) Where the entities are stored
+     * @param keySerializer (mandatory) Serializes the keys
+     * @param serializer (mandatory) Serializes the entities
+     * @throws IOException If the directory could not be created
+     */
+    public FileCacheStore(Path directory, Serializer<K> keySerializer, Serializer<T> serializer) throws IOException {
+        if (directory == null || keySerializer == null || serializer == null) {
+            throw new NullPointerException("Neither directory, keySerializer nor serializer can be null");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.keySerializer = keySerializer;
+        this.serializer = serializer;
+    }
+
+    @Override
+    public T get(K key) throws IOException {
+        byte[] serializedKey = this.keySerializer.serialize(key);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(fileOf(serializedKey));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int keyLength = buffer.getInt();
+        if (keyLength != serializedKey.length
+                || !Arrays.equals(serializedKey, Arrays.copyOfRange(bytes, 4, 4 + keyLength))) {
+            /* Another key with the same hash. */
+            return null;
+        }
+        return this.serializer.deserialize(Arrays.copyOfRange(bytes, 4 + keyLength, bytes.length));
+    }
+
+    @Override
+    public void put(K key, T entity) throws IOException {
+        byte[] serializedKey = this.keySerializer.serialize(key);
+        byte[] serializedEntity = this.serializer.serialize(entity);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + serializedKey.length + serializedEntity.length);
+        buffer.putInt(serializedKey.length).put(serializedKey).put(serializedEntity);
+
+        Path file = fileOf(serializedKey);
+        Path temporaryFile = Files.createTempFile(this.directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporaryFile, buffer.array());
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    @Override
+    public void invalidate(K key) throws IOException {
+        Files.deleteIfExists(fileOf(this.keySerializer.serialize(key)));
+    }
+
+    /**
+     * Removes every entity from the store.
+     * @throws IOException If the files could not be deleted
+     */
+    public void clear() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * @return The directory where the entities are stored
+     */
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Gets the file holding an entity.
+     * @param serializedKey The serialized key of the entity
+     * @return The file, which may not exist
+     */
+    private Path fileOf(byte[] serializedKey) {
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-256").digest(serializedKey);
+        } catch (NoSuchAlgorithmException e) {
+            /* Every JVM must support SHA-256. */
+            throw new IllegalStateException(e);
+        }
+
+        char[] name = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            name[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            name[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+        return this.directory.resolve(new String(name) + EXTENSION);
+    }
+}
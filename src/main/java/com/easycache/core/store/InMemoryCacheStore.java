@@ -0,0 +1,48 @@
+package com.easycache.core.store;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.easycache.core.CacheStore;
+
+/**
+ * {@link CacheStore} that keeps the entities in a map in the heap. Caches sharing the same instance behave like the
+ * nodes of a cluster sharing a remote store, which makes it useful for tests and for caches of the same application
+ * that hold the same entities.
+ * @param <K> Type of the entity's key stored by the cache
+ * @param <T> Type of the entity stored by the cache
+ * @author frederico.pantuzza
+ */
+public class InMemoryCacheStore<K, T> implements CacheStore<K, T> {
+
+    private final ConcurrentMap<K, T> entities = new ConcurrentHashMap<>();
+
+    @Override
+    public T get(K key) {
+        return this.entities.get(key);
+    }
+
+    @Override
+    public void put(K key, T entity) {
+        this.entities.put(key, entity);
+    }
+
+    @Override
+    public void invalidate(K key) {
+        this.entities.remove(key);
+    }
+
+    /**
+     * @return The number of entities in the store
+     */
+    public int size() {
+        return this.entities.size();
+    }
+
+    /**
+     * Removes every entity from the store.
+     */
+    public void clear() {
+        this.entities.clear();
+    }
+}
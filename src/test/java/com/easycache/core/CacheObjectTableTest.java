@@ -0,0 +1,170 @@
+package com.easycache.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link CacheObjectTable}.
+ */
+public class CacheObjectTableTest {
+
+    private final ReferenceQueue<Object> referenceQueue = new ReferenceQueue<>();
+
+    @Test
+    public void addGetAndRemove() {
+        CacheObjectTable<Object> table = new CacheObjectTable<>();
+        CacheObject<Object> first = newCacheObject(new String("first"));
+        CacheObject<Object> second = newCacheObject(new String("second"));
+        table.add(first);
+        table.add(second);
+
+        /* Equal keys are enough to find an object. */
+        assertSame(first, table.get("first"));
+        assertSame(second, table.get("second"));
+        assertNull(table.get("third"));
+        assertEquals(2, table.size());
+
+        assertSame(first, table.remove("first"));
+        assertNull(table.remove("first"));
+        assertFalse(table.remove(first));
+        assertTrue(table.remove(second));
+        assertEquals(0, table.size());
+        assertNull(table.get("second"));
+    }
+
+    @Test
+    public void weakKeysAreFoundByTheirLookupKeys() {
+        CacheObjectTable<Object> table = new CacheObjectTable<>();
+        Long key = Long.valueOf(123456789L);
+        CacheObject<Object> cacheObject = newCacheObject(new WeakKey<>(key, this.referenceQueue));
+        table.add(cacheObject);
+
+        assertSame(cacheObject, table.get(new WeakKey.Lookup<>(key)));
+        /* Weak keys are compared by identity. */
+        assertNull(table.get(new WeakKey.Lookup<>(new Long(123456789L))));
+    }
+
+    @Test
+    public void behavesLikeAHashMapUnderRandomOperations() {
+        CacheObjectTable<Object> table = new CacheObjectTable<>();
+        Map<Long, CacheObject<Object>> expected = new HashMap<>();
+        Random random = new Random(42L);
+        for (int i = 0; i < 200000; i++) {
+            long key = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                assertSame(expected.remove(key), table.remove(Long.valueOf(key)));
+            } else if (!expected.containsKey(key)) {
+                CacheObject<Object> cacheObject = newCacheObject(key);
+                expected.put(key, cacheObject);
+                table.add(cacheObject);
+            }
+        }
+
+        assertEquals(expected.size(), table.size());
+        for (long key = 0L; key < 5000L; key++) {
+            assertSame(expected.get(key), table.get(key));
+        }
+    }
+
+    @Test
+    public void visitsInSlicesReachEveryObjectOnce() {
+        CacheObjectTable<Object> table = new CacheObjectTable<>();
+        for (long key = 0L; key < 10000L; key++) {
+            table.add(newCacheObject(key));
+        }
+
+        Set<Object> visited = new HashSet<>();
+        AtomicInteger visits = new AtomicInteger();
+        int cursor = 0;
+        while (cursor >= 0) {
+            cursor = table.forEach(cursor, 100, cacheObject -> {
+                visits.incrementAndGet();
+                visited.add(cacheObject.getKey());
+                /* Visited objects may be removed. */
+                if ((Long) cacheObject.getKey() % 2L == 0L) {
+                    table.remove(cacheObject);
+                }
+            });
+        }
+
+        assertEquals(10000, visits.get());
+        assertEquals(10000, visited.size());
+        assertEquals(5000, table.size());
+        List<Object> remaining = new ArrayList<>();
+        table.forEach(cacheObject -> remaining.add(cacheObject.getKey()));
+        assertEquals(5000, remaining.size());
+    }
+
+    @Test
+    public void readersFindEveryObjectWhileTheTableGrows() throws Exception {
+        CacheObjectTable<Object> table = new CacheObjectTable<>();
+        for (long key = 0L; key < 100L; key++) {
+            table.add(newCacheObject(key));
+        }
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger misses = new AtomicInteger();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread(() -> {
+                Random random = new Random();
+                while (writing.get()) {
+                    long key = random.nextInt(100);
+                    if (table.get(key) == null) {
+                        misses.incrementAndGet();
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        /* The table is only written by one thread at a time, as under the cache's lock. */
+        for (long key = 100L; key < 500000L; key++) {
+            table.add(newCacheObject(key));
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertEquals(0, misses.get());
+    }
+
+    @Test
+    public void clearRemovesEveryObject() {
+        CacheObjectTable<Object> table = new CacheObjectTable<>();
+        for (long key = 0L; key < 1000L; key++) {
+            table.add(newCacheObject(key));
+        }
+
+        table.clear();
+
+        assertEquals(0, table.size());
+        assertNull(table.get(1L));
+        AtomicInteger visits = new AtomicInteger();
+        table.forEach(cacheObject -> visits.incrementAndGet());
+        assertEquals(0, visits.get());
+    }
+
+    private CacheObject<Object> newCacheObject(Object key) {
+        CacheObject<Object> cacheObject = new CacheObject<>(key, this.referenceQueue, ReferenceStrength.STRONG);
+        cacheObject.setKey(key);
+        return cacheObject;
+    }
+}
@@ -0,0 +1,711 @@
+package com.easycache.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.easycache.core.invalidation.LoopbackInvalidationBus;
+import com.easycache.core.store.InMemoryCacheStore;
+
+/**
+ * Tests of {@link Cache} under concurrent loads, writes and cleanups.
+ */
+public class CacheTest {
+
+    private static final int THREADS = 8;
+
+    private static final Serializer<Long> ID_SERIALIZER = new Serializer<Long>() {
+        @Override
+        public byte[] serialize(Long id) {
+            return ByteBuffer.allocate(8).putLong(id).array();
+        }
+
+        @Override
+        public Long deserialize(byte[] bytes) {
+            return ByteBuffer.wrap(bytes).getLong();
+        }
+    };
+
+    /** Only keeps the descriptions, which is all the tests check. */
+    private static final Serializer<Foo> FOO_SERIALIZER = new Serializer<Foo>() {
+        @Override
+        public byte[] serialize(Foo foo) {
+            return foo.getDescription().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public Foo deserialize(byte[] bytes) {
+            return new Foo(0L, new String(bytes, StandardCharsets.UTF_8));
+        }
+    };
+
+    private final ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+    private final List<Cache<Long, Foo>> startedCaches = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        this.threads.shutdownNow();
+        for (Cache<Long, Foo> cache : this.startedCaches) {
+            cache.stop();
+        }
+    }
+
+    @Test
+    public void cleanupKeepsEntityReinsertedBetweenSlices() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        AtomicLong reinsertedId = new AtomicLong();
+        AtomicBoolean reinserted = new AtomicBoolean();
+        AtomicReference<Cache<Long, Foo>> self = new AtomicReference<>();
+        Cache<Long, Foo> cache = newCache(id -> {
+            loads.incrementAndGet();
+            return new Foo(id, "loaded");
+        }, (entity, cacheObject, cacheMetadata) -> {
+            if (!reinserted.getAndSet(true)) {
+                /* The cursor already fetched the other entity, which is replaced before the next slice evaluates it. */
+                long otherId = entity.getId() == 1L ? 2L : 1L;
+                reinsertedId.set(otherId);
+                self.get().invalidate(otherId);
+                self.get().put(otherId, new Foo(otherId, "new"));
+            }
+            return !"old".equals(entity.getDescription());
+        });
+        cache.setCleanupSliceSize(1);
+        self.set(start(cache));
+        cache.put(1L, new Foo(1L, "old"));
+        cache.put(2L, new Foo(2L, "old"));
+
+        cache.cleanup();
+
+        assertEquals(1L, cache.estimatedSize());
+        assertEquals("new", cache.get(reinsertedId.get()).getDescription());
+        assertEquals(0, loads.get());
+    }
+
+    @Test
+    public void cleanupInSlicesRemovesEveryUnmaintainedEntity() throws Exception {
+        Cache<Long, Foo> cache = newCache(id -> new Foo(id, "loaded"),
+                (entity, cacheObject, cacheMetadata) -> !"old".equals(entity.getDescription()));
+        cache.setCleanupSliceSize(3);
+        start(cache);
+        for (long id = 0L; id < 100L; id++) {
+            cache.put(id, new Foo(id, id % 2L == 0L ? "new" : "old"));
+        }
+
+        cache.cleanup();
+
+        assertEquals(50L, cache.estimatedSize());
+        for (long id = 0L; id < 100L; id += 2L) {
+            assertEquals("new", cache.get(id).getDescription());
+        }
+    }
+
+    @Test
+    public void cleanupThreadRemovesUnmaintainedEntities() throws Exception {
+        AtomicBoolean maintained = new AtomicBoolean(true);
+        Cache<Long, Foo> cache = newCache(id -> new Foo(id, "loaded"),
+                (entity, cacheObject, cacheMetadata) -> maintained.get());
+        cache.setCleanupInterval(10L);
+        cache.setCleanupSliceSize(1);
+        start(cache);
+        cache.put(1L, new Foo(1L, "put"));
+        cache.put(2L, new Foo(2L, "put"));
+        maintained.set(false);
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10L);
+        while (cache.estimatedSize() != 0L && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10L);
+        }
+        assertEquals(0L, cache.estimatedSize());
+    }
+
+    @Test
+    public void getAllLoadsOnlyTheMissingKeysInOneBatch() throws Exception {
+        List<Set<Long>> batches = new ArrayList<>();
+        Cache<Long, Foo> cache = start(newCache(new CacheLoader<Long, Foo>() {
+            @Override
+            public Foo load(Long id) {
+                throw new IllegalStateException("loaded one by one");
+            }
+
+            @Override
+            public Map<Long, Foo> loadAll(Set<Long> ids) {
+                batches.add(new LinkedHashSet<>(ids));
+                Map<Long, Foo> entities = new LinkedHashMap<>();
+                for (Long id : ids) {
+                    entities.put(id, new Foo(id, "loaded"));
+                }
+                return entities;
+            }
+
+            @Override
+            public boolean supportsLoadAll() {
+                return true;
+            }
+        }, (entity, cacheObject, cacheMetadata) -> true));
+        cache.put(2L, new Foo(2L, "put"));
+
+        Map<Long, Foo> entities = cache.getAll(Arrays.asList(1L, 2L, 3L));
+
+        assertEquals(new LinkedHashSet<>(Arrays.asList(1L, 2L, 3L)), entities.keySet());
+        assertEquals("put", entities.get(2L).getDescription());
+        assertEquals(1, batches.size());
+        assertEquals(new LinkedHashSet<>(Arrays.asList(1L, 3L)), batches.get(0));
+        assertEquals("loaded", cache.get(3L).getDescription());
+    }
+
+    @Test
+    public void refreshAllReloadsEveryKey() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        Cache<Long, Foo> cache = start(newCache(id -> new Foo(id, "loaded " + loads.incrementAndGet()),
+                (entity, cacheObject, cacheMetadata) -> true));
+        cache.put(1L, new Foo(1L, "put"));
+
+        Map<Long, Foo> entities = cache.refreshAll(Arrays.asList(1L, 2L));
+
+        assertEquals(2, entities.size());
+        assertEquals(2, loads.get());
+        assertEquals(entities.get(1L).getDescription(), cache.get(1L).getDescription());
+    }
+
+    @Test
+    public void batchFailureIsNotMistakenForMissingBatchSupport() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        Cache<Long, Foo> cache = start(newCache(new CacheLoader<Long, Foo>() {
+            @Override
+            public Foo load(Long id) {
+                loads.incrementAndGet();
+                return new Foo(id, "loaded");
+            }
+
+            @Override
+            public Map<Long, Foo> loadAll(Set<Long> ids) {
+                throw new UnsupportedOperationException("batch failed");
+            }
+
+            @Override
+            public boolean supportsLoadAll() {
+                return true;
+            }
+        }, (entity, cacheObject, cacheMetadata) -> true));
+
+        try {
+            cache.getAll(Arrays.asList(1L, 2L));
+            fail("the batch failure was not propagated");
+        } catch (UnsupportedOperationException e) {
+            assertEquals("batch failed", e.getMessage());
+        }
+        assertEquals(0, loads.get());
+    }
+
+    @Test
+    public void expirationShortenedByReadIsRescheduled() throws Exception {
+        Cache<Long, Foo> cache = newCache(id -> new Foo(id, "loaded"), (entity, cacheObject, cacheMetadata) -> true);
+        /* Entities never expire until they are read. */
+        cache.setExpiry(new Expiry<Long, Foo>() {
+            @Override
+            public long expireAfterCreate(Long key, Foo entity, long currentTime) {
+                return Long.MAX_VALUE;
+            }
+
+            @Override
+            public long expireAfterUpdate(Long key, Foo entity, long currentTime, long currentDuration) {
+                return currentDuration;
+            }
+
+            @Override
+            public long expireAfterRead(Long key, Foo entity, long currentTime, long currentDuration) {
+                return 1L;
+            }
+        });
+        start(cache);
+        cache.put(1L, new Foo(1L, "put"));
+        assertNotNull(cache.get(1L));
+
+        /* Only the expiration thread removes it, since there is no cleanup thread. */
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10L);
+        while (cache.estimatedSize() != 0L && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50L);
+        }
+        assertEquals(0L, cache.estimatedSize());
+    }
+
+    @Test
+    public void loadsEachKeyOnceAtATime() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        AtomicInteger loadsInProgress = new AtomicInteger();
+        AtomicInteger maximumLoadsInProgress = new AtomicInteger();
+        Cache<Long, Foo> cache = start(newCache(id -> {
+            loads.incrementAndGet();
+            maximumLoadsInProgress.accumulateAndGet(loadsInProgress.incrementAndGet(), Math::max);
+            TimeUnit.MILLISECONDS.sleep(50L);
+            loadsInProgress.decrementAndGet();
+            return new Foo(id, "loaded");
+        }, (entity, cacheObject, cacheMetadata) -> true));
+
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        List<Future<Foo>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(this.threads.submit(() -> {
+                barrier.await();
+                return cache.get(1L);
+            }));
+        }
+
+        Foo loaded = results.get(0).get();
+        assertNotNull(loaded);
+        for (Future<Foo> result : results) {
+            assertSame(loaded, result.get());
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, maximumLoadsInProgress.get());
+    }
+
+    @Test
+    public void loadsDifferentKeysInParallel() throws Exception {
+        CountDownLatch loading = new CountDownLatch(2);
+        Cache<Long, Foo> cache = start(newCache(id -> {
+            loading.countDown();
+            if (!loading.await(5L, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("loads of different keys were not run in parallel");
+            }
+            return new Foo(id, "loaded");
+        }, (entity, cacheObject, cacheMetadata) -> true));
+
+        Future<Foo> first = this.threads.submit(() -> cache.get(1L));
+        Future<Foo> second = this.threads.submit(() -> cache.get(2L));
+        assertEquals(1L, first.get().getId());
+        assertEquals(2L, second.get().getId());
+    }
+
+    @Test
+    public void failedLoadIsRetriedByTheNextGet() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        Cache<Long, Foo> cache = start(newCache(id -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new IllegalStateException("load failed");
+            }
+            return new Foo(id, "loaded");
+        }, (entity, cacheObject, cacheMetadata) -> true));
+
+        try {
+            cache.get(1L);
+            fail("the load failure was not propagated");
+        } catch (IllegalStateException e) {
+            assertEquals("load failed", e.getMessage());
+        }
+        assertEquals("loaded", cache.get(1L).getDescription());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void estimatedSizeCountsEachKeyOnce() throws Exception {
+        Cache<Long, Foo> cache = start(newCache(id -> new Foo(id, "loaded"),
+                (entity, cacheObject, cacheMetadata) -> true));
+        cache.put(1L, new Foo(1L, "put"));
+        cache.put(1L, new Foo(1L, "replaced"));
+        cache.get(2L);
+        cache.refresh(2L);
+        assertEquals(2L, cache.estimatedSize());
+        assertEquals(2, cache.size());
+
+        cache.invalidate(1L);
+        cache.invalidate(3L);
+        assertEquals(1L, cache.estimatedSize());
+    }
+
+    @Test
+    public void estimatedSizeMatchesContentsAfterConcurrentOperations() throws Exception {
+        final long keys = 64L;
+        Cache<Long, Foo> cache = newCache(id -> new Foo(id, "loaded"), (entity, cacheObject, cacheMetadata) -> true);
+        /* Odd keys expire right away, even keys never do. */
+        cache.setExpiry(new Expiry<Long, Foo>() {
+            @Override
+            public long expireAfterCreate(Long key, Foo entity, long currentTime) {
+                return key % 2L == 1L ? 1L : Long.MAX_VALUE;
+            }
+
+            @Override
+            public long expireAfterUpdate(Long key, Foo entity, long currentTime, long currentDuration) {
+                return expireAfterCreate(key, entity, currentTime);
+            }
+
+            @Override
+            public long expireAfterRead(Long key, Foo entity, long currentTime, long currentDuration) {
+                return currentDuration;
+            }
+        });
+        cache.setConcurrencyLevel(4);
+        cache.setCleanupSliceSize(4);
+        start(cache);
+
+        AtomicBoolean negativeSize = new AtomicBoolean();
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            boolean cleaner = i == 0;
+            workers.add(this.threads.submit(() -> {
+                barrier.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int j = 0; j < 20000; j++) {
+                    if (cleaner) {
+                        cache.cleanup();
+                    } else {
+                        long id = random.nextLong(keys);
+                        switch (random.nextInt(4)) {
+                        case 0:
+                            cache.get(id);
+                            break;
+                        case 1:
+                            cache.put(id, new Foo(id, "put"));
+                            break;
+                        case 2:
+                            cache.invalidate(id);
+                            break;
+                        default:
+                            cache.refresh(id);
+                        }
+                    }
+                    if (cache.estimatedSize() < 0L) {
+                        negativeSize.set(true);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+
+        /* Lets every odd key expire, then removes them. */
+        TimeUnit.MILLISECONDS.sleep(50L);
+        cache.cleanup();
+        long estimatedSize = cache.estimatedSize();
+
+        AtomicInteger cached = new AtomicInteger();
+        for (long id = 0L; id < keys; id++) {
+            cache.compute(id, (key, entity) -> {
+                if (entity != null) {
+                    cached.incrementAndGet();
+                }
+                return entity;
+            });
+        }
+        assertFalse(negativeSize.get());
+        assertEquals(cached.get(), estimatedSize);
+    }
+
+    @Test
+    public void metricsExporterReadsRunningCache() {
+        AtomicLong registeredSize = new AtomicLong(-1L);
+        Cache<Long, Foo> cache = newCache(id -> new Foo(id, "loaded"), (entity, cacheObject, cacheMetadata) -> true);
+        cache.setMetricsExporter("test", new MetricsExporter() {
+            @Override
+            public void register(String name, Cache<?, ?> registeredCache) {
+                registeredSize.set(registeredCache.estimatedSize());
+                registeredCache.stats();
+            }
+
+            @Override
+            public void unregister(String name, Cache<?, ?> registeredCache) {
+            }
+        });
+        start(cache);
+
+        assertEquals(0L, registeredSize.get());
+    }
+
+    @Test
+    public void loadInProgressDoesNotOverwriteNewerPut() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch put = new CountDownLatch(1);
+        Cache<Long, Foo> cache = start(newCache(id -> {
+            loading.countDown();
+            put.await();
+            return new Foo(id, "loaded");
+        }, (entity, cacheObject, cacheMetadata) -> true));
+
+        Future<Foo> load = this.threads.submit(() -> cache.get(1L));
+        loading.await();
+        cache.put(1L, new Foo(1L, "put"));
+        put.countDown();
+
+        assertEquals("loaded", load.get().getDescription());
+        assertEquals("put", cache.get(1L).getDescription());
+    }
+
+    @Test
+    public void loadInProgressDoesNotRestoreInvalidatedEntity() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch invalidated = new CountDownLatch(1);
+        Cache<Long, Foo> cache = start(newCache(id -> {
+            loading.countDown();
+            invalidated.await();
+            return new Foo(id, "loaded " + loads.incrementAndGet());
+        }, (entity, cacheObject, cacheMetadata) -> true));
+
+        Future<Foo> load = this.threads.submit(() -> cache.get(1L));
+        loading.await();
+        cache.invalidate(1L);
+        invalidated.countDown();
+
+        assertEquals("loaded 1", load.get().getDescription());
+        assertEquals("loaded 2", cache.get(1L).getDescription());
+    }
+
+    @Test
+    public void computeAndMergeUpdateTheCachedEntityWithoutLoading() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        Cache<Long, Foo> cache = start(newCache(id -> new Foo(id, "loaded " + loads.incrementAndGet()),
+                (entity, cacheObject, cacheMetadata) -> true));
+
+        cache.compute(1L, (id, entity) -> new Foo(id, entity == null ? "absent" : "present"));
+        cache.merge(1L, new Foo(1L, "merged"),
+                (cached, entity) -> new Foo(1L, cached.getDescription() + " " + entity.getDescription()));
+        cache.merge(2L, new Foo(2L, "merged"), (cached, entity) -> new Foo(2L, "not merged"));
+
+        assertEquals("absent merged", cache.get(1L).getDescription());
+        assertEquals("merged", cache.get(2L).getDescription());
+        assertEquals(0, loads.get());
+
+        cache.compute(1L, (id, entity) -> null);
+        assertEquals("loaded 1", cache.get(1L).getDescription());
+    }
+
+    @Test
+    public void invalidateAllRemovesEveryEntity() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        Cache<Long, Foo> cache = newCache(id -> new Foo(id, "loaded " + loads.incrementAndGet()),
+                (entity, cacheObject, cacheMetadata) -> true);
+        cache.setConcurrencyLevel(4);
+        start(cache);
+        for (long id = 0L; id < 100L; id++) {
+            cache.put(id, new Foo(id, "put"));
+        }
+
+        cache.invalidateAll(Arrays.asList(1L, 2L));
+        assertEquals(98L, cache.estimatedSize());
+
+        cache.invalidateAll();
+        assertEquals(0L, cache.estimatedSize());
+        assertEquals("loaded 1", cache.get(50L).getDescription());
+    }
+
+    @Test
+    public void entitiesEvictedBySizeArePromotedFromTheOffHeapTier() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        Cache<Long, Foo> cache = newCache(id -> new Foo(id, "loaded " + loads.incrementAndGet()),
+                (entity, cacheObject, cacheMetadata) -> true);
+        cache.setMaximumSize(2L);
+        cache.setOffHeapTier(1L << 20, ID_SERIALIZER, FOO_SERIALIZER);
+        start(cache);
+        for (long id = 0L; id < 10L; id++) {
+            cache.put(id, new Foo(id, "put " + id));
+        }
+        cache.invalidate(1L);
+
+        assertEquals("put 0", cache.get(0L).getDescription());
+        assertEquals("loaded 1", cache.get(1L).getDescription());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void snapshotSavedOnStopWarmsTheNextStart() throws Exception {
+        Path directory = Files.createTempDirectory("cache-test");
+        Path snapshotFile = directory.resolve("foos.snapshot");
+        try {
+            Cache<Long, Foo> stopped = newCache(id -> new Foo(id, "loaded"),
+                    (entity, cacheObject, cacheMetadata) -> true);
+            stopped.setSnapshot(snapshotFile, ID_SERIALIZER, FOO_SERIALIZER);
+            stopped.start();
+            for (long id = 0L; id < 10L; id++) {
+                stopped.put(id, new Foo(id, "put " + id));
+            }
+            stopped.stop();
+
+            AtomicInteger loads = new AtomicInteger();
+            Cache<Long, Foo> cache = newCache(id -> new Foo(id, "loaded " + loads.incrementAndGet()),
+                    (entity, cacheObject, cacheMetadata) -> true);
+            cache.setSnapshot(snapshotFile, ID_SERIALIZER, FOO_SERIALIZER);
+            cache.start();
+            try {
+                cache.invalidate(1L);
+
+                assertEquals("put 0", cache.get(0L).getDescription());
+                assertEquals("put 9", cache.get(9L).getDescription());
+                assertEquals("loaded 1", cache.get(1L).getDescription());
+                assertEquals(1, loads.get());
+            } finally {
+                /* Saves its own snapshot, so it is stopped before the files are deleted. */
+                cache.stop();
+            }
+        } finally {
+            Files.deleteIfExists(snapshotFile);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void statsCountHitsMissesLoadsAndEvictions() throws Exception {
+        Cache<Long, Foo> cache = newCache(id -> {
+            if (id < 0L) {
+                throw new IllegalArgumentException("negative id");
+            }
+            return new Foo(id, "loaded");
+        }, (entity, cacheObject, cacheMetadata) -> true);
+        cache.setMaximumSize(1L);
+        cache.setRecordStats(true);
+        start(cache);
+
+        cache.get(1L);
+        cache.get(1L);
+        cache.get(2L);
+        try {
+            cache.get(-1L);
+            fail("the load failure was not propagated");
+        } catch (IllegalArgumentException e) {
+            /* Recorded as a failure. */
+        }
+
+        CacheStats stats = cache.stats();
+        assertEquals(1L, stats.hitCount());
+        assertEquals(3L, stats.missCount());
+        assertEquals(2L, stats.loadSuccessCount());
+        assertEquals(1L, stats.loadFailureCount());
+        assertEquals(1L, stats.evictionCount(RemovalCause.SIZE));
+        assertTrue(stats.loadLatencyPercentile(99.0d) > 0L);
+    }
+
+    @Test
+    public void entitiesLoadedByOneCacheAreServedToTheOthersByTheStore() throws Exception {
+        InMemoryCacheStore<Long, Foo> cacheStore = new InMemoryCacheStore<>();
+        AtomicInteger loads = new AtomicInteger();
+        CacheLoader<Long, Foo> cacheLoader = id -> new Foo(id, "loaded " + loads.incrementAndGet());
+        Cache<Long, Foo> first = newCache(cacheLoader, (entity, cacheObject, cacheMetadata) -> true);
+        Cache<Long, Foo> second = newCache(cacheLoader, (entity, cacheObject, cacheMetadata) -> true);
+        first.setCacheStore(cacheStore);
+        second.setCacheStore(cacheStore);
+        start(first);
+        start(second);
+
+        assertEquals("loaded 1", first.get(1L).getDescription());
+        assertEquals("loaded 1", second.get(1L).getDescription());
+        second.put(2L, new Foo(2L, "put"));
+        assertEquals("put", first.get(2L).getDescription());
+        assertEquals(1, loads.get());
+
+        first.invalidate(1L);
+        assertEquals(1, cacheStore.size());
+    }
+
+    @Test
+    public void failingStoreFallsBackToTheLoader() throws Exception {
+        Cache<Long, Foo> cache = newCache(id -> new Foo(id, "loaded"), (entity, cacheObject, cacheMetadata) -> true);
+        cache.setCacheStore(new CacheStore<Long, Foo>() {
+            @Override
+            public Foo get(Long id) throws Exception {
+                throw new IOException("store unavailable");
+            }
+
+            @Override
+            public void put(Long id, Foo entity) throws Exception {
+                throw new IOException("store unavailable");
+            }
+
+            @Override
+            public void invalidate(Long id) throws Exception {
+                throw new IOException("store unavailable");
+            }
+        });
+        start(cache);
+
+        assertEquals("loaded", cache.get(1L).getDescription());
+        cache.invalidate(1L);
+        assertEquals(0L, cache.estimatedSize());
+    }
+
+    @Test
+    public void invalidationsReachTheOtherCachesInBatches() throws Exception {
+        List<Collection<Long>> batches = new CopyOnWriteArrayList<>();
+        InvalidationBus<Long> invalidationBus = new LoopbackInvalidationBus<Long>() {
+            @Override
+            public void publish(Subscriber<Long> publisher, Collection<Long> keys) {
+                batches.add(new ArrayList<>(keys));
+                super.publish(publisher, keys);
+            }
+        };
+        Cache<Long, Foo> first = newCache(id -> new Foo(id, "loaded"), (entity, cacheObject, cacheMetadata) -> true);
+        Cache<Long, Foo> second = newCache(id -> new Foo(id, "loaded"), (entity, cacheObject, cacheMetadata) -> true);
+        for (Cache<Long, Foo> cache : Arrays.asList(first, second)) {
+            cache.setInvalidationBus(invalidationBus);
+            cache.setInvalidationWindow(100L);
+            start(cache);
+        }
+        /* Loaded, since puts are published as invalidations as well. */
+        for (long id = 0L; id < 10L; id++) {
+            first.get(id);
+            second.get(id);
+        }
+
+        first.invalidate(1L);
+        first.invalidateAll(Arrays.asList(1L, 2L));
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10L);
+        while (second.estimatedSize() != 8L && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10L);
+        }
+        assertEquals(8L, second.estimatedSize());
+        assertEquals(8L, first.estimatedSize());
+        assertEquals(Collections.singletonList(new ArrayList<>(Arrays.asList(1L, 2L))), batches);
+    }
+
+    /**
+     * Creates a cache that holds its entities strongly and has no cleanup thread, so that only the tests change it.
+     */
+    private static Cache<Long, Foo> newCache(CacheLoader<Long, Foo> cacheLoader,
+            CacheObjectMaintainer<Long, Foo> cacheObjectMaintainer) {
+        Cache<Long, Foo> cache = new Cache<>(cacheLoader, cacheObjectMaintainer);
+        cache.setValueStrength(ReferenceStrength.STRONG);
+        cache.setCleanupInterval(null);
+        return cache;
+    }
+
+    private Cache<Long, Foo> start(Cache<Long, Foo> cache) {
+        cache.start();
+        this.startedCaches.add(cache);
+        return cache;
+    }
+}
@@ -0,0 +1,109 @@
+package com.easycache.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link EvictionPolicy}.
+ */
+public class EvictionPolicyTest {
+
+    private final ReferenceQueue<Long> referenceQueue = new ReferenceQueue<>();
+
+    @Test
+    public void evictsDownToTheMaximumWeight() {
+        EvictionPolicy policy = new EvictionPolicy(10L);
+        List<Object> evicted = new ArrayList<>();
+        for (long key = 0L; key < 100L; key++) {
+            evicted.addAll(policy.recordWrite(newCacheObject(key), 1));
+        }
+
+        assertEquals(90, evicted.size());
+        assertEquals(90, new HashSet<>(evicted).size());
+    }
+
+    @Test
+    public void evictsByWeight() {
+        EvictionPolicy policy = new EvictionPolicy(10L);
+        assertEquals(Collections.emptyList(), policy.recordWrite(newCacheObject(1L), 6));
+        assertEquals(Collections.emptyList(), policy.recordWrite(newCacheObject(2L), 4));
+
+        assertEquals(1, policy.recordWrite(newCacheObject(3L), 1).size());
+    }
+
+    @Test
+    public void keyHeavierThanTheMaximumIsEvictedRightAway() {
+        EvictionPolicy policy = new EvictionPolicy(10L);
+        policy.recordWrite(newCacheObject(1L), 1);
+
+        assertEquals(Collections.singletonList(2L), policy.recordWrite(newCacheObject(2L), 11));
+    }
+
+    @Test
+    public void reweighingAKeyEvictsWhenItGrows() {
+        EvictionPolicy policy = new EvictionPolicy(10L);
+        CacheObject<Long> growing = newCacheObject(1L);
+        policy.recordWrite(growing, 1);
+        policy.recordWrite(newCacheObject(2L), 1);
+
+        assertEquals(1, policy.recordWrite(growing, 10).size());
+    }
+
+    @Test
+    public void removedKeysFreeTheirWeight() {
+        EvictionPolicy policy = new EvictionPolicy(2L);
+        CacheObject<Long> removed = newCacheObject(1L);
+        policy.recordWrite(removed, 1);
+        policy.recordWrite(newCacheObject(2L), 1);
+
+        policy.recordRemoval(removed);
+
+        assertEquals(Collections.emptyList(), policy.recordWrite(newCacheObject(3L), 1));
+    }
+
+    @Test
+    public void frequentKeysSurviveAScan() {
+        EvictionPolicy policy = new EvictionPolicy(100L);
+        List<CacheObject<Long>> hotObjects = new ArrayList<>();
+        for (long key = 0L; key < 100L; key++) {
+            CacheObject<Long> cacheObject = newCacheObject(key);
+            policy.recordWrite(cacheObject, 1);
+            if (key < 50L) {
+                hotObjects.add(cacheObject);
+            }
+        }
+        for (int i = 0; i < 5; i++) {
+            for (CacheObject<Long> cacheObject : hotObjects) {
+                policy.recordAccess(cacheObject);
+            }
+        }
+
+        Set<Object> evicted = new HashSet<>();
+        for (long key = 1000L; key < 2000L; key++) {
+            evicted.addAll(policy.recordWrite(newCacheObject(key), 1));
+        }
+
+        assertEquals(1000, evicted.size());
+        for (long key = 0L; key < 50L; key++) {
+            assertFalse(evicted.contains(key));
+        }
+        assertTrue(evicted.contains(1000L));
+    }
+
+    private CacheObject<Long> newCacheObject(long key) {
+        CacheObject<Long> cacheObject = new CacheObject<>(key, this.referenceQueue, ReferenceStrength.STRONG);
+        cacheObject.setKey(key);
+        cacheObject.links = new CacheObjectLinks();
+        return cacheObject;
+    }
+}
@@ -0,0 +1,70 @@
+package com.easycache.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link FrequencySketch}.
+ */
+public class FrequencySketchTest {
+
+    @Test
+    public void countsAccessesUpToTheMaximumFrequency() {
+        FrequencySketch<Long> sketch = new FrequencySketch<>();
+        for (int i = 0; i < 5; i++) {
+            sketch.increment(1L);
+        }
+        for (int i = 0; i < 20; i++) {
+            sketch.increment(2L);
+        }
+
+        assertEquals(5, sketch.frequency(1L));
+        assertEquals(15, sketch.frequency(2L));
+        assertEquals(0, sketch.frequency(3L));
+    }
+
+    @Test
+    public void halvesTheFrequenciesOnceTheSampleIsRecorded() {
+        FrequencySketch<Long> sketch = new FrequencySketch<>();
+        for (int i = 0; i < 15; i++) {
+            sketch.increment(0L);
+        }
+
+        /* Ten times the minimum capacity of sixteen keys. */
+        for (long key = 1L; key <= 160L; key++) {
+            sketch.increment(key);
+        }
+
+        assertTrue(sketch.frequency(0L) <= 7);
+    }
+
+    @Test
+    public void growingForgetsTheFrequencies() {
+        FrequencySketch<Long> sketch = new FrequencySketch<>();
+        sketch.increment(1L);
+
+        sketch.ensureCapacity(1000L);
+
+        assertEquals(0, sketch.frequency(1L));
+    }
+
+    @Test
+    public void tellsFrequentKeysApartAmongManyKeys() {
+        FrequencySketch<Long> sketch = new FrequencySketch<>();
+        sketch.ensureCapacity(10000L);
+        for (long key = 0L; key < 10000L; key++) {
+            sketch.increment(key);
+            if (key % 100L == 0L) {
+                for (int i = 0; i < 10; i++) {
+                    sketch.increment(key);
+                }
+            }
+        }
+
+        for (long key = 0L; key < 10000L; key += 100L) {
+            assertTrue(sketch.frequency(key) > sketch.frequency(key + 1L));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.easycache.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallLatenciesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 0L; nanos < 8L; nanos++) {
+            histogram.record(nanos);
+        }
+
+        long[] counts = histogram.snapshot();
+        assertEquals(0L, LatencyHistogram.valueAt(counts, 0.0d));
+        assertEquals(3L, LatencyHistogram.valueAt(counts, 50.0d));
+        assertEquals(7L, LatencyHistogram.valueAt(counts, 100.0d));
+    }
+
+    @Test
+    public void latenciesAreKnownWithinAnEighthWhateverTheirMagnitude() {
+        long[] latencies = { 9L, 1000L, 123456L, 1_000_000_007L, Long.MAX_VALUE / 3L, Long.MAX_VALUE };
+        for (long latency : latencies) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(latency);
+
+            long value = LatencyHistogram.valueAt(histogram.snapshot(), 50.0d);
+            assertTrue(value >= latency);
+            assertTrue(value - latency <= latency / 8L);
+        }
+    }
+
+    @Test
+    public void percentilesFollowTheRecordedDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1L; nanos <= 10000L; nanos++) {
+            histogram.record(nanos);
+        }
+
+        long[] counts = histogram.snapshot();
+        assertWithinAnEighth(5000L, LatencyHistogram.valueAt(counts, 50.0d));
+        assertWithinAnEighth(9900L, LatencyHistogram.valueAt(counts, 99.0d));
+        assertWithinAnEighth(10000L, LatencyHistogram.valueAt(counts, 100.0d));
+    }
+
+    @Test
+    public void negativeLatenciesAreRecordedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1L);
+
+        assertEquals(0L, LatencyHistogram.valueAt(histogram.snapshot(), 100.0d));
+        assertEquals(1L, histogram.snapshot()[0]);
+    }
+
+    @Test
+    public void emptyHistogramHasNoLatency() {
+        assertEquals(0L, LatencyHistogram.valueAt(new LatencyHistogram().snapshot(), 99.0d));
+    }
+
+    private static void assertWithinAnEighth(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 8L);
+    }
+}
@@ -0,0 +1,127 @@
+package com.easycache.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of {@link LongKeyCache} under concurrent loads and writes.
+ */
+public class LongKeyCacheTest {
+
+    private final ExecutorService threads = Executors.newSingleThreadExecutor();
+    private final List<LongKeyCache<Foo>> startedCaches = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        this.threads.shutdownNow();
+        for (LongKeyCache<Foo> cache : this.startedCaches) {
+            cache.stop();
+        }
+    }
+
+    @Test
+    public void loadInProgressDoesNotOverwriteNewerPut() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch put = new CountDownLatch(1);
+        LongKeyCache<Foo> cache = start(newCache(id -> {
+            loading.countDown();
+            put.await();
+            return new Foo(id, "loaded");
+        }));
+
+        Future<Foo> load = this.threads.submit(() -> cache.get(1L));
+        loading.await();
+        cache.put(1L, new Foo(1L, "put"));
+        put.countDown();
+
+        assertEquals("loaded", load.get().getDescription());
+        assertEquals("put", cache.get(1L).getDescription());
+    }
+
+    @Test
+    public void loadInProgressDoesNotRestoreInvalidatedEntity() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch invalidated = new CountDownLatch(1);
+        LongKeyCache<Foo> cache = start(newCache(id -> {
+            loading.countDown();
+            invalidated.await();
+            return new Foo(id, "loaded " + loads.incrementAndGet());
+        }));
+
+        Future<Foo> load = this.threads.submit(() -> cache.get(1L));
+        loading.await();
+        cache.invalidate(1L);
+        invalidated.countDown();
+
+        assertEquals("loaded 1", load.get().getDescription());
+        assertEquals("loaded 2", cache.get(1L).getDescription());
+    }
+
+    @Test
+    public void cleanupInSlicesRemovesEveryUnmaintainedEntity() throws Exception {
+        LongKeyCache<Foo> cache = new LongKeyCache<>(id -> new Foo(id, "loaded"),
+                (entity, cacheObject, cacheMetadata) -> !"old".equals(entity.getDescription()));
+        cache.setValueStrength(ReferenceStrength.STRONG);
+        cache.setCleanupInterval(null);
+        cache.setCleanupSliceSize(3);
+        start(cache);
+        for (long id = 0L; id < 100L; id++) {
+            cache.put(id, new Foo(id, id % 2L == 0L ? "new" : "old"));
+        }
+
+        cache.cleanup();
+
+        assertEquals(50L, cache.estimatedSize());
+        for (long id = 0L; id < 100L; id += 2L) {
+            assertEquals("new", cache.get(id).getDescription());
+        }
+    }
+
+    @Test
+    public void collectedEntitiesAreRemoved() throws Exception {
+        LongKeyCache<Foo> cache = new LongKeyCache<>(id -> new Foo(id, "loaded"),
+                (entity, cacheObject, cacheMetadata) -> true);
+        cache.setValueStrength(ReferenceStrength.WEAK);
+        cache.setCleanupInterval(null);
+        start(cache);
+        for (long id = 0L; id < 100L; id++) {
+            cache.put(id, new Foo(id, "put"));
+        }
+
+        /* Only the references cleanup thread removes them, since there is no cleanup thread. */
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10L);
+        while (cache.estimatedSize() != 0L && System.currentTimeMillis() < deadline) {
+            System.gc();
+            TimeUnit.MILLISECONDS.sleep(50L);
+        }
+        assertEquals(0L, cache.estimatedSize());
+    }
+
+    /**
+     * Creates a cache that holds its entities strongly and has no cleanup thread, so that only the tests change it.
+     */
+    private static LongKeyCache<Foo> newCache(CacheLoader<Long, Foo> cacheLoader) {
+        LongKeyCache<Foo> cache = new LongKeyCache<>(cacheLoader, (entity, cacheObject, cacheMetadata) -> true);
+        cache.setValueStrength(ReferenceStrength.STRONG);
+        cache.setCleanupInterval(null);
+        return cache;
+    }
+
+    private LongKeyCache<Foo> start(LongKeyCache<Foo> cache) {
+        cache.start();
+        this.startedCaches.add(cache);
+        return cache;
+    }
+}
@@ -0,0 +1,108 @@
+package com.easycache.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link LongObjectMap}.
+ */
+public class LongObjectMapTest {
+
+    @Test
+    public void putGetAndRemove() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+
+        assertNull(map.put(1L, "one"));
+        assertEquals("one", map.put(1L, "uno"));
+        assertNull(map.put(-1L, "minus one"));
+        assertNull(map.put(0L, "zero"));
+
+        assertEquals("uno", map.get(1L));
+        assertEquals("minus one", map.get(-1L));
+        assertEquals("zero", map.get(0L));
+        assertNull(map.get(2L));
+        assertEquals(3, map.size());
+
+        assertEquals("uno", map.remove(1L));
+        assertNull(map.remove(1L));
+        assertNull(map.get(1L));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void nullValuesAreRejected() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        try {
+            map.put(1L, null);
+            fail("a null value was accepted");
+        } catch (NullPointerException e) {
+            assertEquals(0, map.size());
+        }
+    }
+
+    @Test
+    public void behavesLikeAHashMapUnderRandomOperations() {
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42L);
+        for (int i = 0; i < 200000; i++) {
+            /* Few keys, so that removals shift clusters back; spread over the whole range, including negatives. */
+            long key = random.nextInt(2000) * 0x9e3779b97f4a7c15L;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                Long value = random.nextLong();
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (int i = 0; i < 2000; i++) {
+            long key = i * 0x9e3779b97f4a7c15L;
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    public void removeIfInSlicesRemovesEveryMatchingEntry() {
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        for (long key = 0L; key < 10000L; key++) {
+            map.put(key, key);
+        }
+
+        int slices = 0;
+        int cursor = 0;
+        while (cursor >= 0) {
+            cursor = map.removeIf(cursor, 100, value -> value % 3L != 0L);
+            slices++;
+        }
+
+        assertEquals(3334, map.size());
+        assertTrue(slices >= 100);
+        for (long key = 0L; key < 10000L; key++) {
+            assertEquals(key % 3L == 0L ? Long.valueOf(key) : null, map.get(key));
+        }
+    }
+
+    @Test
+    public void clearRemovesEveryEntry() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        for (long key = 0L; key < 1000L; key++) {
+            map.put(key, "value");
+        }
+
+        map.clear();
+
+        assertEquals(0, map.size());
+        assertNull(map.get(1L));
+        assertNull(map.put(1L, "value"));
+    }
+}
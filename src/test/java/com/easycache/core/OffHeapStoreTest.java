@@ -0,0 +1,121 @@
+package com.easycache.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link OffHeapStore}.
+ */
+public class OffHeapStoreTest {
+
+    private static final long CURRENT_TIME = 1000L;
+
+    @Test
+    public void storedEntityIsTakenOutOnce() {
+        OffHeapStore store = new OffHeapStore(1L << 20);
+        assertTrue(store.put(bytes("key"), bytes("entity"), 5000L));
+        assertFalse(store.isEmpty());
+
+        OffHeapStore.Entry entry = store.remove(bytes("key"), CURRENT_TIME);
+
+        assertArrayEquals(bytes("entity"), entry.getBytes());
+        assertEquals(5000L, entry.getExpirationTime());
+        assertNull(store.remove(bytes("key"), CURRENT_TIME));
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    public void putReplacesTheEntityOfTheSameKey() {
+        OffHeapStore store = new OffHeapStore(1L << 20);
+        store.put(bytes("key"), bytes("old"), Long.MAX_VALUE);
+        store.put(bytes("key"), bytes("new"), Long.MAX_VALUE);
+        store.put(bytes("other key"), bytes("other"), Long.MAX_VALUE);
+
+        assertArrayEquals(bytes("new"), store.remove(bytes("key"), CURRENT_TIME).getBytes());
+        assertArrayEquals(bytes("other"), store.remove(bytes("other key"), CURRENT_TIME).getBytes());
+    }
+
+    @Test
+    public void expiredAndInvalidatedEntitiesAreNotReturned() {
+        OffHeapStore store = new OffHeapStore(1L << 20);
+        store.put(bytes("expired"), bytes("entity"), CURRENT_TIME);
+        store.put(bytes("invalidated"), bytes("entity"), Long.MAX_VALUE);
+
+        store.invalidate(bytes("invalidated"));
+
+        assertNull(store.remove(bytes("expired"), CURRENT_TIME));
+        assertNull(store.remove(bytes("invalidated"), CURRENT_TIME));
+    }
+
+    @Test
+    public void entityLargerThanASlabIsRejected() {
+        /* Sixteen slabs of 64 bytes. */
+        OffHeapStore store = new OffHeapStore(1024L);
+
+        assertFalse(store.put(bytes("key"), new byte[100], Long.MAX_VALUE));
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    public void oldestEntitiesAreDroppedWhenFull() {
+        /* Sixteen slabs of 64 bytes, each holding a single entity of 48 bytes. */
+        OffHeapStore store = new OffHeapStore(1024L);
+        for (long id = 0L; id < 20L; id++) {
+            assertTrue(store.put(key(id), new byte[24], Long.MAX_VALUE));
+        }
+
+        for (long id = 0L; id < 4L; id++) {
+            assertNull(store.remove(key(id), CURRENT_TIME));
+        }
+        for (long id = 4L; id < 20L; id++) {
+            assertNotNull(store.remove(key(id), CURRENT_TIME));
+        }
+    }
+
+    @Test
+    public void indexGrowsAlongWithTheEntities() {
+        OffHeapStore store = new OffHeapStore(16L << 20);
+        for (long id = 0L; id < 10000L; id++) {
+            store.put(key(id), bytes("entity " + id), Long.MAX_VALUE);
+        }
+
+        for (long id = 0L; id < 10000L; id++) {
+            assertArrayEquals(bytes("entity " + id), store.remove(key(id), CURRENT_TIME).getBytes());
+        }
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    public void clearDropsEveryEntity() {
+        OffHeapStore store = new OffHeapStore(1L << 20);
+        for (long id = 0L; id < 100L; id++) {
+            store.put(key(id), bytes("entity"), Long.MAX_VALUE);
+        }
+
+        store.clear();
+
+        assertTrue(store.isEmpty());
+        assertNull(store.remove(key(1L), CURRENT_TIME));
+        assertTrue(store.put(key(1L), bytes("entity"), Long.MAX_VALUE));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] key(long id) {
+        byte[] key = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            key[i] = (byte) (id >>> (i * 8));
+        }
+        return key;
+    }
+}
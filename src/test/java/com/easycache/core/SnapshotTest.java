@@ -0,0 +1,149 @@
+package com.easycache.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of {@link Snapshot}.
+ */
+public class SnapshotTest {
+
+    private static final long CURRENT_TIME = 1000L;
+
+    private static final Serializer<Long> KEY_SERIALIZER = new Serializer<Long>() {
+        @Override
+        public byte[] serialize(Long id) {
+            return ByteBuffer.allocate(8).putLong(id).array();
+        }
+
+        @Override
+        public Long deserialize(byte[] bytes) {
+            return ByteBuffer.wrap(bytes).getLong();
+        }
+    };
+
+    private final Path directory;
+    private final Path file;
+
+    public SnapshotTest() throws IOException {
+        this.directory = Files.createTempDirectory("snapshot-test");
+        this.file = this.directory.resolve("cache.snapshot");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void writtenEntitiesAreTakenOnce() throws IOException {
+        write(0L, 100L);
+        Snapshot snapshot = open();
+
+        for (long id = 0L; id < 100L; id++) {
+            Snapshot.Entry entry = snapshot.take(id, CURRENT_TIME);
+            assertArrayEquals(bytes("entity " + id), entry.getEntity());
+            assertArrayEquals(bytes("metadata " + id), entry.getMetadata());
+            assertEquals(Long.MAX_VALUE, entry.getExpirationTime());
+        }
+        assertNull(snapshot.take(0L, CURRENT_TIME));
+        assertNull(snapshot.take(100L, CURRENT_TIME));
+    }
+
+    @Test
+    public void expiredEntitiesAreNotTaken() throws IOException {
+        try (Snapshot.Writer writer = new Snapshot.Writer(this.file)) {
+            writer.write(KEY_SERIALIZER.serialize(1L), CURRENT_TIME, new byte[0], bytes("entity"));
+            writer.commit();
+        }
+
+        assertNull(open().take(1L, CURRENT_TIME));
+    }
+
+    @Test
+    public void invalidatedAndClearedEntitiesAreNotTaken() throws IOException {
+        write(0L, 10L);
+        Snapshot snapshot = open();
+
+        snapshot.invalidate(1L);
+        assertNull(snapshot.take(1L, CURRENT_TIME));
+        assertArrayEquals(bytes("entity 2"), snapshot.take(2L, CURRENT_TIME).getEntity());
+
+        snapshot.clear();
+        assertNull(snapshot.take(3L, CURRENT_TIME));
+    }
+
+    @Test
+    public void entitiesNotTakenAreWrittenToTheNextSnapshot() throws IOException {
+        write(0L, 10L);
+        Snapshot snapshot = open();
+        snapshot.take(1L, CURRENT_TIME);
+        snapshot.invalidate(2L);
+
+        Path nextFile = this.directory.resolve("next.snapshot");
+        try (Snapshot.Writer writer = new Snapshot.Writer(nextFile)) {
+            snapshot.writeTo(writer, CURRENT_TIME);
+            writer.commit();
+        }
+        snapshot.close();
+
+        Snapshot next = Snapshot.open(nextFile, KEY_SERIALIZER, Runnable::run);
+        assertNull(next.take(1L, CURRENT_TIME));
+        assertNull(next.take(2L, CURRENT_TIME));
+        for (long id = 3L; id < 10L; id++) {
+            assertArrayEquals(bytes("entity " + id), next.take(id, CURRENT_TIME).getEntity());
+        }
+    }
+
+    @Test
+    public void uncommittedSnapshotLeavesNoFile() throws IOException {
+        try (Snapshot.Writer writer = new Snapshot.Writer(this.file)) {
+            writer.write(KEY_SERIALIZER.serialize(1L), Long.MAX_VALUE, new byte[0], bytes("entity"));
+        }
+
+        assertNull(open());
+        try (Stream<Path> files = Files.list(this.directory)) {
+            assertFalse(files.findAny().isPresent());
+        }
+    }
+
+    @Test
+    public void invalidFileIsIgnored() throws IOException {
+        Files.write(this.file, bytes("not a snapshot, but long enough to have a trailer"));
+
+        assertNull(open());
+    }
+
+    private void write(long fromId, long toId) throws IOException {
+        try (Snapshot.Writer writer = new Snapshot.Writer(this.file)) {
+            for (long id = fromId; id < toId; id++) {
+                writer.write(KEY_SERIALIZER.serialize(id), Long.MAX_VALUE, bytes("metadata " + id),
+                        bytes("entity " + id));
+            }
+            writer.commit();
+        }
+    }
+
+    private Snapshot open() throws IOException {
+        return Snapshot.open(this.file, KEY_SERIALIZER, Runnable::run);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
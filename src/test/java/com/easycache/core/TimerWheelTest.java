@@ -0,0 +1,119 @@
+package com.easycache.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.ref.ReferenceQueue;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link TimerWheel}.
+ */
+public class TimerWheelTest {
+
+    private static final long START_TIME = 1_600_000_000_000L;
+
+    private final ReferenceQueue<Long> referenceQueue = new ReferenceQueue<>();
+
+    @Test
+    public void expiresEachEntityOnceItsTimePassed() {
+        TimerWheel timerWheel = new TimerWheel(START_TIME);
+        timerWheel.schedule(newCacheObject(1L, START_TIME + 500L));
+        timerWheel.schedule(newCacheObject(2L, START_TIME + TimeUnit.SECONDS.toMillis(5L)));
+        timerWheel.schedule(newCacheObject(3L, START_TIME + TimeUnit.MINUTES.toMillis(2L)));
+        timerWheel.schedule(newCacheObject(4L, START_TIME + TimeUnit.HOURS.toMillis(3L)));
+
+        assertEquals(Collections.singletonList(1L), timerWheel.advance(START_TIME + 2000L));
+        assertEquals(Collections.singletonList(2L),
+                timerWheel.advance(START_TIME + TimeUnit.SECONDS.toMillis(10L)));
+        assertEquals(Collections.singletonList(3L),
+                timerWheel.advance(START_TIME + TimeUnit.MINUTES.toMillis(5L)));
+        assertEquals(Collections.emptyList(), timerWheel.advance(START_TIME + TimeUnit.HOURS.toMillis(2L)));
+        assertEquals(Collections.singletonList(4L), timerWheel.advance(START_TIME + TimeUnit.HOURS.toMillis(4L)));
+    }
+
+    @Test
+    public void expiresEverythingAfterAGapLongerThanTheWheel() {
+        TimerWheel timerWheel = new TimerWheel(START_TIME);
+        for (long key = 0L; key < 100L; key++) {
+            timerWheel.schedule(newCacheObject(key, START_TIME + TimeUnit.MINUTES.toMillis(key * 97L)));
+        }
+
+        assertEquals(100, new HashSet<>(timerWheel.advance(START_TIME + TimeUnit.DAYS.toMillis(30L))).size());
+    }
+
+    @Test
+    public void entitiesThatNeverExpireAreNotTracked() {
+        TimerWheel timerWheel = new TimerWheel(START_TIME);
+        timerWheel.schedule(newCacheObject(1L, Long.MAX_VALUE));
+
+        assertEquals(Collections.emptyList(), timerWheel.advance(START_TIME + TimeUnit.DAYS.toMillis(30L)));
+    }
+
+    @Test
+    public void descheduledEntitiesDoNotExpire() {
+        TimerWheel timerWheel = new TimerWheel(START_TIME);
+        CacheObject<Long> descheduled = newCacheObject(1L, START_TIME + 500L);
+        timerWheel.schedule(descheduled);
+        timerWheel.schedule(newCacheObject(2L, START_TIME + 500L));
+
+        timerWheel.deschedule(descheduled);
+
+        assertEquals(Collections.singletonList(2L), timerWheel.advance(START_TIME + 2000L));
+    }
+
+    @Test
+    public void rescheduledEntitiesExpireAtTheirNewTime() {
+        TimerWheel timerWheel = new TimerWheel(START_TIME);
+        CacheObject<Long> postponed = newCacheObject(1L, START_TIME + 500L);
+        CacheObject<Long> brought = newCacheObject(2L, START_TIME + TimeUnit.HOURS.toMillis(1L));
+        timerWheel.schedule(postponed);
+        timerWheel.schedule(brought);
+
+        postponed.setExpirationTime(START_TIME + TimeUnit.MINUTES.toMillis(1L));
+        timerWheel.schedule(postponed);
+        brought.setExpirationTime(START_TIME + 500L);
+        timerWheel.schedule(brought);
+
+        assertEquals(Collections.singletonList(2L), timerWheel.advance(START_TIME + 2000L));
+        assertEquals(Collections.singletonList(1L), timerWheel.advance(START_TIME + TimeUnit.MINUTES.toMillis(2L)));
+    }
+
+    @Test
+    public void entitiesExtendedWithoutReschedulingAreCheckedAgain() {
+        TimerWheel timerWheel = new TimerWheel(START_TIME);
+        CacheObject<Long> extended = newCacheObject(1L, START_TIME + 500L);
+        timerWheel.schedule(extended);
+
+        /* As a reader extends it, without the lock. */
+        extended.setExpirationTime(START_TIME + TimeUnit.SECONDS.toMillis(30L));
+
+        assertEquals(Collections.emptyList(), timerWheel.advance(START_TIME + 2000L));
+        assertEquals(Collections.singletonList(1L), timerWheel.advance(START_TIME + TimeUnit.MINUTES.toMillis(1L)));
+    }
+
+    @Test
+    public void clearForgetsEveryEntity() {
+        TimerWheel timerWheel = new TimerWheel(START_TIME);
+        for (long key = 0L; key < 10L; key++) {
+            timerWheel.schedule(newCacheObject(key, START_TIME + key * 1000L));
+        }
+
+        timerWheel.clear();
+        timerWheel.schedule(newCacheObject(10L, START_TIME + 500L));
+
+        assertEquals(Arrays.asList(10L), timerWheel.advance(START_TIME + TimeUnit.DAYS.toMillis(1L)));
+    }
+
+    private CacheObject<Long> newCacheObject(long key, long expirationTime) {
+        CacheObject<Long> cacheObject = new CacheObject<>(key, this.referenceQueue, ReferenceStrength.STRONG);
+        cacheObject.setKey(key);
+        cacheObject.links = new CacheObjectLinks();
+        cacheObject.setExpirationTime(expirationTime);
+        return cacheObject;
+    }
+}
@@ -0,0 +1,52 @@
+package com.easycache.core.invalidation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.easycache.core.InvalidationBus.Subscriber;
+
+/**
+ * Tests of {@link LoopbackInvalidationBus}.
+ */
+public class LoopbackInvalidationBusTest {
+
+    @Test
+    public void invalidationsReachEveryOtherSubscriber() {
+        LoopbackInvalidationBus<Long> bus = new LoopbackInvalidationBus<>();
+        List<Collection<Long>> publisherBatches = new ArrayList<>();
+        List<Collection<Long>> subscriberBatches = new ArrayList<>();
+        Subscriber<Long> publisher = publisherBatches::add;
+        bus.subscribe(publisher);
+        bus.subscribe(subscriberBatches::add);
+
+        bus.publish(publisher, Arrays.asList(1L, 2L));
+
+        assertEquals(Collections.emptyList(), publisherBatches);
+        assertEquals(Collections.singletonList(Arrays.asList(1L, 2L)), subscriberBatches);
+    }
+
+    @Test
+    public void unsubscribedSubscribersReceiveNothing() {
+        LoopbackInvalidationBus<Long> bus = new LoopbackInvalidationBus<>();
+        List<Collection<Long>> batches = new ArrayList<>();
+        Subscriber<Long> subscriber = batches::add;
+        Subscriber<Long> publisher = keys -> {
+        };
+        bus.subscribe(subscriber);
+        bus.subscribe(publisher);
+
+        bus.unsubscribe(subscriber);
+        bus.unsubscribe(publisher);
+        /* Publishers may still publish their last invalidations once unsubscribed. */
+        bus.publish(publisher, Collections.singletonList(1L));
+
+        assertEquals(Collections.emptyList(), batches);
+    }
+}
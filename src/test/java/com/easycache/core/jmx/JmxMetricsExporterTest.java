@@ -0,0 +1,69 @@
+package com.easycache.core.jmx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.easycache.core.Cache;
+import com.easycache.core.Foo;
+import com.easycache.core.ReferenceStrength;
+
+/**
+ * Tests of {@link JmxMetricsExporter}.
+ */
+public class JmxMetricsExporterTest {
+
+    /** Not referenced by the factory, so it is simply dropped along with the test. */
+    private final MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+
+    @Test
+    public void mBeanReadsTheStatisticsOfTheCacheWhileItRuns() throws Exception {
+        Cache<Long, Foo> cache = new Cache<>(id -> new Foo(id, "loaded"), (entity, cacheObject, cacheMetadata) -> true);
+        cache.setValueStrength(ReferenceStrength.STRONG);
+        cache.setCleanupInterval(null);
+        cache.setRecordStats(true);
+        cache.setMetricsExporter("foos", new JmxMetricsExporter(this.mBeanServer));
+        ObjectName objectName = JmxMetricsExporter.objectName("foos");
+
+        cache.start();
+        try {
+            cache.get(1L);
+            cache.get(1L);
+
+            assertEquals(1L, this.mBeanServer.getAttribute(objectName, "EstimatedSize"));
+            assertEquals(1L, this.mBeanServer.getAttribute(objectName, "HitCount"));
+            assertEquals(1L, this.mBeanServer.getAttribute(objectName, "MissCount"));
+            assertEquals(1L, this.mBeanServer.getAttribute(objectName, "LoadSuccessCount"));
+        } finally {
+            cache.stop();
+        }
+
+        assertFalse(this.mBeanServer.isRegistered(objectName));
+    }
+
+    @Test
+    public void cachesAreRegisteredUnderTheirOwnNames() throws Exception {
+        Cache<Long, Foo> first = new Cache<>(id -> new Foo(id, "loaded"), (entity, cacheObject, cacheMetadata) -> true);
+        Cache<Long, Foo> second = new Cache<>(id -> new Foo(id, "loaded"), (entity, cacheObject, cacheMetadata) -> true);
+        first.setCleanupInterval(null);
+        second.setCleanupInterval(null);
+        first.setMetricsExporter("first", new JmxMetricsExporter(this.mBeanServer));
+        second.setMetricsExporter("second, with a comma", new JmxMetricsExporter(this.mBeanServer));
+
+        first.start();
+        second.start();
+        try {
+            assertTrue(this.mBeanServer.isRegistered(JmxMetricsExporter.objectName("first")));
+            assertTrue(this.mBeanServer.isRegistered(JmxMetricsExporter.objectName("second, with a comma")));
+        } finally {
+            first.stop();
+            second.stop();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.easycache.core.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.easycache.core.Serializer;
+
+/**
+ * Tests of {@link FileCacheStore}.
+ */
+public class FileCacheStoreTest {
+
+    private static final Serializer<String> SERIALIZER = new Serializer<String>() {
+        @Override
+        public byte[] serialize(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    private final Path directory;
+
+    public FileCacheStoreTest() throws IOException {
+        this.directory = Files.createTempDirectory("file-cache-store-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void storedEntitiesAreReadByEveryStoreOfTheDirectory() throws IOException {
+        FileCacheStore<String, String> store = newStore();
+        store.put("key", "old");
+        store.put("key", "new");
+        store.put("other key", "other");
+
+        FileCacheStore<String, String> otherStore = newStore();
+        assertEquals("new", otherStore.get("key"));
+        assertEquals("other", otherStore.get("other key"));
+        assertNull(otherStore.get("missing key"));
+    }
+
+    @Test
+    public void invalidatedEntitiesAreRemoved() throws Exception {
+        FileCacheStore<String, String> store = newStore();
+        store.putAll(Collections.singletonMap("key", "entity"));
+        store.put("other key", "other");
+
+        store.invalidateAll(Arrays.asList("key", "missing key"));
+
+        assertNull(store.get("key"));
+        assertEquals("other", store.get("other key"));
+    }
+
+    @Test
+    public void clearRemovesEveryFile() throws IOException {
+        FileCacheStore<String, String> store = newStore();
+        for (int i = 0; i < 10; i++) {
+            store.put("key " + i, "entity " + i);
+        }
+
+        store.clear();
+
+        assertNull(store.get("key 1"));
+        try (Stream<Path> files = Files.list(this.directory)) {
+            assertEquals(0L, files.count());
+        }
+    }
+
+    @Test
+    public void createsTheDirectory() throws IOException {
+        Path nested = this.directory.resolve("nested").resolve("store");
+        FileCacheStore<String, String> store = new FileCacheStore<>(nested, SERIALIZER, SERIALIZER);
+        store.put("key", "entity");
+
+        assertEquals(nested, store.getDirectory());
+        assertEquals("entity", store.get("key"));
+    }
+
+    private FileCacheStore<String, String> newStore() throws IOException {
+        return new FileCacheStore<>(this.directory, SERIALIZER, SERIALIZER);
+    }
+}